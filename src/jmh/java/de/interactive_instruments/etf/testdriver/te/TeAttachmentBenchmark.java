@@ -0,0 +1,112 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import de.interactive_instruments.XmlUtils;
+
+/**
+ * Extraction and preparation of the attachments of response.xml: reading the
+ * values from the DOM, detecting XML content and encoding the text.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TeAttachmentBenchmark {
+
+    private TeXmlPool xmlPool;
+    private Document document;
+    private final List<String> attachments = new ArrayList<>();
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws Exception {
+        xmlPool = new TeXmlPool();
+        document = xmlPool.parse(new ByteArrayInputStream(TeBenchmarkInputs.responseXml()));
+        final NodeList attributes = document.getElementsByTagName("attribute");
+        for (int i = 0; i < attributes.getLength(); i++) {
+            attachments.add(XmlUtils.nodeValue(attributes.item(i)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        xmlPool.release();
+    }
+
+    @Benchmark
+    public void extractValues(final Blackhole blackhole) {
+        final NodeList attributes = document.getElementsByTagName("attribute");
+        for (int i = 0; i < attributes.getLength(); i++) {
+            blackhole.consume(XmlUtils.nodeValue(attributes.item(i)));
+        }
+    }
+
+    @Benchmark
+    public void detectXml(final Blackhole blackhole) {
+        for (final String attachment : attachments) {
+            blackhole.consume(xmlPool.isWellFormed(attachment));
+        }
+    }
+
+    /**
+     * Encoding while the attachment is read, as the collector does
+     */
+    @Benchmark
+    public void encodeStreaming(final Blackhole blackhole) throws Exception {
+        for (final String attachment : attachments) {
+            try (final InputStream in = new TeTextInputStream(attachment)) {
+                for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                    blackhole.consume(n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encoding of the whole attachment before it is read, for comparison
+     */
+    @Benchmark
+    public void encodeCopy(final Blackhole blackhole) throws Exception {
+        for (final String attachment : attachments) {
+            try (final InputStream in = new ByteArrayInputStream(attachment.getBytes(StandardCharsets.UTF_8))) {
+                for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                    blackhole.consume(n);
+                }
+            }
+        }
+    }
+}
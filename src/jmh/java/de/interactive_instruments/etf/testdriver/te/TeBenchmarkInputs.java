@@ -0,0 +1,140 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.XmlUtils;
+
+/**
+ * Inputs of the benchmarks: the bundled TestNG result, scaled copies of it and
+ * generated results.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeBenchmarkInputs {
+
+    private TeBenchmarkInputs() {}
+
+    /**
+     * Returns the bundled response.xml
+     */
+    static byte[] responseXml() throws IOException {
+        try (final InputStream in = TeBenchmarkInputs.class.getResourceAsStream("/response.xml")) {
+            if (in == null) {
+                throw new IOException("response.xml not found on the class path");
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Returns a named input
+     *
+     * @param name
+     *            "response.xml", "response.xml x10" for the test modules repeated
+     *            10 times or "generated 10k" and "generated 100k" for generated
+     *            results with 10 000 and 100 000 test-methods
+     * @param xmlPool
+     *            the pool used for parsing and serializing
+     * @return the TestNG result
+     */
+    static byte[] input(final String name, final TeXmlPool xmlPool) throws Exception {
+        switch (name) {
+        case "response.xml":
+            return responseXml();
+        case "response.xml x10":
+            return scaledResponseXml(10, xmlPool);
+        case "generated 10k":
+            return generated(10);
+        case "generated 100k":
+            return generated(100);
+        }
+        throw new IllegalArgumentException("Unknown input " + name);
+    }
+
+    private static byte[] generated(final int testModules) throws Exception {
+        return new TeTestNgResultGenerator()
+                .testModules(testModules)
+                .classesPerModule(20)
+                .testMethodsPerClass(50)
+                .attachments(2, 1024)
+                .toByteArray();
+    }
+
+    /**
+     * Returns the bundled response.xml with all test modules repeated
+     *
+     * @param scale
+     *            number of copies of each test module, the copies are renamed
+     * @param xmlPool
+     *            the pool used for parsing and serializing
+     * @return the scaled TestNG result
+     */
+    static byte[] scaledResponseXml(final int scale, final TeXmlPool xmlPool) throws Exception {
+        final byte[] responseXml = responseXml();
+        if (scale <= 1) {
+            return responseXml;
+        }
+        final Document document = xmlPool.parse(new ByteArrayInputStream(responseXml));
+        final Node suite = XmlUtils.getFirstChildNodeOfType(document.getDocumentElement(), ELEMENT_NODE, "suite");
+        final List<Element> testModules = new ArrayList<>();
+        for (Node testModule = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+            testModules.add((Element) testModule);
+        }
+        for (int i = 1; i < scale; i++) {
+            for (final Element testModule : testModules) {
+                final Element copy = (Element) testModule.cloneNode(true);
+                copy.setAttribute("name", testModule.getAttribute("name") + " " + i);
+                suite.appendChild(copy);
+            }
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(responseXml.length * scale);
+        xmlPool.serialize(document, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Renames the first test-method, so that the structure of the result changes
+     */
+    static Document withRenamedTestMethod(final Document document) {
+        final Document copy = (Document) document.cloneNode(true);
+        final Node testMethod = copy.getElementsByTagName("test-method").item(0);
+        ((Element) testMethod).setAttribute("name", XmlUtils.getAttribute(testMethod, "name") + "Renamed");
+        return copy;
+    }
+}
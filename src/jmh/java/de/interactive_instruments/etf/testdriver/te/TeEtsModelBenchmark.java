@@ -0,0 +1,107 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+
+import de.interactive_instruments.etf.dal.dao.DataStorage;
+import de.interactive_instruments.etf.dal.dao.WriteDao;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * Building the ETS model from a TestNG result with
+ * {@link TeTypeLoader#updateEtsFromResult}.
+ *
+ * The data storage discards the updated ETS, so only the model building and the
+ * merge with the current model are measured.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TeEtsModelBenchmark {
+
+    @Param({"response.xml", "response.xml x10", "generated 10k", "generated 100k"})
+    public String input;
+
+    private TeTypeLoader typeLoader;
+    private ExecutableTestSuiteDto ets;
+    private Document document;
+    private Document changedDocument;
+    private boolean changed;
+
+    private static Object discardingProxy(final Class<?> type) {
+        return Proxy.newProxyInstance(TeEtsModelBenchmark.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getDao")) {
+                        return discardingProxy(WriteDao.class);
+                    }
+                    if (method.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    if (method.getReturnType().isPrimitive()) {
+                        return method.getReturnType() == void.class ? null : 0;
+                    }
+                    return null;
+                });
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        final TeXmlPool xmlPool = new TeXmlPool();
+        document = xmlPool.parse(new ByteArrayInputStream(TeBenchmarkInputs.input(input, xmlPool)));
+        changedDocument = TeBenchmarkInputs.withRenamedTestMethod(document);
+        typeLoader = new TeTypeLoader((DataStorage) discardingProxy(DataStorage.class),
+                URI.create("http://localhost/teamengine/"), null, TeExchanges.live(), new TeStringPool(16384), null);
+        ets = new ExecutableTestSuiteDto();
+        ets.setId(EidFactory.getDefault().createUUID("http://localhost/teamengine/rest/suites/benchmark/"));
+        ets.setLabel("Benchmark");
+        // the first update creates the model
+        typeLoader.updateEtsFromResult(ets, document);
+    }
+
+    /**
+     * Every run returns the same structure, the common case
+     */
+    @Benchmark
+    public boolean updateUnchanged() throws Exception {
+        return typeLoader.updateEtsFromResult(ets, document);
+    }
+
+    /**
+     * The structure changes with every run, the new model is merged with the current one
+     */
+    @Benchmark
+    public boolean updateChanged() throws Exception {
+        changed = !changed;
+        return typeLoader.updateEtsFromResult(ets, changed ? changedDocument : document);
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamReader;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.XmlUtils;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * Ingestion of a TestNG result: building the DOM compared with a streaming pass
+ * over the same document, and the extraction and mapping of the test modules.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TeIngestionBenchmark {
+
+    @Param({"response.xml", "response.xml x10", "generated 10k", "generated 100k"})
+    public String input;
+
+    private TeXmlPool xmlPool;
+    private byte[] result;
+    private Document document;
+
+    @Setup
+    public void setUp() throws Exception {
+        xmlPool = new TeXmlPool();
+        result = TeBenchmarkInputs.input(input, xmlPool);
+        document = xmlPool.parse(new ByteArrayInputStream(result));
+    }
+
+    @TearDown
+    public void tearDown() {
+        xmlPool.release();
+    }
+
+    @Benchmark
+    public Document parseDom() throws Exception {
+        return xmlPool.parse(new ByteArrayInputStream(result));
+    }
+
+    /**
+     * Reads the values the driver needs from the test-method elements without
+     * building a tree
+     */
+    @Benchmark
+    public void scanStream(final Blackhole blackhole) throws Exception {
+        final XMLStreamReader reader = xmlPool.createXMLStreamReader(new ByteArrayInputStream(result));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamReader.START_ELEMENT && "test-method".equals(reader.getLocalName())) {
+                    blackhole.consume(reader.getAttributeValue(null, "name"));
+                    blackhole.consume(reader.getAttributeValue(null, "status"));
+                    blackhole.consume(reader.getAttributeValue(null, "started-at"));
+                    blackhole.consume(reader.getAttributeValue(null, "finished-at"));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Benchmark
+    public void extractModules(final Blackhole blackhole) {
+        final Node suite = XmlUtils.getFirstChildNodeOfType(document.getDocumentElement(), ELEMENT_NODE, "suite");
+        final String suiteName = XmlUtils.getAttribute(suite, "name");
+        for (Node testModule = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+            blackhole.consume(TeModuleResult.extract(suiteName, testModule));
+        }
+    }
+
+    /**
+     * Extracts and maps the test modules to collector calls, with IDs generated
+     * as for an ETS that has not been indexed yet
+     */
+    @Benchmark
+    public void extractAndMapModules(final Blackhole blackhole) {
+        final Node suite = XmlUtils.getFirstChildNodeOfType(document.getDocumentElement(), ELEMENT_NODE, "suite");
+        final String suiteName = XmlUtils.getAttribute(suite, "name");
+        for (Node testModule = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+            blackhole.consume(TeModuleResult.extract(suiteName, testModule).map(
+                    (parentName, name) -> EidFactory.getDefault().createUUID("benchmark" + parentName + name).getId(),
+                    xmlPool, "benchmark"));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.TimeUtils;
+import de.interactive_instruments.XmlUtils;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * Generation and lookup of the IDs of the test items and parsing of the
+ * timestamps, for all test modules, classes and test-methods of response.xml
+ * per operation.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TeItemIdBenchmark {
+
+    private static final String ETS_PREFIX = "a3bce62a-5d2f-4ec5-bfb7-2b5d6b3d5a2fBenchmark";
+
+    private final List<String> parentNames = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> timestamps = new ArrayList<>();
+    private TeEtsIndex index;
+
+    private void add(final Node node, final TeEtsIndex.Builder builder, final byte level, final int parent,
+            final List<Integer> ordinals) {
+        final String parentName = XmlUtils.getAttribute(node.getParentNode(), "name");
+        final String name = XmlUtils.getAttribute(node, "name");
+        parentNames.add(parentName);
+        names.add(name);
+        ordinals.add(builder.add(level, parent,
+                EidFactory.getDefault().createUUID(ETS_PREFIX + parentName + name), name, null));
+        for (final String attribute : new String[]{"started-at", "finished-at"}) {
+            final String timestamp = XmlUtils.getAttributeOrDefault(node, attribute, null);
+            if (timestamp != null) {
+                timestamps.add(timestamp);
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        final TeXmlPool xmlPool = new TeXmlPool();
+        final Document document = xmlPool.parse(new ByteArrayInputStream(TeBenchmarkInputs.responseXml()));
+        final Node suite = XmlUtils.getFirstChildNodeOfType(document.getDocumentElement(), ELEMENT_NODE, "suite");
+        final TeEtsIndex.Builder builder = new TeEtsIndex.Builder(XmlUtils.getAttribute(suite, "name"));
+        final List<Integer> ordinals = new ArrayList<>();
+        for (Node testModule = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+            add(testModule, builder, TeEtsIndex.MODULE, -1, ordinals);
+            final int moduleOrdinal = ordinals.get(ordinals.size() - 1);
+            for (Node testCase = XmlUtils.getFirstChildNodeOfType(testModule, ELEMENT_NODE,
+                    "class"); testCase != null; testCase = XmlUtils.getNextSiblingOfType(testCase, ELEMENT_NODE, "class")) {
+                add(testCase, builder, TeEtsIndex.CASE, moduleOrdinal, ordinals);
+                final int caseOrdinal = ordinals.get(ordinals.size() - 1);
+                for (Node testStep = XmlUtils.getFirstChildNodeOfType(testCase, ELEMENT_NODE,
+                        "test-method"); testStep != null; testStep = XmlUtils.getNextSiblingOfType(testStep, ELEMENT_NODE,
+                                "test-method")) {
+                    add(testStep, builder, TeEtsIndex.STEP, caseOrdinal, ordinals);
+                }
+            }
+        }
+        index = builder.build("benchmark");
+        xmlPool.release();
+    }
+
+    /**
+     * IDs of an ETS that has not been indexed yet
+     */
+    @Benchmark
+    public void generateItemIds(final Blackhole blackhole) {
+        for (int i = 0; i < names.size(); i++) {
+            blackhole.consume(EidFactory.getDefault().createUUID(ETS_PREFIX + parentNames.get(i) + names.get(i)).getId());
+        }
+    }
+
+    @Benchmark
+    public void lookupItemIds(final Blackhole blackhole) {
+        for (int i = 0; i < names.size(); i++) {
+            blackhole.consume(index.itemId(parentNames.get(i), names.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void parseTimestamps(final Blackhole blackhole) {
+        for (int i = 0; i < timestamps.size(); i++) {
+            blackhole.consume(TimeUtils.string8601ToDate(timestamps.get(i)).getTime());
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Executes one Executable Test Suite against multiple test objects.
+ *
+ * As soon as the first task of the batch is run, the TEAM Engine is invoked for
+ * all tasks of the batch with a bounded concurrency and the responses are spooled
+ * to temporary files. Each task then only waits for its own response and maps it
+ * into its own result collector, so the results of the test objects are collected
+ * while the TEAM Engine is still busy with the remaining ones.
+ *
+ * The ETS model is only updated by the first task that receives a result.
+ *
+ * The invocations run on the threads of the batch and log to the driver log, the
+ * task log only receives the messages of the task thread. The batch is shut down
+ * and unconsumed responses are deleted as soon as every task of the batch has
+ * finished, has been cancelled, could not be created or was not created in time.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeBatch {
+
+    private static final AtomicInteger batchCounter = new AtomicInteger();
+
+    private final Set<EID> testTaskIds;
+    private final ThreadPoolExecutor executor;
+    private final Map<Member, Future<Path>> results = new LinkedHashMap<>();
+    private final List<Member> tasks = new ArrayList<>();
+    private final AtomicBoolean etsUpdateClaimed = new AtomicBoolean();
+    private final Set<EID> completed = new HashSet<>();
+    private final Logger logger = LoggerFactory.getLogger(TeBatch.class);
+    private final long createdNanos = System.nanoTime();
+    private boolean started;
+
+    /**
+     * A task of the batch
+     */
+    interface Member {
+
+        EID getId();
+
+        /**
+         * Check the endpoint, invoke the TEAM Engine and spool the response
+         *
+         * @return the spooled response
+         * @throws Exception
+         *             if the check or the invocation failed
+         */
+        Path fetchResult() throws Exception;
+    }
+
+    /**
+     * Create a new batch
+     *
+     * @param testTaskIds
+     *            the IDs of the Test Task DTOs that belong to this batch
+     * @param concurrency
+     *            maximum number of parallel TEAM Engine invocations of this batch
+     */
+    TeBatch(final Set<EID> testTaskIds, final int concurrency) {
+        this.testTaskIds = Collections.unmodifiableSet(testTaskIds);
+        final int batchNumber = batchCounter.incrementAndGet();
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    final Thread thread = new Thread(runnable,
+                            "te-batch-" + batchNumber + "-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Add a task that has been created for one of the Test Task DTOs of this batch
+     *
+     * @param task
+     *            the task
+     */
+    synchronized void register(final Member task) {
+        if (completed.contains(task.getId())) {
+            return;
+        }
+        tasks.add(task);
+        if (started) {
+            submit(task);
+        }
+    }
+
+    private synchronized void start() {
+        if (!started) {
+            started = true;
+            for (final Member task : tasks) {
+                submit(task);
+            }
+        }
+    }
+
+    private void submit(final Member task) {
+        results.put(task, executor.submit(() -> {
+            final Path spoolFile = task.fetchResult();
+            if (isCompleted(task.getId())) {
+                // cancelled while the TEAM Engine was running
+                Files.deleteIfExists(spoolFile);
+                throw new CancellationException();
+            }
+            return spoolFile;
+        }));
+    }
+
+    private synchronized boolean isCompleted(final EID testTaskId) {
+        return completed.contains(testTaskId);
+    }
+
+    /**
+     * Returns the logger for the invocations running on the threads of the batch
+     *
+     * @return the logger of the batch
+     */
+    Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Starts the batch, if not already started, and waits for the TEAM Engine response of the task
+     *
+     * @param task
+     *            the task
+     * @return the spooled response, which must be deleted by the task
+     * @throws Exception
+     *             the exception that occurred while checking the endpoint or invoking the TEAM Engine
+     */
+    Path awaitResult(final Member task) throws Exception {
+        start();
+        final Future<Path> result;
+        synchronized (this) {
+            result = results.get(task);
+        }
+        if (result == null) {
+            throw new IllegalStateException("Task is not registered in the batch");
+        }
+        try {
+            return result.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true for the first caller, which shall update the ETS model
+     *
+     * @return true if the caller shall update the ETS model
+     */
+    boolean claimEtsUpdate() {
+        return etsUpdateClaimed.compareAndSet(false, true);
+    }
+
+    void cancel(final Member task) {
+        complete(task.getId());
+        final Future<Path> result;
+        synchronized (this) {
+            result = results.get(task);
+        }
+        if (result != null) {
+            result.cancel(true);
+            deleteSpoolFile(result);
+        }
+    }
+
+    void finished(final Member task) {
+        complete(task.getId());
+    }
+
+    /**
+     * Mark a Test Task of this batch as completed, for which no task could be created
+     *
+     * @param testTaskId
+     *            the ID of the Test Task DTO
+     */
+    void abandon(final EID testTaskId) {
+        complete(testTaskId);
+    }
+
+    private void complete(final EID testTaskId) {
+        synchronized (this) {
+            if (!testTaskIds.contains(testTaskId) || !completed.add(testTaskId)
+                    || completed.size() < testTaskIds.size()) {
+                return;
+            }
+        }
+        release();
+    }
+
+    /**
+     * Returns true if the batch has been created more than the given time ago
+     *
+     * @param nanos
+     *            age in nanoseconds
+     * @return true if the batch is older
+     */
+    boolean isOlderThan(final long nanos) {
+        return System.nanoTime() - createdNanos > nanos;
+    }
+
+    boolean isFinished() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Stop all running invocations and delete the responses that have not been consumed yet
+     */
+    void release() {
+        executor.shutdownNow();
+        final List<Future<Path>> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(results.values());
+        }
+        for (final Future<Path> result : pending) {
+            result.cancel(true);
+            deleteSpoolFile(result);
+        }
+    }
+
+    private static void deleteSpoolFile(final Future<Path> result) {
+        if (result.isDone() && !result.isCancelled()) {
+            try {
+                Files.deleteIfExists(result.get());
+            } catch (final IOException | InterruptedException | ExecutionException ign) {
+                ExcUtils.suppress(ign);
+            }
+        }
+    }
+}
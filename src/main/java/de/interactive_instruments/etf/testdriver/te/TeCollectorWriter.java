@@ -0,0 +1,197 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import de.interactive_instruments.etf.testdriver.TestResultCollector;
+
+/**
+ * Applies the calls to a result collector on a separate writer thread, so that
+ * the parsing of a result is not blocked by saving attachments.
+ *
+ * The collector expects the calls in document order, as attachments and messages
+ * are added to the currently started item. The calls are therefore queued in a
+ * bounded queue and applied by one thread in the order they have been submitted.
+ * If the queue is full, the parser waits until the writer caught up.
+ *
+ * The writer threads are taken from a bounded driver wide executor. If no thread
+ * is available, the calls are applied directly by the submitting thread. Any
+ * throwable of a call, including errors, is recorded as failure, the writer then
+ * discards the remaining calls, so the parser never waits for a dead writer.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeCollectorWriter implements AutoCloseable {
+
+    /**
+     * A call to the collector
+     */
+    interface Call {
+        void apply(final TestResultCollector collector) throws Exception;
+    }
+
+    private static final Call END = collector -> {};
+
+    private final TestResultCollector collector;
+    private final BlockingQueue<Call> queue;
+    // true if the calls are applied by the submitting thread
+    private final boolean direct;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private long applyNanos;
+
+    /**
+     * Create and start a writer
+     *
+     * @param collector
+     *            the collector of the task
+     * @param capacity
+     *            maximum number of queued calls
+     * @param executor
+     *            the driver wide executor for writer threads
+     */
+    TeCollectorWriter(final TestResultCollector collector, final int capacity, final Executor executor) {
+        this.collector = collector;
+        // the queue must be available before the writer thread is started
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        boolean started;
+        try {
+            executor.execute(this::write);
+            started = true;
+        } catch (final RejectedExecutionException e) {
+            started = false;
+            finished.countDown();
+        }
+        this.direct = !started;
+    }
+
+    private void write() {
+        try {
+            for (Call call = queue.take(); call != END; call = queue.take()) {
+                if (failure == null && !closed) {
+                    apply(call);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private void apply(final Call call) {
+        final long start = System.nanoTime();
+        try {
+            call.apply(collector);
+        } catch (final Throwable e) {
+            // discard the remaining calls, the parser is notified on the next submit
+            failure = e;
+        }
+        applyNanos += System.nanoTime() - start;
+    }
+
+    private void throwFailure() throws Exception {
+        final Throwable e = failure;
+        if (e instanceof Exception) {
+            throw (Exception) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Queue a call, blocks if the queue is full
+     *
+     * @param call
+     *            the call
+     * @throws Exception
+     *             the exception of a previously applied call
+     */
+    void submit(final Call call) throws Exception {
+        throwFailure();
+        if (direct) {
+            apply(call);
+            return;
+        }
+        while (!queue.offer(call, 100, TimeUnit.MILLISECONDS)) {
+            if (finished.getCount() == 0) {
+                throwFailure();
+                throw new IllegalStateException("The collector writer has stopped");
+            }
+        }
+    }
+
+    /**
+     * Waits until all queued calls have been applied. Afterwards the collector
+     * can be used directly again.
+     *
+     * @throws Exception
+     *             the first exception that occurred while applying a call
+     */
+    void flush() throws Exception {
+        if (!direct) {
+            submit(END);
+            finished.await();
+        }
+        throwFailure();
+    }
+
+    /**
+     * Returns the time the collector needed for applying the calls, valid after {@link #flush()}
+     */
+    long getApplyMillis() {
+        return applyNanos / 1000000;
+    }
+
+    /**
+     * Stops the writer and discards the calls that have not been applied yet.
+     * Waits until a call that is currently applied has finished, as the
+     * collector must not be used by two threads at the same time.
+     */
+    @Override
+    public void close() {
+        if (!direct && !closed) {
+            closed = true;
+            // the writer thread is returned to the executor
+            queue.clear();
+            queue.offer(END);
+            boolean interrupted = false;
+            while (finished.getCount() != 0) {
+                try {
+                    finished.await();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.util.*;
+
+import de.interactive_instruments.SUtils;
+import de.interactive_instruments.etf.dal.dao.WriteDao;
+import de.interactive_instruments.etf.dal.dto.Dto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.exceptions.ExcUtils;
+import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
+import de.interactive_instruments.exceptions.StorageException;
+
+/**
+ * Writes static DTOs of the driver only if they are not persisted yet or if
+ * they differ from the persisted ones.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeDtoUpsert {
+
+    private TeDtoUpsert() {}
+
+    /**
+     * The properties of a DTO that are compared
+     */
+    interface Fingerprint<T extends Dto> {
+        String of(final T dto);
+    }
+
+    /**
+     * Compare the hashes of the fingerprints of the DTOs with the persisted ones
+     * and replace the missing or changed DTOs in one batch.
+     *
+     * @param dao
+     *            the DAO
+     * @param dtos
+     *            the DTOs to persist
+     * @param fingerprint
+     *            the properties that are compared
+     * @return number of written DTOs
+     * @throws StorageException
+     *             if the DTOs could not be written. The changed DTOs are deleted in this case
+     */
+    static <T extends Dto> int upsert(final WriteDao<T> dao, final Collection<T> dtos,
+            final Fingerprint<T> fingerprint) throws StorageException {
+        final List<T> changed = new ArrayList<>();
+        final Set<EID> changedIds = new LinkedHashSet<>();
+        for (final T dto : dtos) {
+            if (dao.exists(dto.getId())) {
+                try {
+                    final T persisted = dao.getById(dto.getId()).getDto();
+                    if (hash(fingerprint, persisted).equals(hash(fingerprint, dto))) {
+                        continue;
+                    }
+                } catch (final ObjectWithIdNotFoundException e) {
+                    ExcUtils.suppress(e);
+                }
+            }
+            changed.add(dto);
+            changedIds.add(dto.getId());
+        }
+        if (changed.isEmpty()) {
+            return 0;
+        }
+        try {
+            dao.deleteAllExisting(changedIds);
+            dao.addAll(changed);
+        } catch (final StorageException e) {
+            try {
+                dao.deleteAllExisting(changedIds);
+            } catch (StorageException ign) {
+                ExcUtils.suppress(ign);
+            }
+            throw e;
+        }
+        return changed.size();
+    }
+
+    static <T extends Dto> int upsert(final WriteDao<T> dao, final T dto,
+            final Fingerprint<T> fingerprint) throws StorageException {
+        return upsert(dao, Collections.singleton(dto), fingerprint);
+    }
+
+    private static <T extends Dto> String hash(final Fingerprint<T> fingerprint, final T dto) {
+        return SUtils.fastCalcHashAsHexStr(fingerprint.of(dto));
+    }
+}
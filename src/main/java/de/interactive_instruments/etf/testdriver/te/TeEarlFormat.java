@@ -0,0 +1,470 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * EARL reports, serialized as RDF/XML.
+ *
+ * Each earl:Assertion references the earl:TestCase, named after the test
+ * class and method, and the earl:TestResult with the outcome, the date, the
+ * description of a failure and the HTTP request and response. The test case is
+ * part of a test requirement, which corresponds to a TestNG test. EARL
+ * reports do not contain the timing of a test-method, so the start and end
+ * timestamps are both set to the date of the result and the format is only used
+ * if the durations are not required.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeEarlFormat implements TeResultFormat {
+
+    static final String NAME = "earl";
+
+    private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    private static final String XML = "http://www.w3.org/XML/1998/namespace";
+    private static final String XMLNS = "http://www.w3.org/2000/xmlns/";
+    private static final String EARL = "http://www.w3.org/ns/earl#";
+    private static final String DCT = "http://purl.org/dc/terms/";
+    private static final String HTTP = "http://www.w3.org/2011/http#";
+    private static final String CNT = "http://www.w3.org/2011/content#";
+    // depth up to which request and response contents are searched
+    private static final int MAX_CONTENT_DEPTH = 3;
+    private static final DateTimeFormatter TESTNG_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * The statements about one resource
+     */
+    private static final class Resource {
+        private final String id;
+        // values are resources or literals
+        private final Map<String, List<Object>> properties = new LinkedHashMap<>();
+
+        private Resource(final String id) {
+            this.id = id;
+        }
+
+        private void add(final String predicate, final Object value) {
+            properties.computeIfAbsent(predicate, k -> new ArrayList<>(1)).add(value);
+        }
+
+        private Resource resource(final String predicate) {
+            for (final Object value : properties.getOrDefault(predicate, Collections.emptyList())) {
+                if (value instanceof Resource) {
+                    return (Resource) value;
+                }
+            }
+            return null;
+        }
+
+        private String literal(final String predicate) {
+            for (final Object value : properties.getOrDefault(predicate, Collections.emptyList())) {
+                if (value instanceof String) {
+                    return (String) value;
+                }
+            }
+            return null;
+        }
+
+        private boolean isA(final String type) {
+            for (final Object value : properties.getOrDefault(RDF + "type", Collections.emptyList())) {
+                if (value instanceof Resource && type.equals(((Resource) value).id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Resources by their IRI or blank node ID
+     */
+    private static final class Graph {
+        private final Map<String, Resource> resources = new LinkedHashMap<>();
+        private int blankNodes;
+
+        private Resource get(final String id) {
+            return resources.computeIfAbsent(id, Resource::new);
+        }
+
+        private Resource blank() {
+            return get("_:b" + blankNodes++);
+        }
+    }
+
+    /**
+     * A converted test-method
+     */
+    private static final class TestMethod {
+        private final String name;
+        private final String status;
+        private final long date;
+        private final String exceptionClass;
+        private final String message;
+        private final String request;
+        private final String response;
+
+        private TestMethod(final String name, final String status, final long date, final String exceptionClass,
+                final String message, final String request, final String response) {
+            this.name = name;
+            this.status = status;
+            this.date = date;
+            this.exceptionClass = exceptionClass;
+            this.message = message;
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getMediaType() {
+        return "application/rdf+xml";
+    }
+
+    @Override
+    public boolean hasDurations() {
+        return false;
+    }
+
+    @Override
+    public boolean isResult(final Element root) {
+        return RDF.equals(root.getNamespaceURI()) && "RDF".equals(root.getLocalName());
+    }
+
+    @Override
+    public Document toTestNg(final Document result) {
+        final Graph graph = new Graph();
+        for (Node node = result.getDocumentElement().getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                nodeElement(graph, (Element) node);
+            }
+        }
+
+        // test requirements, test classes and test-methods in the order of the assertions
+        final Map<String, Map<String, List<TestMethod>>> tests = new LinkedHashMap<>();
+        final long now = System.currentTimeMillis();
+        for (final Resource assertion : new ArrayList<>(graph.resources.values())) {
+            if (!assertion.isA(EARL + "Assertion")) {
+                continue;
+            }
+            final Resource testCase = assertion.resource(EARL + "test");
+            final Resource testResult = assertion.resource(EARL + "result");
+            if (testCase == null || testResult == null) {
+                continue;
+            }
+            final int fragment = testCase.id.lastIndexOf('#');
+            final String title = testCase.literal(DCT + "title");
+            final String methodName = title != null ? title : testCase.id.substring(fragment + 1);
+            final String className = fragment != -1 ? testCase.id.substring(0, fragment).replace('/', '.') : "";
+            final Resource requirement = testCase.resource(DCT + "isPartOf");
+            final String testName = requirement == null ? ""
+                    : requirement.literal(DCT + "title") != null ? requirement.literal(DCT + "title") : requirement.id;
+            tests.computeIfAbsent(testName, k -> new LinkedHashMap<>())
+                    .computeIfAbsent(className, k -> new ArrayList<>())
+                    .add(testMethod(methodName, testResult, now));
+        }
+        return testNgDocument(result, tests);
+    }
+
+    private static TestMethod testMethod(final String name, final Resource testResult, final long now) {
+        final Resource outcome = testResult.resource(EARL + "outcome");
+        final String outcomeName = outcome != null ? outcome.id.substring(outcome.id.lastIndexOf('#') + 1) : "";
+        final String message = testResult.literal(DCT + "description");
+        final String status;
+        final String exceptionClass;
+        switch (outcomeName) {
+        case "passed":
+            status = "PASS";
+            exceptionClass = null;
+            break;
+        case "failed":
+            status = "FAIL";
+            exceptionClass = "java.lang.AssertionError";
+            break;
+        case "cantTell":
+            // an error, not a failed assertion
+            status = "FAIL";
+            exceptionClass = "java.lang.RuntimeException";
+            break;
+        default:
+            // untested and inapplicable
+            status = "SKIP";
+            exceptionClass = message != null ? "org.testng.SkipException" : null;
+        }
+        final long date = timestamp(testResult.literal(DCT + "date"), now);
+        String request = null;
+        String response = null;
+        final Set<Resource> visited = new HashSet<>();
+        final Deque<Resource> exchanges = new ArrayDeque<>(Collections.singleton(testResult));
+        for (int depth = 0; depth < MAX_CONTENT_DEPTH && !exchanges.isEmpty(); depth++) {
+            for (int i = exchanges.size(); i > 0; i--) {
+                final Resource resource = exchanges.poll();
+                if (!visited.add(resource)) {
+                    continue;
+                }
+                if (request == null && resource.isA(HTTP + "Request")) {
+                    request = content(resource);
+                    if (request == null) {
+                        // GET requests are represented by the query
+                        final String uri = resource.literal(HTTP + "absoluteURI") != null
+                                ? resource.literal(HTTP + "absoluteURI")
+                                : resource.literal(HTTP + "requestURI");
+                        request = uri != null && uri.indexOf('?') != -1 ? uri.substring(uri.indexOf('?') + 1) : uri;
+                    }
+                } else if (response == null && resource.isA(HTTP + "Response")) {
+                    response = content(resource);
+                }
+                for (final List<Object> values : resource.properties.values()) {
+                    for (final Object value : values) {
+                        if (value instanceof Resource) {
+                            exchanges.add((Resource) value);
+                        }
+                    }
+                }
+            }
+        }
+        return new TestMethod(name, status, date, exceptionClass, message, request, response);
+    }
+
+    /**
+     * Returns the first cnt:chars value of the resource or the resources it
+     * references, without descending into other requests or responses
+     */
+    private static String content(final Resource resource) {
+        final Set<Resource> visited = new HashSet<>();
+        final Deque<Resource> resources = new ArrayDeque<>(Collections.singleton(resource));
+        for (int depth = 0; depth < MAX_CONTENT_DEPTH && !resources.isEmpty(); depth++) {
+            for (int i = resources.size(); i > 0; i--) {
+                final Resource next = resources.poll();
+                if (!visited.add(next)) {
+                    continue;
+                }
+                if (next != resource && (next.isA(HTTP + "Request") || next.isA(HTTP + "Response"))) {
+                    continue;
+                }
+                final String chars = next.literal(CNT + "chars");
+                if (chars != null) {
+                    return chars;
+                }
+                for (final List<Object> values : next.properties.values()) {
+                    for (final Object value : values) {
+                        if (value instanceof Resource) {
+                            resources.add((Resource) value);
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long timestamp(final String date, final long defaultValue) {
+        if (date == null) {
+            return defaultValue;
+        }
+        try {
+            return OffsetDateTime.parse(date.trim()).toInstant().toEpochMilli();
+        } catch (final DateTimeParseException e) {
+            try {
+                // dates without an offset are in UTC
+                return LocalDateTime.parse(date.trim()).toInstant(ZoneOffset.UTC).toEpochMilli();
+            } catch (final DateTimeParseException ign) {
+                return defaultValue;
+            }
+        }
+    }
+
+    private static String format(final long timestamp) {
+        return TESTNG_TIMESTAMP.format(Instant.ofEpochMilli(timestamp));
+    }
+
+    private static Document testNgDocument(final Document result,
+            final Map<String, Map<String, List<TestMethod>>> tests) {
+        final Document document = result.getImplementation().createDocument(null, "testng-results", null);
+        final Element results = document.getDocumentElement();
+        final Element suite = document.createElement("suite");
+        results.appendChild(suite);
+        int passed = 0;
+        int failed = 0;
+        int skipped = 0;
+        long suiteStart = Long.MAX_VALUE;
+        long suiteEnd = Long.MIN_VALUE;
+        for (final Map.Entry<String, Map<String, List<TestMethod>>> test : tests.entrySet()) {
+            final Element testElement = document.createElement("test");
+            testElement.setAttribute("name", test.getKey());
+            suite.appendChild(testElement);
+            long testStart = Long.MAX_VALUE;
+            long testEnd = Long.MIN_VALUE;
+            for (final Map.Entry<String, List<TestMethod>> testClass : test.getValue().entrySet()) {
+                final Element classElement = document.createElement("class");
+                classElement.setAttribute("name", testClass.getKey());
+                testElement.appendChild(classElement);
+                for (final TestMethod testMethod : testClass.getValue()) {
+                    classElement.appendChild(testMethodElement(document, testMethod));
+                    testStart = Math.min(testStart, testMethod.date);
+                    testEnd = Math.max(testEnd, testMethod.date);
+                    if ("PASS".equals(testMethod.status)) {
+                        passed++;
+                    } else if ("FAIL".equals(testMethod.status)) {
+                        failed++;
+                    } else {
+                        skipped++;
+                    }
+                }
+            }
+            if (testStart <= testEnd) {
+                testElement.setAttribute("started-at", format(testStart));
+                testElement.setAttribute("finished-at", format(testEnd));
+                suiteStart = Math.min(suiteStart, testStart);
+                suiteEnd = Math.max(suiteEnd, testEnd);
+            }
+        }
+        if (suiteStart <= suiteEnd) {
+            suite.setAttribute("started-at", format(suiteStart));
+            suite.setAttribute("finished-at", format(suiteEnd));
+            suite.setAttribute("duration-ms", String.valueOf(suiteEnd - suiteStart));
+        }
+        results.setAttribute("passed", String.valueOf(passed));
+        results.setAttribute("failed", String.valueOf(failed));
+        results.setAttribute("skipped", String.valueOf(skipped));
+        results.setAttribute("total", String.valueOf(passed + failed + skipped));
+        return document;
+    }
+
+    private static Element testMethodElement(final Document document, final TestMethod testMethod) {
+        final Element element = document.createElement("test-method");
+        element.setAttribute("name", testMethod.name);
+        element.setAttribute("status", testMethod.status);
+        element.setAttribute("started-at", format(testMethod.date));
+        element.setAttribute("finished-at", format(testMethod.date));
+        if (testMethod.exceptionClass != null) {
+            final Element exception = document.createElement("exception");
+            exception.setAttribute("class", testMethod.exceptionClass);
+            if (testMethod.message != null) {
+                final Element message = document.createElement("message");
+                message.appendChild(document.createTextNode(testMethod.message));
+                exception.appendChild(message);
+            }
+            element.appendChild(exception);
+        }
+        if (testMethod.request != null || testMethod.response != null) {
+            final Element attributes = document.createElement("attributes");
+            if (testMethod.request != null) {
+                attributes.appendChild(attribute(document, "request", testMethod.request));
+            }
+            if (testMethod.response != null) {
+                attributes.appendChild(attribute(document, "response", testMethod.response));
+            }
+            element.appendChild(attributes);
+        }
+        return element;
+    }
+
+    private static Element attribute(final Document document, final String name, final String value) {
+        final Element attribute = document.createElement("attribute");
+        attribute.setAttribute("name", name);
+        attribute.appendChild(document.createTextNode(value));
+        return attribute;
+    }
+
+    private static String name(final Node node) {
+        return (node.getNamespaceURI() != null ? node.getNamespaceURI() : "") + node.getLocalName();
+    }
+
+    /**
+     * Reads a node element and its properties, see the RDF/XML syntax specification
+     */
+    private static Resource nodeElement(final Graph graph, final Element element) {
+        final Resource resource;
+        if (element.hasAttributeNS(RDF, "about")) {
+            resource = graph.get(element.getAttributeNS(RDF, "about"));
+        } else if (element.hasAttributeNS(RDF, "nodeID")) {
+            resource = graph.get("_:" + element.getAttributeNS(RDF, "nodeID"));
+        } else if (element.hasAttributeNS(RDF, "ID")) {
+            resource = graph.get("#" + element.getAttributeNS(RDF, "ID"));
+        } else {
+            resource = graph.blank();
+        }
+        if (!RDF.equals(element.getNamespaceURI()) || !"Description".equals(element.getLocalName())) {
+            resource.add(RDF + "type", graph.get(name(element)));
+        }
+        final NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Node attribute = attributes.item(i);
+            final String namespace = attribute.getNamespaceURI();
+            if (RDF.equals(namespace) && "type".equals(attribute.getLocalName())) {
+                resource.add(RDF + "type", graph.get(attribute.getNodeValue()));
+            } else if (namespace != null && !RDF.equals(namespace) && !XML.equals(namespace)
+                    && !XMLNS.equals(namespace)) {
+                resource.add(name(attribute), attribute.getNodeValue());
+            }
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                propertyElement(graph, resource, (Element) child);
+            }
+        }
+        return resource;
+    }
+
+    private static void propertyElement(final Graph graph, final Resource subject, final Element property) {
+        final String predicate = name(property);
+        final String parseType = property.getAttributeNS(RDF, "parseType");
+        if (property.hasAttributeNS(RDF, "resource")) {
+            subject.add(predicate, graph.get(property.getAttributeNS(RDF, "resource")));
+        } else if (property.hasAttributeNS(RDF, "nodeID")) {
+            subject.add(predicate, graph.get("_:" + property.getAttributeNS(RDF, "nodeID")));
+        } else if ("Resource".equals(parseType)) {
+            final Resource object = graph.blank();
+            for (Node child = property.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    propertyElement(graph, object, (Element) child);
+                }
+            }
+            subject.add(predicate, object);
+        } else {
+            Element node = null;
+            for (Node child = property.getFirstChild(); child != null && node == null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    node = (Element) child;
+                }
+            }
+            if (node != null && !"Literal".equals(parseType)) {
+                subject.add(predicate, nodeElement(graph, node));
+            } else {
+                subject.add(predicate, property.getTextContent());
+            }
+        }
+    }
+}
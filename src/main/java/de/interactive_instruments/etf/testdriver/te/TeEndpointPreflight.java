@@ -0,0 +1,207 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Checks that the service endpoint of a test object returns a WFS 2.0
+ * Capabilities document, before the TEAM Engine is invoked.
+ *
+ * Unreachable endpoints or endpoints that do not return a Capabilities document
+ * are reported within the preflight timeout, instead of letting the TEAM Engine
+ * fail after a long time. The document is streamed and only read up to the root
+ * element. The timeout applies to the whole check, which runs on a thread of the
+ * passed executor, so a slowly responding endpoint can not delay the task
+ * further. An abandoned check ends with its connect or read timeout.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeEndpointPreflight {
+
+    private static final String EXPECTED_VERSION = "2.0";
+
+    private final int timeout;
+    private final TeXmlPool xmlPool;
+    private final TeExchanges exchanges;
+    private final ExecutorService executor;
+
+    static final class PreflightException extends Exception {
+        PreflightException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Create a new preflight check
+     *
+     * @param timeout
+     *            timeout of the whole check in ms
+     * @param xmlPool
+     *            the driver wide XML pool
+     * @param exchanges
+     *            the exchanges of the driver
+     * @param executor
+     *            the executor that runs the checks
+     */
+    TeEndpointPreflight(final int timeout, final TeXmlPool xmlPool, final TeExchanges exchanges,
+            final ExecutorService executor) {
+        this.timeout = timeout;
+        this.xmlPool = xmlPool;
+        this.exchanges = exchanges;
+        this.executor = executor;
+    }
+
+    static URI capabilitiesUri(final String endpoint) throws URISyntaxException {
+        final String lowerCaseEndpoint = endpoint.toLowerCase(Locale.ENGLISH);
+        if (lowerCaseEndpoint.contains("request=getcapabilities")) {
+            return new URI(endpoint);
+        }
+        final String separator;
+        if (endpoint.indexOf('?') == -1) {
+            separator = "?";
+        } else if (endpoint.endsWith("?") || endpoint.endsWith("&")) {
+            separator = "";
+        } else {
+            separator = "&";
+        }
+        return new URI(endpoint + separator + "request=GetCapabilities&service=WFS");
+    }
+
+    /**
+     * Fetch and check the Capabilities document
+     *
+     * @param endpoint
+     *            the service endpoint of the test object
+     * @throws PreflightException
+     *             if the endpoint is not reachable or does not return a WFS 2.0 Capabilities document
+     */
+    void check(final String endpoint) throws PreflightException {
+        final URI uri;
+        try {
+            uri = capabilitiesUri(endpoint);
+        } catch (final URISyntaxException e) {
+            throw new PreflightException("Invalid service endpoint URL: " + e.getMessage());
+        }
+        final Future<Void> check;
+        try {
+            check = executor.submit(() -> {
+                fetch(uri);
+                return null;
+            });
+        } catch (final RejectedExecutionException e) {
+            throw new PreflightException("The preflight check has been stopped");
+        }
+        try {
+            check.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            check.cancel(true);
+            throw new PreflightException(notRespondingMessage());
+        } catch (final InterruptedException e) {
+            check.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PreflightException("The preflight check has been interrupted");
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof PreflightException) {
+                throw (PreflightException) e.getCause();
+            }
+            throw new PreflightException("Checking the service endpoint failed: " + e.getCause());
+        }
+    }
+
+    private String notRespondingMessage() {
+        return "The service endpoint did not respond within " + timeout / 1000 + " seconds";
+    }
+
+    private void fetch(final URI uri) throws PreflightException {
+        try (final InputStream in = exchanges.openStream(uri, null, timeout, "application/xml")) {
+            checkRootElement(in);
+        } catch (final TeExchanges.StatusException e) {
+            throw new PreflightException("The service endpoint returned an error: " + e.getResponseMessage());
+        } catch (final SocketTimeoutException e) {
+            throw new PreflightException(notRespondingMessage());
+        } catch (final IOException e) {
+            throw new PreflightException("The service endpoint is not reachable: " + e.getMessage());
+        }
+    }
+
+    private void checkRootElement(final InputStream capabilities) throws PreflightException {
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlPool.createXMLStreamReader(capabilities);
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // skip prolog
+            }
+            if (!reader.isStartElement()) {
+                throw new PreflightException("The service endpoint returned an empty document");
+            }
+            final String root = reader.getLocalName();
+            if ("ExceptionReport".equals(root)) {
+                throw new PreflightException("The service endpoint returned an exception report: " + exceptionText(reader));
+            } else if (!"WFS_Capabilities".equals(root)) {
+                throw new PreflightException("The service endpoint did not return a WFS Capabilities document "
+                        + "but a document with the root element '" + root + "'");
+            }
+            final String version = reader.getAttributeValue(null, "version");
+            if (version == null || !version.startsWith(EXPECTED_VERSION)) {
+                throw new PreflightException("The service endpoint returned a WFS Capabilities document with version '"
+                        + version + "', expected version " + EXPECTED_VERSION);
+            }
+        } catch (final XMLStreamException e) {
+            if (e.getNestedException() instanceof IOException) {
+                throw new PreflightException("Reading the response of the service endpoint failed: "
+                        + e.getNestedException().getMessage());
+            }
+            throw new PreflightException("The service endpoint did not return a XML document");
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException ign) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    private static String exceptionText(final XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && "ExceptionText".equals(reader.getLocalName())) {
+                return reader.getElementText().trim();
+            }
+        }
+        return "no exception text provided";
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.parser.Parser;
+
+import de.interactive_instruments.SUtils;
+
+/**
+ * Captures the HTML error pages returned by the TEAM Engine or a proxy.
+ *
+ * Pages are read up to a maximum number of characters and the text of the
+ * paragraphs is extracted with a single scan over the page. As all queued tasks
+ * fail with the same page during an outage, the extracted message of recently
+ * seen pages is reused and the page is only attached to the first task. Later
+ * tasks get an excerpt of the page and a reference to the first task.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeErrorPages {
+
+    private static final int MAX_RECENT_PAGES = 32;
+    private static final long DEDUPLICATION_WINDOW = TimeUnit.MINUTES.toMillis(10);
+    // characters of a repeated page that are attached
+    private static final int EXCERPT_CHARS = 1024;
+
+    private static final String[] BLOCK_TAGS = {"address", "article", "blockquote", "body", "div", "dl", "fieldset",
+            "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hr", "html", "ol", "pre", "section",
+            "table", "ul"};
+
+    /**
+     * A captured error page
+     */
+    static final class ErrorPage {
+        private final String message;
+        private final byte[] content;
+        private final String firstTaskId;
+        private final int occurrences;
+
+        private ErrorPage(final String message, final byte[] content, final String firstTaskId,
+                final int occurrences) {
+            this.message = message;
+            this.content = content;
+            this.firstTaskId = firstTaskId;
+            this.occurrences = occurrences;
+        }
+
+        /**
+         * Returns the text of the paragraphs, one per line
+         */
+        String getMessage() {
+            return message;
+        }
+
+        /**
+         * Returns the UTF-8 encoded page or an excerpt if the same page has been attached recently
+         */
+        byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * Returns true if the content is an excerpt of a page attached to another task
+         */
+        boolean isExcerpt() {
+            return occurrences > 1;
+        }
+
+        /**
+         * Returns the ID of the task to which the complete page has been attached
+         */
+        String getFirstTaskId() {
+            return firstTaskId;
+        }
+
+        /**
+         * Returns how often the page has been seen within the deduplication window
+         */
+        int getOccurrences() {
+            return occurrences;
+        }
+    }
+
+    private static final class RecentPage {
+        private final String message;
+        private final byte[] excerpt;
+        private final String firstTaskId;
+        private long lastSeen;
+        private int occurrences = 1;
+
+        private RecentPage(final String message, final byte[] excerpt, final String firstTaskId,
+                final long lastSeen) {
+            this.message = message;
+            this.excerpt = excerpt;
+            this.firstTaskId = firstTaskId;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    private final int maxChars;
+    private final Map<String, RecentPage> recentPages = new LinkedHashMap<String, RecentPage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, RecentPage> eldest) {
+            return size() > MAX_RECENT_PAGES;
+        }
+    };
+
+    /**
+     * Create a new instance
+     *
+     * @param maxChars
+     *            maximum number of characters of a page that are processed and attached
+     */
+    TeErrorPages(final int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Returns the maximum number of characters of a page that are read
+     */
+    int getMaxChars() {
+        return maxChars;
+    }
+
+    /**
+     * Capture an error page
+     *
+     * @param html
+     *            the error page, may be null
+     * @param taskId
+     *            ID of the task that received the page
+     * @return the captured page or null if html is null
+     */
+    ErrorPage capture(final String html, final String taskId) {
+        if (html == null) {
+            return null;
+        }
+        final String page = html.length() > maxChars ? html.substring(0, maxChars) : html;
+        final String hash = SUtils.fastCalcHashAsHexStr(page);
+        final long now = System.currentTimeMillis();
+        synchronized (recentPages) {
+            final RecentPage recentPage = recentPages.get(hash);
+            if (recentPage != null && now - recentPage.lastSeen < DEDUPLICATION_WINDOW) {
+                recentPage.lastSeen = now;
+                recentPage.occurrences++;
+                return new ErrorPage(recentPage.message, recentPage.excerpt, recentPage.firstTaskId,
+                        recentPage.occurrences);
+            }
+        }
+        final String message = extractParagraphs(page);
+        final String excerpt = page.length() > EXCERPT_CHARS ? page.substring(0, EXCERPT_CHARS) : page;
+        synchronized (recentPages) {
+            recentPages.put(hash, new RecentPage(message, excerpt.getBytes(StandardCharsets.UTF_8), taskId, now));
+        }
+        return new ErrorPage(message, page.getBytes(StandardCharsets.UTF_8), taskId, 1);
+    }
+
+    /**
+     * Extract the text of the paragraphs of the body, one per line.
+     *
+     * Markup within paragraphs is removed, entities are decoded and whitespace is
+     * normalized. Paragraphs are closed by block elements, as in HTML.
+     *
+     * @param html
+     *            the HTML page
+     * @return the text of the paragraphs, an empty string if there are none
+     */
+    static String extractParagraphs(final String html) {
+        final StringBuilder text = new StringBuilder();
+        final int bodyStart = indexOfTag(html, "body");
+        StringBuilder paragraph = null;
+        int pos = bodyStart != -1 ? bodyStart : 0;
+        while (pos < html.length()) {
+            final char c = html.charAt(pos);
+            if (c != '<') {
+                if (paragraph != null) {
+                    paragraph.append(c);
+                }
+                pos++;
+                continue;
+            }
+            if (html.startsWith("<!--", pos)) {
+                final int end = html.indexOf("-->", pos + 4);
+                pos = end != -1 ? end + 3 : html.length();
+                continue;
+            }
+            final int end = html.indexOf('>', pos);
+            if (end == -1) {
+                break;
+            }
+            final boolean closing = pos + 1 < end && html.charAt(pos + 1) == '/';
+            final String name = tagName(html, closing ? pos + 2 : pos + 1, end);
+            pos = end + 1;
+            if ("p".equals(name) || isBlockTag(name)) {
+                if (paragraph != null) {
+                    appendParagraph(text, paragraph);
+                    paragraph = null;
+                }
+                if ("p".equals(name) && !closing) {
+                    paragraph = new StringBuilder();
+                }
+            } else if (("script".equals(name) || "style".equals(name)) && !closing) {
+                final int close = indexOfIgnoreCase(html, "</" + name, pos);
+                pos = close != -1 ? close : html.length();
+            } else if ("br".equals(name) && paragraph != null) {
+                paragraph.append(' ');
+            }
+        }
+        if (paragraph != null) {
+            appendParagraph(text, paragraph);
+        }
+        return text.toString();
+    }
+
+    private static void appendParagraph(final StringBuilder text, final StringBuilder paragraph) {
+        final String unescaped = Parser.unescapeEntities(paragraph.toString(), false);
+        boolean whitespace = false;
+        for (int i = 0; i < unescaped.length(); i++) {
+            final char c = unescaped.charAt(i);
+            if (Character.isWhitespace(c)) {
+                whitespace = true;
+            } else {
+                if (whitespace && text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
+                    text.append(' ');
+                }
+                whitespace = false;
+                text.append(c);
+            }
+        }
+        text.append(SUtils.ENDL);
+    }
+
+    private static String tagName(final String html, final int start, final int end) {
+        int pos = start;
+        while (pos < end && Character.isLetterOrDigit(html.charAt(pos))) {
+            pos++;
+        }
+        return html.substring(start, pos).toLowerCase();
+    }
+
+    private static boolean isBlockTag(final String name) {
+        for (final String blockTag : BLOCK_TAGS) {
+            if (blockTag.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOfTag(final String html, final String name) {
+        for (int pos = indexOfIgnoreCase(html, "<" + name, 0); pos != -1; pos = indexOfIgnoreCase(html, "<" + name,
+                pos + 1)) {
+            final int next = pos + name.length() + 1;
+            if (next >= html.length() || !Character.isLetterOrDigit(html.charAt(next))) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfIgnoreCase(final String str, final String search, final int from) {
+        for (int pos = from; pos <= str.length() - search.length(); pos++) {
+            if (str.regionMatches(true, pos, search, 0, search.length())) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+}
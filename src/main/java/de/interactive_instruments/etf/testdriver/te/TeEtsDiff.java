@@ -0,0 +1,218 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.util.*;
+
+import de.interactive_instruments.etf.dal.dto.test.TestCaseDto;
+import de.interactive_instruments.etf.dal.dto.test.TestModelItemDto;
+import de.interactive_instruments.etf.dal.dto.test.TestModuleDto;
+import de.interactive_instruments.etf.dal.dto.test.TestStepDto;
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Merges the test modules, test cases and test steps built from a new result
+ * into the ones of the stored ETS.
+ *
+ * Items whose label and description are unchanged are taken from the stored
+ * ETS. Test modules and test cases are only reused together with all of their
+ * children, otherwise the item built from the result is used with the reused
+ * children. The DTOs of the stored ETS are shared with running tasks and are
+ * never modified, a reused child keeps the reference to its stored parent,
+ * which has the same ID as the new parent.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeEtsDiff {
+
+    private int added;
+    private int removed;
+    private int changed;
+    private int unchanged;
+    private boolean reordered;
+
+    /**
+     * Merge the test modules
+     *
+     * @param current
+     *            test modules of the stored ETS, may be null
+     * @param updated
+     *            test modules built from the result, their children are replaced
+     *            with the reused items
+     * @return the test modules of the updated ETS, in the order of the result
+     */
+    List<TestModuleDto> merge(final List<TestModuleDto> current, final List<TestModuleDto> updated) {
+        final Map<EID, TestModuleDto> existing = byId(current);
+        final List<TestModuleDto> merged = new ArrayList<>(updated.size());
+        for (final TestModuleDto testModule : updated) {
+            final TestModuleDto existingModule = existing.remove(testModule.getId());
+            if (existingModule == null) {
+                added += 1 + countDescendants(testModule);
+                merged.add(testModule);
+                continue;
+            }
+            final List<TestCaseDto> testCases = mergeTestCases(existingModule.getTestCases(),
+                    testModule.getTestCases());
+            if (reuse(existingModule, testModule, existingModule.getTestCases(), testCases)) {
+                merged.add(existingModule);
+            } else {
+                testModule.setTestCases(testCases);
+                merged.add(testModule);
+            }
+        }
+        countRemoved(existing.values());
+        reordered |= !sameOrder(current, merged);
+        return merged;
+    }
+
+    private List<TestCaseDto> mergeTestCases(final List<TestCaseDto> current, final List<TestCaseDto> updated) {
+        final Map<EID, TestCaseDto> existing = byId(current);
+        final List<TestCaseDto> merged = new ArrayList<>(emptyIfNull(updated).size());
+        for (final TestCaseDto testCase : emptyIfNull(updated)) {
+            final TestCaseDto existingCase = existing.remove(testCase.getId());
+            if (existingCase == null) {
+                added += 1 + countDescendants(testCase);
+                merged.add(testCase);
+                continue;
+            }
+            final List<TestStepDto> testSteps = mergeTestSteps(existingCase.getTestSteps(), testCase.getTestSteps());
+            if (reuse(existingCase, testCase, existingCase.getTestSteps(), testSteps)) {
+                merged.add(existingCase);
+            } else {
+                testCase.setTestSteps(testSteps);
+                merged.add(testCase);
+            }
+        }
+        countRemoved(existing.values());
+        reordered |= !sameOrder(current, merged);
+        return merged;
+    }
+
+    private List<TestStepDto> mergeTestSteps(final List<TestStepDto> current, final List<TestStepDto> updated) {
+        final Map<EID, TestStepDto> existing = byId(current);
+        final List<TestStepDto> merged = new ArrayList<>(emptyIfNull(updated).size());
+        for (final TestStepDto testStep : emptyIfNull(updated)) {
+            final TestStepDto existingStep = existing.remove(testStep.getId());
+            if (existingStep == null) {
+                added++;
+                merged.add(testStep);
+            } else if (sameProperties(existingStep, testStep)) {
+                unchanged++;
+                merged.add(existingStep);
+            } else {
+                changed++;
+                merged.add(testStep);
+            }
+        }
+        countRemoved(existing.values());
+        reordered |= !sameOrder(current, merged);
+        return merged;
+    }
+
+    /**
+     * Count the item and returns true if the stored item can be reused with all
+     * of its children
+     */
+    private boolean reuse(final TestModelItemDto existing, final TestModelItemDto updated,
+            final List<? extends TestModelItemDto> existingChildren,
+            final List<? extends TestModelItemDto> mergedChildren) {
+        if (!sameProperties(existing, updated)) {
+            changed++;
+            return false;
+        }
+        unchanged++;
+        final List<? extends TestModelItemDto> children = emptyIfNull(existingChildren);
+        if (children.size() != mergedChildren.size()) {
+            return false;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i) != mergedChildren.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void countRemoved(final Collection<? extends TestModelItemDto> removedItems) {
+        for (final TestModelItemDto removedItem : removedItems) {
+            removed += 1 + countDescendants(removedItem);
+        }
+    }
+
+    private static List<? extends TestModelItemDto> children(final TestModelItemDto item) {
+        if (item instanceof TestModuleDto) {
+            return ((TestModuleDto) item).getTestCases();
+        } else if (item instanceof TestCaseDto) {
+            return ((TestCaseDto) item).getTestSteps();
+        }
+        return null;
+    }
+
+    private static int countDescendants(final TestModelItemDto item) {
+        int count = 0;
+        for (final TestModelItemDto child : emptyIfNull(children(item))) {
+            count += 1 + countDescendants(child);
+        }
+        return count;
+    }
+
+    private static boolean sameOrder(final List<? extends TestModelItemDto> existing,
+            final List<? extends TestModelItemDto> merged) {
+        final List<? extends TestModelItemDto> existingItems = emptyIfNull(existing);
+        if (existingItems.size() != merged.size()) {
+            return false;
+        }
+        for (int i = 0; i < existingItems.size(); i++) {
+            if (!existingItems.get(i).getId().equals(merged.get(i).getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameProperties(final TestModelItemDto existing, final TestModelItemDto updated) {
+        return Objects.equals(existing.getLabel(), updated.getLabel())
+                && Objects.equals(existing.getDescription(), updated.getDescription());
+    }
+
+    private static <T extends TestModelItemDto> Map<EID, T> byId(final List<T> items) {
+        final Map<EID, T> map = new LinkedHashMap<>();
+        for (final T item : emptyIfNull(items)) {
+            map.put(item.getId(), item);
+        }
+        return map;
+    }
+
+    private static <T> List<T> emptyIfNull(final List<T> list) {
+        return list != null ? list : Collections.emptyList();
+    }
+
+    /**
+     * Returns true if the merged test modules differ from the ones of the stored ETS
+     */
+    boolean hasChanges() {
+        return added != 0 || removed != 0 || changed != 0 || reordered;
+    }
+
+    @Override
+    public String toString() {
+        return added + " items added, " + removed + " removed, " + changed + " changed, " + unchanged + " unchanged";
+    }
+}
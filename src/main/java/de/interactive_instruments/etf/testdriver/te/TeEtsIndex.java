@@ -0,0 +1,274 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Immutable, read optimized index of the structure of an Executable Test Suite.
+ *
+ * Items are addressed by ordinals in document order. Names and descriptions are
+ * stored once in a name table, parents are stored as ordinals. An open addressing
+ * hash table maps the TestNG names of an item and its parent (for instance the
+ * class and test-method names) to the ordinal, so the ID of an item can be looked
+ * up without generating it. The IDs are stored as the two longs of their UUIDs.
+ *
+ * The index is kept in addition to the ETS DTOs, which the type loader has to
+ * return. It does not reduce the retained heap, it trades a little memory for
+ * mapping results without generating name based UUIDs.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeEtsIndex {
+
+    static final byte MODULE = 0;
+    static final byte CASE = 1;
+    static final byte STEP = 2;
+
+    private final String structureHash;
+    private final String suiteName;
+    private final String[] names;
+    private final int[] nameRefs;
+    private final int[] descriptionRefs;
+    private final int[] parents;
+    private final byte[] levels;
+    private final long[] itemIdMsbs;
+    private final long[] itemIdLsbs;
+    // configuration methods
+    private final BitSet configs;
+    // ordinal + 1, 0 marks an empty slot
+    private final int[] table;
+
+    private TeEtsIndex(final Builder builder, final String structureHash) {
+        this.structureHash = structureHash;
+        this.suiteName = builder.suiteName;
+        final int size = builder.size;
+        this.names = builder.names.toArray(new String[0]);
+        this.nameRefs = Arrays.copyOf(builder.nameRefs, size);
+        this.descriptionRefs = Arrays.copyOf(builder.descriptionRefs, size);
+        this.parents = Arrays.copyOf(builder.parents, size);
+        this.levels = Arrays.copyOf(builder.levels, size);
+        this.itemIdMsbs = Arrays.copyOf(builder.itemIdMsbs, size);
+        this.itemIdLsbs = Arrays.copyOf(builder.itemIdLsbs, size);
+        this.configs = (BitSet) builder.configs.clone();
+        this.table = new int[Integer.highestOneBit(Math.max(size, 1) * 2) * 2];
+        final int mask = table.length - 1;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            final String parentName = parentName(ordinal);
+            final String name = names[nameRefs[ordinal]];
+            for (int slot = hash(parentName, name) & mask;; slot = (slot + 1) & mask) {
+                if (table[slot] == 0) {
+                    table[slot] = ordinal + 1;
+                    break;
+                } else if (matches(table[slot] - 1, parentName, name)) {
+                    // repeated invocation of the same test-method, the IDs are equal
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int hash(final String parentName, final String name) {
+        final int h = 31 * parentName.hashCode() + name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(final int ordinal, final String parentName, final String name) {
+        return names[nameRefs[ordinal]].equals(name) && parentName(ordinal).equals(parentName);
+    }
+
+    private String parentName(final int ordinal) {
+        return parents[ordinal] == -1 ? suiteName : names[nameRefs[parents[ordinal]]];
+    }
+
+    String getStructureHash() {
+        return structureHash;
+    }
+
+    String getSuiteName() {
+        return suiteName;
+    }
+
+    int size() {
+        return levels.length;
+    }
+
+    /**
+     * Look up an item
+     *
+     * @param parentName
+     *            the name of the parent TestNG element
+     * @param name
+     *            the name of the TestNG element
+     * @return the ordinal of the item or -1 if the item is unknown
+     */
+    int lookup(final String parentName, final String name) {
+        if (parentName == null || name == null) {
+            return -1;
+        }
+        final int mask = table.length - 1;
+        for (int slot = hash(parentName, name) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (matches(table[slot] - 1, parentName, name)) {
+                return table[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Look up the ID of an item
+     *
+     * @param parentName
+     *            the name of the parent TestNG element
+     * @param name
+     *            the name of the TestNG element
+     * @return the ID of the item or null if the item is unknown
+     */
+    String itemId(final String parentName, final String name) {
+        final int ordinal = lookup(parentName, name);
+        return ordinal != -1 ? itemId(ordinal) : null;
+    }
+
+    String itemId(final int ordinal) {
+        return new UUID(itemIdMsbs[ordinal], itemIdLsbs[ordinal]).toString();
+    }
+
+    String name(final int ordinal) {
+        return names[nameRefs[ordinal]];
+    }
+
+    String description(final int ordinal) {
+        return descriptionRefs[ordinal] != -1 ? names[descriptionRefs[ordinal]] : null;
+    }
+
+    int parent(final int ordinal) {
+        return parents[ordinal];
+    }
+
+    byte level(final int ordinal) {
+        return levels[ordinal];
+    }
+
+    /**
+     * Returns true if the item is a TestNG configuration method
+     */
+    boolean isConfig(final int ordinal) {
+        return configs.get(ordinal);
+    }
+
+    static final class Builder {
+        private final String suiteName;
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameTable = new HashMap<>();
+        private int[] nameRefs = new int[64];
+        private int[] descriptionRefs = new int[64];
+        private int[] parents = new int[64];
+        private byte[] levels = new byte[64];
+        private long[] itemIdMsbs = new long[64];
+        private long[] itemIdLsbs = new long[64];
+        private final BitSet configs = new BitSet();
+        private int size;
+
+        Builder(final String suiteName) {
+            this.suiteName = suiteName != null ? suiteName : "";
+        }
+
+        private int nameRef(final String name) {
+            if (name == null) {
+                return -1;
+            }
+            final Integer ref = nameTable.get(name);
+            if (ref != null) {
+                return ref;
+            }
+            names.add(name);
+            nameTable.put(name, names.size() - 1);
+            return names.size() - 1;
+        }
+
+        /**
+         * Add an item
+         *
+         * @param level
+         *            {@link #MODULE}, {@link #CASE} or {@link #STEP}
+         * @param parent
+         *            ordinal of the parent item or -1 for modules
+         * @param itemId
+         *            ID of the item, a UUID
+         * @param name
+         *            name of the TestNG element
+         * @param description
+         *            description of the TestNG element, may be null
+         * @return the ordinal of the added item
+         */
+        int add(final byte level, final int parent, final EID itemId, final String name, final String description) {
+            if (size == levels.length) {
+                final int capacity = size * 2;
+                nameRefs = Arrays.copyOf(nameRefs, capacity);
+                descriptionRefs = Arrays.copyOf(descriptionRefs, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                levels = Arrays.copyOf(levels, capacity);
+                itemIdMsbs = Arrays.copyOf(itemIdMsbs, capacity);
+                itemIdLsbs = Arrays.copyOf(itemIdLsbs, capacity);
+            }
+            nameRefs[size] = nameRef(name != null ? name : "");
+            descriptionRefs[size] = nameRef(description);
+            parents[size] = parent;
+            levels[size] = level;
+            final UUID uuid = itemId.toUuid();
+            itemIdMsbs[size] = uuid.getMostSignificantBits();
+            itemIdLsbs[size] = uuid.getLeastSignificantBits();
+            return size++;
+        }
+
+        /**
+         * Mark an added test step as TestNG configuration method
+         */
+        void config(final int ordinal) {
+            configs.set(ordinal);
+        }
+
+        /**
+         * Returns the name of an added item from the name table
+         */
+        String name(final int ordinal) {
+            return names.get(nameRefs[ordinal]);
+        }
+
+        /**
+         * Returns the description of an added item from the name table
+         */
+        String description(final int ordinal) {
+            return descriptionRefs[ordinal] != -1 ? names.get(descriptionRefs[ordinal]) : null;
+        }
+
+        TeEtsIndex build(final String structureHash) {
+            return new TeEtsIndex(this, structureHash);
+        }
+    }
+}
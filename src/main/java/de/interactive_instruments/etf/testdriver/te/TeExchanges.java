@@ -0,0 +1,492 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.Credentials;
+import de.interactive_instruments.UriUtils;
+
+/**
+ * The HTTP exchanges of the driver with the TEAM Engine and the tested
+ * services.
+ *
+ * In the live mode the exchanges are delegated to {@link UriUtils}, except for
+ * opened streams: their connections are opened by the driver, so that only the
+ * beginning of an error page is read. In the
+ * record mode every exchange is additionally written to a ZIP archive: the
+ * URI, the requested media type, the status, the content type, the timing and
+ * the response body, but not the credentials.
+ * In the replay mode the recorded responses are served by a
+ * {@link TeReplayServer} on the loopback interface instead of accessing the
+ * network, so the client side, including error and timeout handling, behaves
+ * as in the recorded run.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeExchanges {
+
+    /**
+     * Kind of an exchange, part of the key of a recording
+     */
+    enum Kind {
+        EXISTS, LOAD, OPEN;
+
+        String pathSegment() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    // archive entries
+    static final String EXCHANGE_SUFFIX = ".properties";
+    static final String BODY_SUFFIX = ".body";
+    // properties of an exchange
+    static final String KIND = "kind";
+    static final String URI_PROPERTY = "uri";
+    static final String STATUS = "status";
+    static final String ACCEPT = "accept";
+    static final String CONTENT_TYPE = "contentType";
+    static final String ERROR = "error";
+    static final String START = "start";
+    static final String FIRST_BYTE = "firstByte";
+    static final String DURATION = "duration";
+    static final String COMPLETE = "complete";
+
+    /**
+     * An HTTP error status. At most the requested number of characters of the
+     * error page have been read.
+     */
+    static final class StatusException extends IOException {
+        private final int responseCode;
+        private final String responseMessage;
+        private final String errorPage;
+
+        private StatusException(final URI uri, final int responseCode, final String responseMessage,
+                final String errorPage) {
+            super("Server returned HTTP status " + responseCode + " " + responseMessage + " for " + uri);
+            this.responseCode = responseCode;
+            this.responseMessage = responseMessage;
+            this.errorPage = errorPage;
+        }
+
+        int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * Returns the status code and the reason phrase
+         */
+        String getResponseMessage() {
+            return responseMessage != null ? responseCode + " " + responseMessage : String.valueOf(responseCode);
+        }
+
+        /**
+         * Returns the beginning of the error page or null if it has not been read
+         */
+        String getErrorPage() {
+            return errorPage;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TeExchanges.class);
+    private static final TeExchanges LIVE = new TeExchanges(null, null);
+
+    private final Recorder recorder;
+    private final TeReplayServer replayServer;
+
+    private TeExchanges(final Recorder recorder, final TeReplayServer replayServer) {
+        this.recorder = recorder;
+        this.replayServer = replayServer;
+    }
+
+    /**
+     * Returns exchanges that access the network
+     */
+    static TeExchanges live() {
+        return LIVE;
+    }
+
+    /**
+     * Access the network and record all exchanges
+     *
+     * @param archive
+     *            the archive file, which is complete after {@link #release()}
+     * @return recording exchanges
+     * @throws IOException
+     *             if the archive can not be created
+     */
+    static TeExchanges record(final Path archive) throws IOException {
+        logger.info("Recording TEAM Engine exchanges to {}", archive);
+        return new TeExchanges(new Recorder(archive), null);
+    }
+
+    /**
+     * Replay recorded exchanges instead of accessing the network
+     *
+     * @param archive
+     *            the archive file
+     * @param speed
+     *            speed relative to the recorded timing, 1 for the recorded
+     *            timing, 0 for no delays
+     * @return replaying exchanges
+     * @throws IOException
+     *             if the archive can not be read
+     */
+    static TeExchanges replay(final Path archive, final double speed) throws IOException {
+        final TeReplayServer replayServer = new TeReplayServer(archive, speed);
+        logger.info("Replaying {} TEAM Engine exchanges from {} with speed {}",
+                replayServer.getExchangeCount(), archive, speed);
+        return new TeExchanges(null, replayServer);
+    }
+
+    boolean exists(final URI uri, final Credentials credentials) {
+        if (replayServer != null) {
+            return UriUtils.exists(replayServer.rewrite(Kind.EXISTS, uri), credentials);
+        }
+        final long start = System.currentTimeMillis();
+        final boolean exists = UriUtils.exists(uri, credentials);
+        if (recorder != null) {
+            final long end = System.currentTimeMillis();
+            recorder.add(recorder.exchange(Kind.EXISTS, uri, exists ? 200 : 404, start), end, end, null);
+        }
+        return exists;
+    }
+
+    String loadAsString(final URI uri, final Credentials credentials) throws IOException {
+        if (replayServer != null) {
+            return UriUtils.loadAsString(replayServer.rewrite(Kind.LOAD, uri), credentials);
+        }
+        final long start = System.currentTimeMillis();
+        final String content;
+        try {
+            content = UriUtils.loadAsString(uri, credentials);
+        } catch (final IOException e) {
+            if (recorder != null) {
+                recorder.addFailure(Kind.LOAD, uri, null, e, start);
+            }
+            throw e;
+        }
+        if (recorder != null) {
+            final Properties exchange = recorder.exchange(Kind.LOAD, uri, 200, start);
+            exchange.setProperty(CONTENT_TYPE, "text/html; charset=UTF-8");
+            final long end = System.currentTimeMillis();
+            recorder.add(exchange, end, end, content.getBytes(StandardCharsets.UTF_8));
+        }
+        return content;
+    }
+
+    /**
+     * Open a stream, error pages are not read
+     *
+     * @throws StatusException
+     *             if the server returned an error status
+     */
+    InputStream openStream(final URI uri, final Credentials credentials, final int timeout, final String accept)
+            throws IOException {
+        return openStream(uri, credentials, timeout, accept, 0);
+    }
+
+    /**
+     * Open a stream
+     *
+     * @param maxErrorChars
+     *            maximum number of characters of an error page that are read
+     * @throws StatusException
+     *             if the server returned an error status
+     */
+    InputStream openStream(final URI uri, final Credentials credentials, final int timeout, final String accept,
+            final int maxErrorChars) throws IOException {
+        if (replayServer != null) {
+            return connect(replayServer.rewrite(Kind.OPEN, uri), credentials, timeout, accept, maxErrorChars)
+                    .getInputStream();
+        }
+        if (recorder == null) {
+            return connect(uri, credentials, timeout, accept, maxErrorChars).getInputStream();
+        }
+        final long start = System.currentTimeMillis();
+        final URLConnection connection;
+        final InputStream in;
+        try {
+            connection = connect(uri, credentials, timeout, accept, maxErrorChars);
+            in = connection.getInputStream();
+        } catch (final IOException e) {
+            recorder.addFailure(Kind.OPEN, uri, accept, e, start);
+            throw e;
+        }
+        final Properties exchange = recorder.exchange(Kind.OPEN, uri, connection instanceof HttpURLConnection
+                ? ((HttpURLConnection) connection).getResponseCode()
+                : 200, start);
+        if (accept != null) {
+            exchange.setProperty(ACCEPT, accept);
+        }
+        if (connection.getContentType() != null) {
+            exchange.setProperty(CONTENT_TYPE, connection.getContentType());
+        }
+        return recorder.recording(in, exchange);
+    }
+
+    /**
+     * Returns the connection if the server did not return an error status
+     */
+    private static URLConnection connect(final URI uri, final Credentials credentials, final int timeout,
+            final String accept, final int maxErrorChars) throws IOException {
+        final URLConnection connection = uri.toURL().openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        if (accept != null) {
+            connection.setRequestProperty("Accept", accept);
+        }
+        if (credentials != null && credentials.getUsername() != null) {
+            connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                    (credentials.getUsername() + ":" + credentials.getPassword()).getBytes(StandardCharsets.UTF_8)));
+        }
+        if (!(connection instanceof HttpURLConnection)) {
+            return connection;
+        }
+        final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        final int responseCode = httpConnection.getResponseCode();
+        if (responseCode < 400) {
+            return connection;
+        }
+        final String errorPage = readErrorPage(httpConnection, maxErrorChars);
+        httpConnection.disconnect();
+        throw new StatusException(uri, responseCode, httpConnection.getResponseMessage(), errorPage);
+    }
+
+    /**
+     * Read the beginning of the error page, the rest is not transferred
+     */
+    private static String readErrorPage(final HttpURLConnection connection, final int maxChars) throws IOException {
+        if (maxChars <= 0) {
+            return null;
+        }
+        final InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return null;
+        }
+        final StringBuilder page = new StringBuilder();
+        try (final Reader reader = new InputStreamReader(errorStream, charsetOf(connection.getContentType()))) {
+            final char[] buffer = new char[Math.min(maxChars, 8192)];
+            int n;
+            while (page.length() < maxChars
+                    && (n = reader.read(buffer, 0, Math.min(buffer.length, maxChars - page.length()))) != -1) {
+                page.append(buffer, 0, n);
+            }
+        }
+        return page.toString();
+    }
+
+    private static Charset charsetOf(final String contentType) {
+        if (contentType != null) {
+            final int charsetIndex = contentType.toLowerCase(Locale.ENGLISH).indexOf("charset=");
+            if (charsetIndex != -1) {
+                final String charset = contentType.substring(charsetIndex + 8).split(";")[0].trim()
+                        .replace("\"", "");
+                try {
+                    return Charset.forName(charset);
+                } catch (final IllegalArgumentException ignore) {
+                    // unknown charset, the default is used
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Completes the archive in the record mode and stops the server in the replay mode
+     */
+    void release() {
+        if (recorder != null) {
+            recorder.close();
+        }
+        if (replayServer != null) {
+            replayServer.close();
+        }
+    }
+
+    /**
+     * Appends completed exchanges to the archive. Response bodies are spooled
+     * to temporary files while they are read.
+     */
+    private static final class Recorder {
+        private final Path archive;
+        private final ZipOutputStream zip;
+        private final long recordingStart = System.currentTimeMillis();
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        private Recorder(final Path archive) throws IOException {
+            this.archive = archive;
+            if (archive.getParent() != null) {
+                Files.createDirectories(archive.getParent());
+            }
+            this.zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(archive)));
+        }
+
+        private Properties exchange(final Kind kind, final URI uri, final int status, final long start) {
+            final Properties exchange = new Properties();
+            exchange.setProperty(KIND, kind.name());
+            exchange.setProperty(URI_PROPERTY, uri.toString());
+            exchange.setProperty(STATUS, String.valueOf(status));
+            exchange.setProperty(START, String.valueOf(start - recordingStart));
+            return exchange;
+        }
+
+        private void addFailure(final Kind kind, final URI uri, final String accept, final IOException e,
+                final long start) {
+            final byte[] errorBody;
+            final Properties exchange;
+            if (e instanceof StatusException) {
+                final StatusException statusException = (StatusException) e;
+                exchange = exchange(kind, uri, statusException.getResponseCode(), start);
+                exchange.setProperty(CONTENT_TYPE, "text/html; charset=UTF-8");
+                errorBody = statusException.getErrorPage() != null
+                        ? statusException.getErrorPage().getBytes(StandardCharsets.UTF_8)
+                        : null;
+            } else if (e instanceof UriUtils.ConnectionException) {
+                final UriUtils.ConnectionException connectionException = (UriUtils.ConnectionException) e;
+                exchange = exchange(kind, uri, connectionException.getResponseCode(), start);
+                exchange.setProperty(CONTENT_TYPE, "text/html; charset=UTF-8");
+                errorBody = connectionException.getErrorMessage() != null
+                        ? connectionException.getErrorMessage().getBytes(StandardCharsets.UTF_8)
+                        : null;
+            } else {
+                // no response, the connection is dropped on replay
+                exchange = exchange(kind, uri, -1, start);
+                errorBody = null;
+            }
+            if (accept != null) {
+                exchange.setProperty(ACCEPT, accept);
+            }
+            exchange.setProperty(ERROR, e.getClass().getName() + ": " + e.getMessage());
+            final long end = System.currentTimeMillis();
+            add(exchange, end, end, errorBody);
+        }
+
+        private InputStream recording(final InputStream in, final Properties exchange) throws IOException {
+            final Path spoolFile = Files.createTempFile("etf-tetd-exchange", BODY_SUFFIX);
+            final OutputStream spool = new BufferedOutputStream(Files.newOutputStream(spoolFile));
+            return new FilterInputStream(in) {
+                private long firstByte;
+                private boolean complete;
+                private boolean closed;
+
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b != -1) {
+                        received();
+                        spool.write(b);
+                    } else {
+                        complete = true;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    final int n = super.read(b, off, len);
+                    if (n > 0) {
+                        received();
+                        spool.write(b, off, n);
+                    } else if (n == -1) {
+                        complete = true;
+                    }
+                    return n;
+                }
+
+                private void received() {
+                    if (firstByte == 0) {
+                        firstByte = System.currentTimeMillis();
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        spool.close();
+                        // partially read responses are recorded as far as they have been read
+                        exchange.setProperty(COMPLETE, String.valueOf(complete));
+                        add(exchange, firstByte != 0 ? firstByte : System.currentTimeMillis(),
+                                System.currentTimeMillis(), spoolFile);
+                        Files.deleteIfExists(spoolFile);
+                    }
+                }
+            };
+        }
+
+        private void add(final Properties exchange, final long firstByte, final long end, final Object body) {
+            final long start = recordingStart + Long.parseLong(exchange.getProperty(START));
+            exchange.setProperty(FIRST_BYTE, String.valueOf(firstByte - start));
+            exchange.setProperty(DURATION, String.valueOf(end - start));
+            final String name = String.format("%06d", sequence.incrementAndGet());
+            synchronized (zip) {
+                try {
+                    zip.putNextEntry(new ZipEntry(name + EXCHANGE_SUFFIX));
+                    exchange.store(zip, null);
+                    zip.closeEntry();
+                    if (body != null) {
+                        zip.putNextEntry(new ZipEntry(name + BODY_SUFFIX));
+                        if (body instanceof Path) {
+                            Files.copy((Path) body, zip);
+                        } else {
+                            zip.write((byte[]) body);
+                        }
+                        zip.closeEntry();
+                    }
+                } catch (final IOException e) {
+                    logger.error("Recording the exchange with {} failed", exchange.getProperty(URI_PROPERTY), e);
+                }
+            }
+        }
+
+        private void close() {
+            synchronized (zip) {
+                try {
+                    zip.close();
+                    logger.info("Recorded {} TEAM Engine exchanges to {}", sequence.get(), archive);
+                } catch (final IOException e) {
+                    logger.error("Completing the exchange archive {} failed", archive, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Java Flight Recorder events of the TEAM Engine test driver.
+ *
+ * The driver is compiled for Java 8, which has no public JFR API. The event types
+ * are therefore defined at runtime with the jdk.jfr.EventFactory, which is
+ * available since Java 9 and in OpenJDK 8u262 and later. On other runtimes all
+ * events are discarded.
+ *
+ * If an event type is not enabled in a recording, {@link #begin(EventType)}
+ * returns a shared span that ignores the commit, so no event object is created.
+ * Every event carries the ID of the test task as first field.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeFlightRecorder {
+
+    private static final String[] CATEGORY = {"ETF", "TEAM Engine"};
+
+    private static final class Field {
+        private final Class<?> type;
+        private final String name;
+        private final String label;
+
+        private Field(final Class<?> type, final String name, final String label) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+        }
+    }
+
+    /**
+     * Event types, the values of the fields are passed in the declared order to
+     * {@link Span#commit(String, Object...)}
+     */
+    enum EventType {
+        INVOCATION("Invocation", "TEAM Engine Invocation",
+                "Remote invocation of the TEAM Engine, including the transfer of the result",
+                new Field(String.class, "host", "TEAM Engine Host"),
+                new Field(int.class, "status", "HTTP Status"),
+                new Field(long.class, "bytes", "Bytes Received"),
+                new Field(String.class, "error", "Error")),
+
+        PARSE("Parse", "TEAM Engine Result Parsing",
+                "Parsing of the TestNG result",
+                new Field(boolean.class, "spooled", "Parsed from Spool File")),
+
+        ETS_UPDATE("EtsUpdate", "TEAM Engine ETS Update",
+                "Update of the Executable Test Suite model from the TestNG result",
+                new Field(String.class, "etsId", "ETS ID"),
+                new Field(boolean.class, "updated", "Updated")),
+
+        MAP("Map", "TEAM Engine Result Mapping",
+                "Mapping of the TestNG result to the result collector, until all calls have been applied",
+                new Field(int.class, "testModules", "Test Modules"),
+                new Field(long.class, "testMethods", "Test Methods")),
+
+        MODULE_MAPPING("ModuleMapping", "TEAM Engine Test Module Mapping",
+                "Mapping of one TestNG test module to collector calls",
+                new Field(String.class, "testModule", "Test Module"),
+                new Field(int.class, "testMethods", "Test Methods")),
+
+        ATTACHMENT("Attachment", "TEAM Engine Attachment",
+                "Saving of an attachment by the result collector",
+                new Field(String.class, "label", "Label"),
+                new Field(String.class, "type", "Type"),
+                new Field(String.class, "mimeType", "MIME Type"));
+
+        private final String name;
+        private final String label;
+        private final String description;
+        private final Field[] fields;
+        // jdk.jfr.EventFactory and jdk.jfr.EventType, null if JFR is not available
+        private Object factory;
+        private Object type;
+
+        EventType(final String name, final String label, final String description, final Field... fields) {
+            this.name = "de.interactive_instruments.etf.testdriver.te." + name;
+            this.label = label;
+            this.description = description;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * A started event
+     */
+    static final class Span {
+        private final Object event;
+
+        private Span(final Object event) {
+            this.event = event;
+        }
+
+        /**
+         * End the event and commit it, if it exceeds the threshold of the recording
+         *
+         * @param taskId
+         *            ID of the test task
+         * @param values
+         *            values of the fields of the event type
+         */
+        void commit(final String taskId, final Object... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                Jfr.end.invoke(event);
+                if ((boolean) Jfr.shouldCommit.invoke(event)) {
+                    Jfr.set.invoke(event, 0, taskId);
+                    for (int i = 0; i < values.length; i++) {
+                        Jfr.set.invoke(event, i + 1, values[i]);
+                    }
+                    Jfr.commit.invoke(event);
+                }
+            } catch (final Throwable e) {
+                // recording must not affect the test run
+                ExcUtils.suppress(e);
+            }
+        }
+    }
+
+    private static final Span DISCARDED = new Span(null);
+
+    /**
+     * Method handles of the JFR API, all null if JFR is not available
+     */
+    private static final class Jfr {
+        private static final MethodHandle newEvent;
+        private static final MethodHandle isEnabled;
+        private static final MethodHandle begin;
+        private static final MethodHandle end;
+        private static final MethodHandle shouldCommit;
+        private static final MethodHandle set;
+        private static final MethodHandle commit;
+
+        static {
+            MethodHandle newEventHandle = null;
+            MethodHandle isEnabledHandle = null;
+            MethodHandle beginHandle = null;
+            MethodHandle endHandle = null;
+            MethodHandle shouldCommitHandle = null;
+            MethodHandle setHandle = null;
+            MethodHandle commitHandle = null;
+            try {
+                final ClassLoader loader = ClassLoader.getSystemClassLoader();
+                final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory", true, loader);
+                final Class<?> eventClass = Class.forName("jdk.jfr.Event", true, loader);
+                final Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType", true, loader);
+                final Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement", true, loader);
+                final Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor", true, loader);
+                final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+                final MethodHandle newAnnotation = lookup.findConstructor(annotationClass,
+                        MethodType.methodType(void.class, Class.class, Object.class));
+                final MethodHandle newDescriptor = lookup.findConstructor(descriptorClass,
+                        MethodType.methodType(void.class, Class.class, String.class, List.class));
+                final MethodHandle create = lookup.findStatic(factoryClass, "create",
+                        MethodType.methodType(factoryClass, List.class, List.class));
+                final MethodHandle getEventType = lookup.findVirtual(factoryClass, "getEventType",
+                        MethodType.methodType(eventTypeClass));
+                final Class<?> nameClass = Class.forName("jdk.jfr.Name", true, loader);
+                final Class<?> labelClass = Class.forName("jdk.jfr.Label", true, loader);
+                final Class<?> descriptionClass = Class.forName("jdk.jfr.Description", true, loader);
+                final Class<?> categoryClass = Class.forName("jdk.jfr.Category", true, loader);
+
+                for (final EventType eventType : EventType.values()) {
+                    final List<Object> annotations = Arrays.asList(
+                            newAnnotation.invoke(nameClass, eventType.name),
+                            newAnnotation.invoke(labelClass, eventType.label),
+                            newAnnotation.invoke(descriptionClass, eventType.description),
+                            newAnnotation.invoke(categoryClass, CATEGORY));
+                    final List<Object> fields = new ArrayList<>();
+                    fields.add(newDescriptor.invoke(String.class, "taskId",
+                            Collections.singletonList(newAnnotation.invoke(labelClass, "Task ID"))));
+                    for (final Field field : eventType.fields) {
+                        fields.add(newDescriptor.invoke(field.type, field.name,
+                                Collections.singletonList(newAnnotation.invoke(labelClass, field.label))));
+                    }
+                    eventType.factory = create.invoke(annotations, fields);
+                    eventType.type = getEventType.invoke(eventType.factory);
+                }
+
+                newEventHandle = lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass))
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                isEnabledHandle = lookup.findVirtual(eventTypeClass, "isEnabled", MethodType.methodType(boolean.class))
+                        .asType(MethodType.methodType(boolean.class, Object.class));
+                beginHandle = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(void.class, Object.class));
+                endHandle = lookup.findVirtual(eventClass, "end", MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(void.class, Object.class));
+                shouldCommitHandle = lookup.findVirtual(eventClass, "shouldCommit", MethodType.methodType(boolean.class))
+                        .asType(MethodType.methodType(boolean.class, Object.class));
+                setHandle = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class))
+                        .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+                commitHandle = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(void.class, Object.class));
+            } catch (final Throwable e) {
+                // JFR is not available
+                ExcUtils.suppress(e);
+                for (final EventType eventType : EventType.values()) {
+                    eventType.factory = null;
+                    eventType.type = null;
+                }
+                newEventHandle = null;
+            }
+            newEvent = newEventHandle;
+            isEnabled = isEnabledHandle;
+            begin = beginHandle;
+            end = endHandle;
+            shouldCommit = shouldCommitHandle;
+            set = setHandle;
+            commit = commitHandle;
+        }
+    }
+
+    private TeFlightRecorder() {}
+
+    /**
+     * Returns true if the event types could be registered with JFR
+     */
+    static boolean isAvailable() {
+        return Jfr.newEvent != null;
+    }
+
+    /**
+     * Start an event
+     *
+     * @param eventType
+     *            the type of the event
+     * @return the started event, which must be committed
+     */
+    static Span begin(final EventType eventType) {
+        if (Jfr.newEvent == null) {
+            return DISCARDED;
+        }
+        try {
+            if (!(boolean) Jfr.isEnabled.invoke(eventType.type)) {
+                return DISCARDED;
+            }
+            final Object event = Jfr.newEvent.invoke(eventType.factory);
+            Jfr.begin.invoke(event);
+            return new Span(event);
+        } catch (final Throwable e) {
+            ExcUtils.suppress(e);
+            return DISCARDED;
+        }
+    }
+}
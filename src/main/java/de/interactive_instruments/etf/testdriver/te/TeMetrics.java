@@ -0,0 +1,244 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Metrics of the TEAM Engine test driver.
+ *
+ * The durations of the phases of a test run are recorded in histograms, the
+ * amount of processed data in counters. Both are tagged with the ID of the
+ * Executable Test Suite and the host of the TEAM Engine. Only the first
+ * {@value #MAX_ETS_TAGS} Executable Test Suites are tagged with their ID, the
+ * metrics of all further ones are tagged with {@value #OTHER_ETS}. The number of
+ * tasks that are currently executed is available per TEAM Engine host. For
+ * every running task, the bytes received from the TEAM Engine and the estimated
+ * remaining time of the TEAM Engine run are available, tagged with the task ID.
+ *
+ * The metrics can be queried with {@link #snapshot()} or periodically passed to
+ * an {@link Exporter}.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class TeMetrics {
+
+    /**
+     * Phases of a test run
+     */
+    public enum Phase {
+        // waiting for a free TEAM Engine slot
+        QUEUE,
+        // TEAM Engine invocation until the first byte of the result has been received
+        REMOTE,
+        // first until last byte of the result
+        TRANSFER,
+        // parsing of the result, without the time spent waiting for the transfer
+        PARSE,
+        // update of the ETS model
+        ETS_UPDATE,
+        // mapping of the result to the result collector
+        MAP,
+        // time spent in the result collector, including saving attachments
+        PERSIST
+    }
+
+    /**
+     * Counted values
+     */
+    public enum Counter {
+        BYTES_RECEIVED, TEST_METHODS_MAPPED, ATTACHMENTS_SAVED
+    }
+
+    /**
+     * Receives the metrics periodically. Implementations must provide a public
+     * default constructor.
+     */
+    public interface Exporter {
+        void export(final SortedMap<String, Number> metrics);
+    }
+
+    // bounds the number of metrics, which are tagged with the ETS ID
+    static final int MAX_ETS_TAGS = 64;
+    static final String OTHER_ETS = "other";
+
+    // histogram bucket i counts durations below 2^i ms
+    private static final int BUCKETS = 32;
+
+    private static final class Histogram {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private void record(final long millis) {
+            final long value = Math.max(0, millis);
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+        }
+
+        private long percentile(final double quantile) {
+            final long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(quantile * total);
+            long cumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulated += buckets.get(i);
+                if (cumulated >= rank) {
+                    // upper bound of the bucket, but not more than the maximum
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> tasksInFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TeTestTaskProgress> taskProgress = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> taggedEts = new ConcurrentHashMap<>();
+    private volatile TeStringPool stringPool;
+    private volatile TeResultFormats resultFormats;
+
+    private String tags(final EID etsId, final String teHost) {
+        return "{ets=\"" + etsTag(etsId) + "\",host=\"" + teHost + "\"";
+    }
+
+    private String etsTag(final EID etsId) {
+        if (etsId == null) {
+            return "";
+        }
+        final String id = etsId.getId();
+        if (!taggedEts.containsKey(id)) {
+            // the bound may be exceeded by a few concurrently added IDs
+            if (taggedEts.size() >= MAX_ETS_TAGS) {
+                return OTHER_ETS;
+            }
+            taggedEts.putIfAbsent(id, Boolean.TRUE);
+        }
+        return id;
+    }
+
+    void record(final Phase phase, final EID etsId, final String teHost, final long millis) {
+        histograms.computeIfAbsent(
+                "te_phase_duration_ms" + tags(etsId, teHost) + ",phase=\"" + phase.name().toLowerCase(Locale.ENGLISH)
+                        + "\"}",
+                k -> new Histogram()).record(millis);
+    }
+
+    void count(final Counter counter, final EID etsId, final String teHost, final long value) {
+        if (value != 0) {
+            counters.computeIfAbsent(
+                    "te_" + counter.name().toLowerCase(Locale.ENGLISH) + "_total" + tags(etsId, teHost) + "}",
+                    k -> new LongAdder()).add(value);
+        }
+    }
+
+    void taskStarted(final String teHost) {
+        tasksInFlight.computeIfAbsent(teHost, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    void taskFinished(final String teHost) {
+        final AtomicInteger inFlight = tasksInFlight.get(teHost);
+        if (inFlight != null) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    void addTaskProgress(final String taskId, final TeTestTaskProgress progress) {
+        taskProgress.put(taskId, progress);
+    }
+
+    void removeTaskProgress(final String taskId) {
+        taskProgress.remove(taskId);
+    }
+
+    void setStringPool(final TeStringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    void setResultFormats(final TeResultFormats resultFormats) {
+        this.resultFormats = resultFormats;
+    }
+
+    /**
+     * Returns the current values, with the names and tags in the Prometheus text
+     * format, for instance
+     * <code>te_phase_duration_ms_p95{ets="...",host="...",phase="remote"}</code>.
+     *
+     * @return metric names mapped to their values
+     */
+    public SortedMap<String, Number> snapshot() {
+        final SortedMap<String, Number> snapshot = new TreeMap<>();
+        for (final Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            final int tagsStart = entry.getKey().indexOf('{');
+            final String name = entry.getKey().substring(0, tagsStart);
+            final String tags = entry.getKey().substring(tagsStart);
+            final Histogram histogram = entry.getValue();
+            snapshot.put(name + "_count" + tags, histogram.count.sum());
+            snapshot.put(name + "_sum" + tags, histogram.sum.sum());
+            snapshot.put(name + "_max" + tags, histogram.max.get());
+            snapshot.put(name + "_p50" + tags, histogram.percentile(0.5));
+            snapshot.put(name + "_p95" + tags, histogram.percentile(0.95));
+        }
+        for (final Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (final Map.Entry<String, AtomicInteger> entry : tasksInFlight.entrySet()) {
+            snapshot.put("te_tasks_in_flight{host=\"" + entry.getKey() + "\"}", entry.getValue().get());
+        }
+        for (final Map.Entry<String, TeTestTaskProgress> entry : taskProgress.entrySet()) {
+            final String tags = "{task=\"" + entry.getKey() + "\"}";
+            snapshot.put("te_task_bytes_received" + tags, entry.getValue().getBytesReceived());
+            final long remaining = entry.getValue().getEstimatedRemainingTime();
+            if (remaining >= 0) {
+                snapshot.put("te_task_remaining_ms" + tags, remaining);
+            }
+        }
+        final TeStringPool pool = stringPool;
+        if (pool != null) {
+            snapshot.put("te_string_pool_entries", pool.size());
+            snapshot.put("te_string_pool_lookups_total", pool.getLookups());
+            snapshot.put("te_string_pool_deduplicated_total", pool.getDeduplicated());
+            snapshot.put("te_string_pool_saved_bytes", pool.getSavedBytes());
+        }
+        final TeResultFormats formats = resultFormats;
+        if (formats != null) {
+            formats.snapshot(snapshot);
+        }
+        return snapshot;
+    }
+}
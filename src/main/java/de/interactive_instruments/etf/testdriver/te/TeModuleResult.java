@@ -0,0 +1,447 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.SUtils;
+import de.interactive_instruments.TimeUtils;
+import de.interactive_instruments.etf.testdriver.TestResultCollector;
+
+/**
+ * The result of one TestNG test module.
+ *
+ * The values are extracted with read-only DOM accesses, which do not create
+ * attribute maps or text buffers. Several modules can be extracted and mapped
+ * to collector calls in parallel, if the DOM has been fully expanded while
+ * parsing, see {@link TeXmlPool#isConcurrentlyReadable()}.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeModuleResult {
+
+    /**
+     * Returns the ID of a test item
+     */
+    interface ItemIds {
+        String of(final String parentName, final String name);
+    }
+
+    static final class Attribute {
+        private final String name;
+        private final String value;
+        // content in the spool file, if it has not been parsed
+        private final TeSpool.Slice slice;
+
+        Attribute(final String name, final String value, final TeSpool.Slice slice) {
+            this.name = name;
+            this.value = value;
+            this.slice = slice;
+        }
+    }
+
+    static final class TestMethod {
+        private final String name;
+        private final String startedAt;
+        private final String finishedAt;
+        private final String status;
+        private final boolean config;
+        private final String exceptionClass;
+        private final String message;
+        private final List<Attribute> attributes;
+
+        private TestMethod(final Node testMethod, final TeSpool spool) {
+            this.name = attribute(testMethod, "name");
+            this.startedAt = attribute(testMethod, "started-at");
+            this.finishedAt = attribute(testMethod, "finished-at");
+            this.status = attribute(testMethod, "status");
+            this.config = "true".equals(attributeOrDefault(testMethod, "is-config", "false"));
+            final Node exception = firstChild(testMethod, "exception");
+            this.exceptionClass = exception != null ? attribute(exception, "class") : null;
+            this.message = getMessage(exception);
+            final List<Attribute> attributes = new ArrayList<>();
+            for (Node attributesNode = firstChild(testMethod, "attributes"); attributesNode != null;
+                    attributesNode = nextSibling(attributesNode, "attributes")) {
+                for (Node attribute = firstChild(attributesNode, "attribute"); attribute != null;
+                        attribute = nextSibling(attribute, "attribute")) {
+                    final String value = text(attribute);
+                    final TeSpool.Slice slice = spool != null ? spool.slice(value) : null;
+                    attributes.add(new Attribute(attribute(attribute, "name"), slice == null ? value : null, slice));
+                }
+            }
+            this.attributes = attributes.isEmpty() ? Collections.emptyList() : attributes;
+        }
+
+        private static String getMessage(final Node exception) {
+            if (exception != null) {
+                final Node message = firstChild(exception, "message");
+                if (message != null) {
+                    final String msg = text(message);
+                    if (!SUtils.isNullOrEmpty(msg)) {
+                        return msg;
+                    }
+                } else {
+                    final String exceptionClass = attribute(exception, "class");
+                    if (!SUtils.isNullOrEmpty(exceptionClass)) {
+                        return "No message provided. Exception class " + exceptionClass;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private int mapStatus() {
+            switch (status) {
+            case "PASS":
+                return 0;
+            case "FAIL":
+                // if the failed test is a config step which has an AssertionError exception, it is just NOT APPLICABLE
+                if (config && exceptionClass != null && exceptionClass.equalsIgnoreCase("java.lang.AssertionError")) {
+                    // NOT APPLICABLE
+                    return 3;
+                }
+                // FAILED
+                return 1;
+            case "SKIP":
+                // if the skipped test has a SkipException, it is just NOT APPLICABLE
+                if (exceptionClass != null && !exceptionClass.equalsIgnoreCase("org.testng.SkipException")) {
+                    // SKIPPED
+                    return 2;
+                }
+                // NOT APPLICABLE
+                return 3;
+            }
+            // UNDEFINED
+            return 6;
+        }
+    }
+
+    static final class TestClass {
+        private final String name;
+        private final List<TestMethod> testMethods;
+
+        private TestClass(final Node testClass, final TeSpool spool) {
+            this.name = attribute(testClass, "name");
+            final List<TestMethod> testMethods = new ArrayList<>();
+            for (Node testMethod = firstChild(testClass, "test-method"); testMethod != null;
+                    testMethod = nextSibling(testMethod, "test-method")) {
+                testMethods.add(new TestMethod(testMethod, spool));
+            }
+            this.testMethods = testMethods;
+        }
+    }
+
+    private final String suiteName;
+    private final String name;
+    private final String startedAt;
+    private final String finishedAt;
+    private final List<TestClass> testClasses;
+    private final int testMethodCount;
+    private int mappedAttachments;
+
+    private TeModuleResult(final String suiteName, final Node testModule, final TeSpool spool) {
+        this.suiteName = suiteName;
+        this.name = attribute(testModule, "name");
+        this.startedAt = attribute(testModule, "started-at");
+        this.finishedAt = attribute(testModule, "finished-at");
+        final List<TestClass> testClasses = new ArrayList<>();
+        int testMethodCount = 0;
+        for (Node testClass = firstChild(testModule, "class"); testClass != null;
+                testClass = nextSibling(testClass, "class")) {
+            final TestClass testClassResult = new TestClass(testClass, spool);
+            testMethodCount += testClassResult.testMethods.size();
+            testClasses.add(testClassResult);
+        }
+        this.testClasses = testClasses;
+        this.testMethodCount = testMethodCount;
+    }
+
+    /**
+     * Extract the result of a test module
+     *
+     * @param suiteName
+     *            name of the TestNG suite
+     * @param testModule
+     *            the TestNG test element
+     * @return the extracted result
+     */
+    static TeModuleResult extract(final String suiteName, final Node testModule) {
+        return new TeModuleResult(suiteName, testModule, null);
+    }
+
+    /**
+     * Extract the result of a test module, the DOM must not be modified meanwhile
+     *
+     * @param suiteName
+     *            name of the TestNG suite
+     * @param testModule
+     *            the TestNG test element
+     * @param spool
+     *            the spool from which the DOM has been parsed, which must not be
+     *            closed before the calls are applied, or null
+     * @return the extracted result
+     */
+    static TeModuleResult extract(final String suiteName, final Node testModule, final TeSpool spool) {
+        return new TeModuleResult(suiteName, testModule, spool);
+    }
+
+    int getTestMethodCount() {
+        return testMethodCount;
+    }
+
+    /**
+     * Returns the number of attachments that are saved by the mapped calls, valid after {@link #map}
+     */
+    int getMappedAttachments() {
+        return mappedAttachments;
+    }
+
+    /**
+     * Map the result to collector calls in document order
+     *
+     * @param itemIds
+     *            returns the IDs of the test items
+     * @param xmlPool
+     *            for checking if attachments are XML documents
+     * @param taskId
+     *            ID of the test task, for the flight recorder events
+     * @return the collector calls
+     */
+    List<TeCollectorWriter.Call> map(final ItemIds itemIds, final TeXmlPool xmlPool, final String taskId) {
+        final TeFlightRecorder.Span mappingEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.MODULE_MAPPING);
+        final List<TeCollectorWriter.Call> calls = new ArrayList<>(testMethodCount * 3 + testClasses.size() * 2 + 2);
+        final String testModuleId = itemIds.of(suiteName, name);
+        final long testModuleStartTimestamp = timestamp(startedAt);
+        calls.add(c -> c.startTestModule(testModuleId, testModuleStartTimestamp));
+        int attachments = 0;
+
+        // Test Cases
+        for (final TestClass testCase : testClasses) {
+            final String testCaseId = itemIds.of(name, testCase.name);
+
+            // Get start timestamp from first test step
+            if (!testCase.testMethods.isEmpty()) {
+                final long testCaseStartTimestamp = timestamp(testCase.testMethods.get(0).startedAt);
+                calls.add(c -> c.startTestCase(testCaseId, testCaseStartTimestamp));
+            } else {
+                calls.add(c -> c.startTestCase(testCaseId));
+            }
+            long testCaseEndTimeStamp = 0;
+            boolean testStepResultCollected = false;
+            boolean oneSkippedOrNotApplicableConfigStepRecorded = false;
+
+            // Test Steps (no Test Assertions are used)
+            for (final TestMethod testStep : testCase.testMethods) {
+                final long testStepEndTimestamp = timestamp(testStep.finishedAt);
+                if (testCaseEndTimeStamp < testStepEndTimestamp) {
+                    testCaseEndTimeStamp = testStepEndTimestamp;
+                }
+
+                final int status = testStep.mapStatus();
+                final boolean configStep = testStep.config;
+
+                // output only failed steps or only one skipped or not applicable config test step
+                if (!configStep || status == 1
+                        || (!oneSkippedOrNotApplicableConfigStepRecorded && status == 2 || status == 3)) {
+                    final long testStepStartTimestamp = timestamp(testStep.startedAt);
+                    final String testStepId = itemIds.of(testCase.name, testStep.name);
+                    calls.add(c -> c.startTestStep(testStepId, testStepStartTimestamp));
+
+                    final String message = testStep.message;
+                    if (!SUtils.isNullOrEmpty(message)) {
+                        calls.add(c -> c.addMessage("TR.teamEngineError", "error", message));
+                    }
+
+                    // Attachments
+                    attachments += testStep.attributes.size();
+                    for (final Attribute attachment : testStep.attributes) {
+                        final String type = attachment.name;
+                        final String value = attachment.value;
+                        final TeSpool.Slice slice = attachment.slice;
+                        if (slice != null) {
+                            mapSlice(calls, taskId, xmlPool, type, slice);
+                            continue;
+                        }
+                        switch (type) {
+                        case "response":
+                            final String responseMimeType = xmlPool.isWellFormed(value) ? "text/xml" : null;
+                            calls.add(c -> saveText(c, taskId, value, "Service Response", responseMimeType,
+                                    "ServiceResponse"));
+                            break;
+                        case "request":
+                            if (xmlPool.isWellFormed(value)) {
+                                calls.add(c -> saveText(c, taskId, value, "Request Parameter", "text/xml",
+                                        "PostData"));
+                            } else {
+                                calls.add(c -> saveAttachment(c, taskId, value, "Request Parameter",
+                                        "text/plain",
+                                        "GetParameter"));
+                            }
+                            break;
+                        default:
+                            calls.add(c -> saveAttachment(c, taskId, value, type, null, type));
+                        }
+                    }
+                    calls.add(c -> c.end(testStepId, status, testStepEndTimestamp));
+                    if (configStep && (status == 2 || status == 3)) {
+                        oneSkippedOrNotApplicableConfigStepRecorded = true;
+                    }
+                    testStepResultCollected = true;
+                }
+            }
+            final long testCaseEnd = testCaseEndTimeStamp;
+            if (testStepResultCollected) {
+                calls.add(c -> c.end(testCaseId, testCaseEnd));
+            } else {
+                // only passed config steps collected,
+                calls.add(c -> c.end(testCaseId, 0, testCaseEnd));
+            }
+        }
+        final long testModuleEndTimestamp = timestamp(finishedAt);
+        calls.add(c -> c.end(testModuleId, testModuleEndTimestamp));
+        mappedAttachments = attachments;
+        mappingEvent.commit(taskId, name, testMethodCount);
+        return calls;
+    }
+
+    /**
+     * Maps an attachment that is read from the spool file, like a text attachment
+     */
+    private static void mapSlice(final List<TeCollectorWriter.Call> calls, final String taskId,
+            final TeXmlPool xmlPool, final String type, final TeSpool.Slice slice) {
+        switch (type) {
+        case "response":
+            final String responseMimeType = xmlPool.isWellFormed(slice.open()) ? "text/xml" : null;
+            calls.add(c -> saveSlice(c, taskId, slice, "Service Response", responseMimeType, "ServiceResponse"));
+            break;
+        case "request":
+            if (xmlPool.isWellFormed(slice.open())) {
+                calls.add(c -> saveSlice(c, taskId, slice, "Request Parameter", "text/xml", "PostData"));
+            } else {
+                calls.add(c -> saveSlice(c, taskId, slice, "Request Parameter", "text/plain", "GetParameter"));
+            }
+            break;
+        default:
+            calls.add(c -> saveSlice(c, taskId, slice, type, null, type));
+        }
+    }
+
+    private static Node firstChild(final Node parent, final String name) {
+        return element(parent.getFirstChild(), name);
+    }
+
+    private static Node nextSibling(final Node node, final String name) {
+        return element(node.getNextSibling(), name);
+    }
+
+    private static Node element(final Node first, final String name) {
+        for (Node node = first; node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == ELEMENT_NODE && name.equals(node.getNodeName())) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static String attribute(final Node element, final String name) {
+        return attributeOrDefault(element, name, null);
+    }
+
+    private static String attributeOrDefault(final Node element, final String name, final String defaultValue) {
+        // Element.getAttributes() creates the attribute map of elements without attributes
+        final Attr attribute = ((Element) element).getAttributeNode(name);
+        return attribute != null ? attribute.getValue() : defaultValue;
+    }
+
+    /**
+     * Returns the concatenated text of the descendants, like Node.getTextContent()
+     * but without a buffer shared by the document
+     */
+    private static String text(final Node node) {
+        final Node first = node.getFirstChild();
+        if (first == null) {
+            return "";
+        }
+        if (first.getNextSibling() == null && isText(first)) {
+            return first.getNodeValue();
+        }
+        final StringBuilder text = new StringBuilder();
+        appendText(node, text);
+        return text.toString();
+    }
+
+    private static void appendText(final Node node, final StringBuilder text) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (isText(child)) {
+                text.append(child.getNodeValue());
+            } else if (child.getNodeType() == ELEMENT_NODE) {
+                appendText(child, text);
+            }
+        }
+    }
+
+    private static boolean isText(final Node node) {
+        return node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE;
+    }
+
+    private static long timestamp(final String iso8601) {
+        return TimeUtils.string8601ToDate(iso8601).getTime();
+    }
+
+    /**
+     * Saves a text attachment, the text is encoded while it is written
+     */
+    private static void saveText(final TestResultCollector collector, final String taskId, final String text,
+            final String label, final String mimeType, final String type) throws Exception {
+        final TeFlightRecorder.Span attachmentEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.ATTACHMENT);
+        try (final InputStream inputStream = new TeTextInputStream(text)) {
+            collector.saveAttachment(inputStream, label, mimeType, type);
+        }
+        attachmentEvent.commit(taskId, label, type, mimeType);
+    }
+
+    /**
+     * Saves an attachment that is read from the spool file
+     */
+    private static void saveSlice(final TestResultCollector collector, final String taskId, final TeSpool.Slice slice,
+            final String label, final String mimeType, final String type) throws Exception {
+        final TeFlightRecorder.Span attachmentEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.ATTACHMENT);
+        try (final InputStream inputStream = slice.open()) {
+            collector.saveAttachment(inputStream, label, mimeType, type);
+        }
+        attachmentEvent.commit(taskId, label, type, mimeType);
+    }
+
+    private static void saveAttachment(final TestResultCollector collector, final String taskId, final String content,
+            final String label, final String mimeType, final String type) throws Exception {
+        final TeFlightRecorder.Span attachmentEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.ATTACHMENT);
+        collector.saveAttachment(content, label, mimeType, type);
+        attachmentEvent.commit(taskId, label, type, mimeType);
+    }
+}
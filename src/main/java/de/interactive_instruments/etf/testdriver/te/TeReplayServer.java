@@ -0,0 +1,250 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static de.interactive_instruments.etf.testdriver.te.TeExchanges.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the exchanges of an archive recorded by {@link TeExchanges} on the
+ * loopback interface.
+ *
+ * The original URI and the kind of the exchange are encoded in the path of the
+ * rewritten URI. Streams are additionally told apart by the requested media
+ * type. Recordings of the same request are served in the recorded order,
+ * the last one is repeated. The response is delayed and the body is sent at the
+ * rate of the recording, scaled by the speed.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeReplayServer implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Logger logger = LoggerFactory.getLogger(TeReplayServer.class);
+    private final ZipFile archive;
+    private final double speed;
+    private final Map<String, Recordings> recordings = new HashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String prefix;
+    private int exchangeCount;
+
+    private static final class Recording {
+        private final Properties exchange;
+        private final ZipEntry body;
+
+        private Recording(final Properties exchange, final ZipEntry body) {
+            this.exchange = exchange;
+            this.body = body;
+        }
+
+        private long millis(final String property) {
+            return Long.parseLong(exchange.getProperty(property, "0"));
+        }
+    }
+
+    private static final class Recordings {
+        private final List<Recording> recordings = new ArrayList<>();
+        private final AtomicInteger next = new AtomicInteger();
+
+        private Recording next() {
+            return recordings.get(Math.min(next.getAndIncrement(), recordings.size() - 1));
+        }
+    }
+
+    /**
+     * Load the archive and start the server on a free port
+     *
+     * @param archivePath
+     *            the archive recorded by {@link TeExchanges}
+     * @param speed
+     *            speed relative to the recorded timing, 0 for no delays
+     * @throws IOException
+     *             if the archive can not be read or the server can not be started
+     */
+    TeReplayServer(final Path archivePath, final double speed) throws IOException {
+        this.archive = new ZipFile(archivePath.toFile());
+        this.speed = speed;
+        final List<String> names = new ArrayList<>();
+        for (final Enumeration<? extends ZipEntry> entries = archive.entries(); entries.hasMoreElements();) {
+            final String name = entries.nextElement().getName();
+            if (name.endsWith(EXCHANGE_SUFFIX)) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+        for (final String name : names) {
+            final Properties exchange = new Properties();
+            try (final InputStream in = archive.getInputStream(archive.getEntry(name))) {
+                exchange.load(in);
+            }
+            final URI uri = URI.create(exchange.getProperty(URI_PROPERTY));
+            final String key = key(exchange.getProperty(KIND).toLowerCase(Locale.ENGLISH),
+                    exchange.getProperty(ACCEPT), uri.getScheme(), uri.getRawAuthority(), uri.getRawPath(),
+                    uri.getRawQuery());
+            final ZipEntry body = archive.getEntry(
+                    name.substring(0, name.length() - EXCHANGE_SUFFIX.length()) + BODY_SUFFIX);
+            recordings.computeIfAbsent(key, k -> new Recordings()).recordings.add(new Recording(exchange, body));
+            exchangeCount++;
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "te-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        prefix = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    private static String key(final String kind, final String accept, final String scheme, final String authority,
+            final String path, final String query) {
+        return kind + ' ' + (accept != null ? accept : "") + ' ' + scheme + "://" + authority
+                + (path != null ? path : "") + (query != null ? "?" + query : "");
+    }
+
+    int getExchangeCount() {
+        return exchangeCount;
+    }
+
+    /**
+     * Returns the URI of the server that replays the exchange with the URI
+     */
+    URI rewrite(final TeExchanges.Kind kind, final URI uri) {
+        return URI.create(prefix + kind.pathSegment() + "/" + uri.getScheme() + "/" + uri.getRawAuthority()
+                + (uri.getRawPath() != null ? uri.getRawPath() : "")
+                + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            // kind, scheme, authority and the original path
+            final String[] segments = exchange.getRequestURI().getRawPath().split("/", 5);
+            // only streams are opened with the requested media type
+            final String accept = segments.length >= 2 && Kind.OPEN.pathSegment().equals(segments[1])
+                    ? exchange.getRequestHeaders().getFirst("Accept")
+                    : null;
+            final Recordings candidates = segments.length >= 4
+                    ? recordings.get(key(segments[1], accept, segments[2], segments[3],
+                            segments.length == 5 ? "/" + segments[4] : "", exchange.getRequestURI().getRawQuery()))
+                    : null;
+            if (candidates == null) {
+                logger.warn("No recorded exchange for {}", exchange.getRequestURI());
+                final byte[] page = ("<html><body><p>No recorded exchange for " + exchange.getRequestURI()
+                        + "</p></body></html>").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+                exchange.sendResponseHeaders(404, page.length);
+                exchange.getResponseBody().write(page);
+                return;
+            }
+            replay(exchange, candidates.next());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private long scaled(final long millis) {
+        return speed > 0 ? (long) (millis / speed) : 0;
+    }
+
+    private static void sleepUntil(final long nanoTime) throws IOException {
+        final long wait = nanoTime - System.nanoTime();
+        if (wait > 1000000) {
+            try {
+                Thread.sleep(wait / 1000000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private void replay(final HttpExchange exchange, final Recording recording) throws IOException {
+        final long start = System.nanoTime();
+        final int status = Integer.parseInt(recording.exchange.getProperty(STATUS));
+        if (status == -1) {
+            // the recorded exchange failed without a response, drop the connection after the recorded time
+            sleepUntil(start + scaled(recording.millis(DURATION)) * 1000000);
+            return;
+        }
+        sleepUntil(start + scaled(recording.millis(FIRST_BYTE)) * 1000000);
+        final String contentType = recording.exchange.getProperty(CONTENT_TYPE);
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        if (recording.body == null || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        final long bodySize = recording.body.getSize();
+        final long bodyNanos = scaled(recording.millis(DURATION) - recording.millis(FIRST_BYTE)) * 1000000;
+        final long bodyStart = System.nanoTime();
+        exchange.sendResponseHeaders(status, bodySize >= 0 ? bodySize : 0);
+        try (final InputStream in = archive.getInputStream(recording.body);
+                final OutputStream out = exchange.getResponseBody()) {
+            final byte[] buffer = new byte[CHUNK_SIZE];
+            long sent = 0;
+            for (int n; (n = in.read(buffer)) != -1;) {
+                out.write(buffer, 0, n);
+                sent += n;
+                if (bodyNanos > 0 && bodySize > 0) {
+                    out.flush();
+                    sleepUntil(bodyStart + (long) ((double) sent / bodySize * bodyNanos));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            archive.close();
+        } catch (final IOException e) {
+            logger.error("Closing the exchange archive failed", e);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.*;
+import java.util.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.SUtils;
+import de.interactive_instruments.XmlUtils;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Re-executes only the TestNG classes that failed or were skipped in a previous
+ * run of an Executable Test Suite against the same service endpoint.
+ *
+ * Complete results are kept in a directory, together with the ID and version
+ * of the ETS, the endpoint and the structure hash of the result. A test task
+ * only re-executes classes if its {@link TeTestDriver#TE_RERUN_ARGUMENT}
+ * argument references the task of a kept result, full runs are the default.
+ * The result is ignored if the ETS, its version or its structure have changed
+ * since, or if the endpoint differs. The TEAM Engine is then invoked with a
+ * request parameter that selects the classes and the classes of the new result
+ * replace the ones of the previous result, so the collector receives a
+ * complete result with the IDs of the previous run. The other classes are not
+ * re-executed, their results are copied from the referenced run.
+ *
+ * Only results of full runs are kept, so copied results are never older than
+ * the referenced run.
+ *
+ * The TEAM Engine REST interface has no common parameter for selecting TestNG
+ * classes, it must be provided by the ETS. The name of the parameter is therefore
+ * configured. Without a configured parameter only the results are kept.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeRerun {
+
+    // properties of a kept result
+    private static final String ETS = "ets";
+    private static final String ETS_VERSION = "etsVersion";
+    private static final String STRUCTURE = "structure";
+    private static final String ENDPOINT = "endpoint";
+
+    private final Logger logger = LoggerFactory.getLogger(TeRerun.class);
+
+    private final Path directory;
+    private final String selectionParameter;
+    private final int maxResults;
+    private final TeXmlPool xmlPool;
+
+    /**
+     * The previous result and the classes that are re-executed
+     */
+    static final class Selection {
+        private final Document previous;
+        private final Set<String> classNames;
+        private final String query;
+
+        private Selection(final Document previous, final Set<String> classNames, final String query) {
+            this.previous = previous;
+            this.classNames = classNames;
+            this.query = query;
+        }
+
+        Set<String> getClassNames() {
+            return classNames;
+        }
+
+        /**
+         * Returns the query parameter that selects the classes, starting with '&amp;'
+         */
+        String getQuery() {
+            return query;
+        }
+    }
+
+    /**
+     * The ETS and the endpoint of a result
+     */
+    static final class Key {
+        private final EID etsId;
+        private final String etsVersion;
+        private final String structure;
+        private final String endpoint;
+
+        /**
+         * Create a key
+         *
+         * @param etsId
+         *            ID of the ETS
+         * @param etsVersion
+         *            version of the ETS
+         * @param structure
+         *            structure hash of the ETS or of the result
+         * @param endpoint
+         *            the service endpoint
+         */
+        Key(final EID etsId, final String etsVersion, final String structure, final String endpoint) {
+            this.etsId = etsId;
+            this.etsVersion = etsVersion;
+            this.structure = structure;
+            this.endpoint = endpoint;
+        }
+
+        private Properties toProperties() {
+            final Properties properties = new Properties();
+            properties.setProperty(ETS, etsId.getId());
+            properties.setProperty(ETS_VERSION, String.valueOf(etsVersion));
+            properties.setProperty(STRUCTURE, String.valueOf(structure));
+            properties.setProperty(ENDPOINT, endpoint);
+            return properties;
+        }
+
+        /**
+         * Returns the first property that differs or null if the properties match the key
+         */
+        private String mismatch(final Properties properties) {
+            if (!etsId.getId().equals(properties.getProperty(ETS))) {
+                return "Executable Test Suite";
+            } else if (!String.valueOf(etsVersion).equals(properties.getProperty(ETS_VERSION))) {
+                return "version of the Executable Test Suite";
+            } else if (!String.valueOf(structure).equals(properties.getProperty(STRUCTURE))) {
+                return "structure of the Executable Test Suite";
+            } else if (!endpoint.equals(properties.getProperty(ENDPOINT))) {
+                return "service endpoint";
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param directory
+     *            directory for the previous results
+     * @param selectionParameter
+     *            name of the TEAM Engine request parameter that selects the TestNG classes, or null if not supported
+     * @param maxResults
+     *            maximum number of kept results, the oldest results are deleted first
+     * @param xmlPool
+     *            the driver wide XML pool
+     */
+    TeRerun(final Path directory, final String selectionParameter, final int maxResults, final TeXmlPool xmlPool) {
+        this.directory = directory;
+        this.selectionParameter = SUtils.isNullOrEmpty(selectionParameter) ? null : selectionParameter;
+        this.maxResults = maxResults;
+        this.xmlPool = xmlPool;
+    }
+
+    private Path resultFile(final String taskId) {
+        return directory.resolve(SUtils.fastCalcHashAsHexStr(taskId) + ".xml");
+    }
+
+    private static Path keyFile(final Path resultFile) {
+        final String name = resultFile.getFileName().toString();
+        return resultFile.resolveSibling(name.substring(0, name.length() - 4) + ".properties");
+    }
+
+    /**
+     * Select the classes that failed or were skipped in a previous run
+     *
+     * @param taskLogger
+     *            logger of the test task, for the reason of a full run
+     * @param previousTaskId
+     *            ID of the test task of the previous run
+     * @param key
+     *            the ETS and the endpoint of the current run
+     * @return the selection or null if the whole suite must be executed
+     */
+    Selection select(final Logger taskLogger, final String previousTaskId, final Key key) {
+        if (selectionParameter == null) {
+            taskLogger.info("Re-executing failed classes is not configured, the whole test suite is executed.");
+            return null;
+        }
+        final Path file = resultFile(previousTaskId);
+        final Properties previousKey = new Properties();
+        try (final InputStream in = Files.newInputStream(keyFile(file))) {
+            previousKey.load(in);
+        } catch (final IOException e) {
+            taskLogger.info("No result of test task {} is kept, the whole test suite is executed.", previousTaskId);
+            return null;
+        }
+        final String mismatch = key.mismatch(previousKey);
+        if (mismatch != null) {
+            taskLogger.info("The {} differs from the one of test task {}, the whole test suite is executed.", mismatch,
+                    previousTaskId);
+            return null;
+        }
+        final Document previous;
+        try {
+            previous = xmlPool.parse(file.toFile());
+        } catch (final Exception e) {
+            logger.warn("Ignoring unreadable previous result {}: {}", file, e.getMessage());
+            return null;
+        }
+        final Set<String> classNames = new LinkedHashSet<>();
+        for (final Element testClass : testClasses(previous)) {
+            for (Node testMethod = XmlUtils.getFirstChildNodeOfType(testClass, ELEMENT_NODE,
+                    "test-method"); testMethod != null; testMethod = XmlUtils.getNextSiblingOfType(testMethod,
+                            ELEMENT_NODE, "test-method")) {
+                final String status = XmlUtils.getAttribute(testMethod, "status");
+                if (!"PASS".equals(status)) {
+                    classNames.add(XmlUtils.getAttribute(testClass, "name"));
+                    break;
+                }
+            }
+        }
+        if (classNames.isEmpty()) {
+            taskLogger.info("All classes passed in test task {}, the whole test suite is executed.", previousTaskId);
+            return null;
+        }
+        try {
+            return new Selection(previous, classNames,
+                    "&" + selectionParameter + "=" + URLEncoder.encode(String.join(",", classNames), "UTF-8"));
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Replace the classes of the previous result with the ones of the partial result.
+     * The suite and the re-executed test modules get the timestamps of the partial
+     * result.
+     *
+     * @param selection
+     *            the selection the partial result has been created for
+     * @param partial
+     *            the result of the re-executed classes
+     * @return the merged result
+     */
+    static Document merge(final Selection selection, final Document partial) {
+        final Document merged = selection.previous;
+        final Map<String, Element> previousClasses = new HashMap<>();
+        for (final Element testClass : testClasses(merged)) {
+            previousClasses.put(key(testClass), testClass);
+        }
+        final Element suite = (Element) XmlUtils.getFirstChildNodeOfType(merged.getDocumentElement(),
+                ELEMENT_NODE, "suite");
+        final Node partialSuite = XmlUtils.getFirstChildNodeOfType(partial.getDocumentElement(), ELEMENT_NODE, "suite");
+        if (partialSuite != null) {
+            copyTimestamps(partialSuite, suite);
+        }
+        for (final Element testClass : testClasses(partial)) {
+            final Element previousClass = previousClasses.get(key(testClass));
+            final Node imported = merged.importNode(testClass, true);
+            if (previousClass != null) {
+                previousClass.getParentNode().replaceChild(imported, previousClass);
+            } else {
+                // class of a test module that did not exist in the previous run
+                final String testName = XmlUtils.getAttribute(testClass.getParentNode(), "name");
+                Element test = null;
+                for (Node node = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                        "test"); node != null; node = XmlUtils.getNextSiblingOfType(node, ELEMENT_NODE, "test")) {
+                    if (testName != null && testName.equals(XmlUtils.getAttribute(node, "name"))) {
+                        test = (Element) node;
+                        break;
+                    }
+                }
+                if (test == null) {
+                    test = (Element) suite.appendChild(merged.importNode(testClass.getParentNode(), false));
+                }
+                test.appendChild(imported);
+            }
+            copyTimestamps(testClass.getParentNode(), (Element) imported.getParentNode());
+        }
+        updateCounts(merged);
+        return merged;
+    }
+
+    private static void copyTimestamps(final Node from, final Element to) {
+        for (final String attribute : new String[]{"started-at", "finished-at", "duration-ms"}) {
+            final String value = XmlUtils.getAttributeOrDefault(from, attribute, null);
+            if (value != null) {
+                to.setAttribute(attribute, value);
+            }
+        }
+    }
+
+    private static String key(final Element testClass) {
+        return XmlUtils.getAttribute(testClass.getParentNode(), "name") + '\n' + XmlUtils.getAttribute(testClass, "name");
+    }
+
+    private static List<Element> testClasses(final Document document) {
+        final List<Element> testClasses = new ArrayList<>();
+        final Node suite = XmlUtils.getFirstChildNodeOfType(document.getDocumentElement(), ELEMENT_NODE, "suite");
+        if (suite == null) {
+            return testClasses;
+        }
+        for (Node test = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); test != null; test = XmlUtils.getNextSiblingOfType(test, ELEMENT_NODE, "test")) {
+            for (Node testClass = XmlUtils.getFirstChildNodeOfType(test, ELEMENT_NODE,
+                    "class"); testClass != null; testClass = XmlUtils.getNextSiblingOfType(testClass, ELEMENT_NODE,
+                            "class")) {
+                testClasses.add((Element) testClass);
+            }
+        }
+        return testClasses;
+    }
+
+    private static void updateCounts(final Document document) {
+        int passed = 0;
+        int failed = 0;
+        int skipped = 0;
+        for (final Element testClass : testClasses(document)) {
+            for (Node testMethod = XmlUtils.getFirstChildNodeOfType(testClass, ELEMENT_NODE,
+                    "test-method"); testMethod != null; testMethod = XmlUtils.getNextSiblingOfType(testMethod,
+                            ELEMENT_NODE, "test-method")) {
+                if ("true".equals(XmlUtils.getAttributeOrDefault(testMethod, "is-config", "false"))) {
+                    continue;
+                }
+                final String status = XmlUtils.getAttribute(testMethod, "status");
+                if ("PASS".equals(status)) {
+                    passed++;
+                } else if ("FAIL".equals(status)) {
+                    failed++;
+                } else if ("SKIP".equals(status)) {
+                    skipped++;
+                }
+            }
+        }
+        final Element result = document.getDocumentElement();
+        result.setAttribute("passed", String.valueOf(passed));
+        result.setAttribute("failed", String.valueOf(failed));
+        result.setAttribute("skipped", String.valueOf(skipped));
+        result.setAttribute("total", String.valueOf(passed + failed + skipped));
+    }
+
+    /**
+     * Keep the result of a full run
+     *
+     * @param taskId
+     *            ID of the test task
+     * @param key
+     *            the ETS and the endpoint, with the structure hash of the result
+     * @param result
+     *            the complete result
+     */
+    void store(final String taskId, final Key key, final Document result) {
+        store(taskId, key, out -> xmlPool.serialize(result, out));
+    }
+
+    /**
+     * Keep the spooled result of a full run. The spooled file is copied, as the
+     * DOM does not contain the content of large attachments.
+     *
+     * @param taskId
+     *            ID of the test task
+     * @param key
+     *            the ETS and the endpoint, with the structure hash of the result
+     * @param result
+     *            the complete result
+     */
+    void store(final String taskId, final Key key, final TeSpool result) {
+        store(taskId, key, out -> Files.copy(result.getFile(), out));
+    }
+
+    private interface ResultWriter {
+        void write(final OutputStream out) throws Exception;
+    }
+
+    private void store(final String taskId, final Key key, final ResultWriter resultWriter) {
+        final Path file = resultFile(taskId);
+        Path tmpFile = null;
+        try {
+            Files.createDirectories(directory);
+            tmpFile = Files.createTempFile(directory, "result", ".tmp");
+            try (final OutputStream out = Files.newOutputStream(tmpFile)) {
+                resultWriter.write(out);
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // the key is written last, results without a key are not selected
+            tmpFile = Files.createTempFile(directory, "key", ".tmp");
+            try (final OutputStream out = Files.newOutputStream(tmpFile)) {
+                key.toProperties().store(out, null);
+            }
+            Files.move(tmpFile, keyFile(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmpFile = null;
+            deleteOldestResults();
+        } catch (final Exception e) {
+            logger.warn("Could not keep the result for re-executing failed classes: {}", e.getMessage());
+        } finally {
+            if (tmpFile != null) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (final IOException ign) {
+                    ExcUtils.suppress(ign);
+                }
+            }
+        }
+    }
+
+    private void deleteOldestResults() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.xml")) {
+            for (final Path file : stream) {
+                files.add(file);
+            }
+        }
+        if (files.size() <= maxResults) {
+            return;
+        }
+        final Map<Path, Long> modified = new HashMap<>();
+        for (final Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        files.sort(Comparator.comparing(modified::get));
+        for (int i = 0; i < files.size() - maxResults; i++) {
+            Files.deleteIfExists(keyFile(files.get(i)));
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * A serialization of the results that the TEAM Engine can return.
+ *
+ * The driver requests a format with the Accept header and converts the parsed
+ * response to the TestNG result structure, which is mapped to the result
+ * collector. Converted results only need to contain the suite, test, class and
+ * test-method elements with their names, timestamps and status, as well as the
+ * exception messages and the attributes. The driver completes them from the ETS
+ * model and only uses a format if the converted result matches the model.
+ *
+ * Implementations can be added with the property
+ * {@link TeTestDriver#TE_RESULT_FORMATS} and must provide a public default
+ * constructor.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public interface TeResultFormat {
+
+    /**
+     * Returns the name of the format, used in logs and the configuration
+     */
+    String getName();
+
+    /**
+     * Returns the media type that is requested with the Accept header
+     */
+    String getMediaType();
+
+    /**
+     * Check if a parsed response is a result in this format
+     *
+     * @param root
+     *            the root element of the response
+     * @return true if the response can be converted by this format
+     */
+    boolean isResult(final Element root);
+
+    /**
+     * Convert a result to a TestNG result document
+     *
+     * @param result
+     *            a result in this format
+     * @return a TestNG result document, which may be the passed document
+     * @throws Exception
+     *             if the result can not be converted
+     */
+    Document toTestNg(final Document result) throws Exception;
+
+    /**
+     * Returns false if the format only reports a point in time per test-method,
+     * the converted test-methods then have a duration of 0
+     */
+    default boolean hasDurations() {
+        return true;
+    }
+}
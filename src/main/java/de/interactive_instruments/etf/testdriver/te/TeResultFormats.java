@@ -0,0 +1,435 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.XmlUtils;
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Negotiates the result format per TEAM Engine instance.
+ *
+ * The configured formats are tried in the order of preference. A format is
+ * recorded as unsupported by a TEAM Engine instance if the request is rejected
+ * or the response is returned in another format. For every supported format the
+ * received bytes and the time for transferring and parsing the result are
+ * recorded per test-method. Once all formats have been tried, the format with
+ * the fewest bytes per test-method is used. Formats within 10 % of each other
+ * are ordered by the time per test-method.
+ *
+ * TestNG is always supported and used until the ETS model has been built from
+ * a TestNG result. Results in other formats are aligned with the ETS model and
+ * the format is not used again for the ETS if a result does not contain exactly
+ * the items of the model, so the collector receives the same results in all
+ * formats. The mismatches are saved, so that the format is not tried again after
+ * a restart. Formats without test-method durations are only used if the
+ * durations are not required.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeResultFormats {
+
+    private static final double SIZE_TOLERANCE = 1.1;
+
+    private final Logger logger = LoggerFactory.getLogger(TeResultFormats.class);
+    private final TeResultFormat testNg;
+    private final List<TeResultFormat> formats;
+    private final ConcurrentMap<String, Observation> observations = new ConcurrentHashMap<>();
+    private final Set<String> mismatches = ConcurrentHashMap.newKeySet();
+    private final Path mismatchFile;
+    private final boolean durationsRequired;
+
+    /**
+     * What has been observed for one format and TEAM Engine instance
+     */
+    private static final class Observation {
+        private final String teHost;
+        private final String format;
+        private boolean unsupported;
+        private long bytes;
+        private long millis;
+        private long testMethods;
+
+        private Observation(final String teHost, final String format) {
+            this.teHost = teHost;
+            this.format = format;
+        }
+
+        private synchronized boolean isUnsupported() {
+            return unsupported;
+        }
+
+        private synchronized boolean isObserved() {
+            return testMethods > 0;
+        }
+
+        private synchronized double bytesPerTestMethod() {
+            return (double) bytes / testMethods;
+        }
+
+        private synchronized double millisPerTestMethod() {
+            return (double) millis / testMethods;
+        }
+    }
+
+    /**
+     * Create the negotiation, the mismatches are only kept in memory and the
+     * durations are not required
+     *
+     * @param formats
+     *            the formats in the order of preference, TestNG is added if it is missing
+     */
+    TeResultFormats(final List<TeResultFormat> formats) {
+        this(formats, null, false);
+    }
+
+    /**
+     * Create the negotiation
+     *
+     * @param formats
+     *            the formats in the order of preference, TestNG is added if it is missing
+     * @param mismatchFile
+     *            the file the mismatches are loaded from and saved to, or null if
+     *            they shall only be kept in memory
+     * @param durationsRequired
+     *            true if formats without test-method durations must not be used
+     */
+    TeResultFormats(final List<TeResultFormat> formats, final Path mismatchFile, final boolean durationsRequired) {
+        this.mismatchFile = mismatchFile;
+        this.durationsRequired = durationsRequired;
+        final List<TeResultFormat> all = new ArrayList<>(formats);
+        TeResultFormat testNgFormat = null;
+        for (final TeResultFormat format : all) {
+            if (TeTestNgFormat.NAME.equals(format.getName())) {
+                testNgFormat = format;
+            }
+        }
+        if (testNgFormat == null) {
+            testNgFormat = new TeTestNgFormat();
+            all.add(testNgFormat);
+        }
+        this.testNg = testNgFormat;
+        this.formats = Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Returns the built-in format with the name
+     *
+     * @param name
+     *            "testng" or "earl"
+     * @return the format or null if there is no built-in format with the name
+     */
+    static TeResultFormat builtIn(final String name) {
+        switch (name) {
+        case TeTestNgFormat.NAME:
+            return new TeTestNgFormat();
+        case TeEarlFormat.NAME:
+            return new TeEarlFormat();
+        }
+        return null;
+    }
+
+    TeResultFormat testNg() {
+        return testNg;
+    }
+
+    private Observation observation(final String teHost, final TeResultFormat format) {
+        return observations.computeIfAbsent(teHost + ' ' + format.getName(),
+                k -> new Observation(teHost, format.getName()));
+    }
+
+    private static String mismatchKey(final String teHost, final EID etsId, final TeResultFormat format) {
+        return teHost + ' ' + etsId.getId() + ' ' + format.getName();
+    }
+
+    /**
+     * Select the format for the next result
+     *
+     * @param teHost
+     *            host of the TEAM Engine
+     * @param etsId
+     *            ID of the ETS
+     * @param etsModelAvailable
+     *            true if the ETS model has been built from a TestNG result
+     * @return the format to request
+     */
+    TeResultFormat select(final String teHost, final EID etsId, final boolean etsModelAvailable) {
+        if (!etsModelAvailable || formats.size() == 1) {
+            return testNg;
+        }
+        TeResultFormat selected = null;
+        for (final TeResultFormat format : formats) {
+            final Observation observation = observation(teHost, format);
+            if (observation.isUnsupported() || mismatches.contains(mismatchKey(teHost, etsId, format))
+                    || durationsRequired && !format.hasDurations()) {
+                continue;
+            }
+            if (!observation.isObserved()) {
+                // try all formats first
+                return format;
+            }
+            if (selected == null) {
+                selected = format;
+                continue;
+            }
+            final Observation best = observation(teHost, selected);
+            if (observation.bytesPerTestMethod() * SIZE_TOLERANCE < best.bytesPerTestMethod()
+                    || observation.bytesPerTestMethod() < best.bytesPerTestMethod() * SIZE_TOLERANCE
+                            && observation.millisPerTestMethod() < best.millisPerTestMethod()) {
+                selected = format;
+            }
+        }
+        return selected != null ? selected : testNg;
+    }
+
+    /**
+     * Returns the format of a parsed response
+     *
+     * @param root
+     *            the root element of the response
+     * @return the format or null if the format is unknown
+     */
+    TeResultFormat detect(final Element root) {
+        for (final TeResultFormat format : formats) {
+            if (format.isResult(root)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Record that a TEAM Engine instance does not support a format
+     */
+    void unsupported(final String teHost, final TeResultFormat format) {
+        if (format == testNg) {
+            return;
+        }
+        final Observation observation = observation(teHost, format);
+        synchronized (observation) {
+            if (!observation.unsupported) {
+                logger.info("The TEAM Engine at {} does not support the {} result format", teHost, format.getName());
+                observation.unsupported = true;
+            }
+        }
+    }
+
+    /**
+     * Record that a result in a format does not match the ETS model
+     */
+    void mismatch(final String teHost, final EID etsId, final TeResultFormat format) {
+        if (mismatches.add(mismatchKey(teHost, etsId, format))) {
+            logger.info("{} results of the TEAM Engine at {} do not match the model of ETS {}",
+                    format.getName(), teHost, etsId.getId());
+            save();
+        }
+    }
+
+    synchronized void load() {
+        if (mismatchFile == null || !Files.exists(mismatchFile)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(mismatchFile)) {
+            properties.load(in);
+        } catch (final IOException e) {
+            logger.warn("Could not load result format mismatches from {}", mismatchFile, e);
+            return;
+        }
+        mismatches.addAll(properties.stringPropertyNames());
+        logger.debug("Loaded {} result format mismatches", mismatches.size());
+    }
+
+    private synchronized void save() {
+        if (mismatchFile == null) {
+            return;
+        }
+        final Properties properties = new Properties();
+        for (final String mismatch : mismatches) {
+            properties.setProperty(mismatch, "mismatch");
+        }
+        try {
+            final Path tmpFile = mismatchFile.resolveSibling(mismatchFile.getFileName() + ".tmp");
+            try (final OutputStream out = Files.newOutputStream(tmpFile)) {
+                properties.store(out, "Result formats that do not match the ETS models, per TEAM Engine and ETS");
+            }
+            Files.move(tmpFile, mismatchFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            logger.warn("Could not save result format mismatches to {}", mismatchFile, e);
+        }
+    }
+
+    /**
+     * Record the size and the transfer and parsing time of a result
+     */
+    void record(final String teHost, final TeResultFormat format, final long bytes, final long millis,
+            final long testMethods) {
+        if (testMethods <= 0) {
+            return;
+        }
+        final Observation observation = observation(teHost, format);
+        synchronized (observation) {
+            observation.bytes += bytes;
+            observation.millis += Math.max(0, millis);
+            observation.testMethods += testMethods;
+        }
+    }
+
+    /**
+     * Returns the recorded support of a format by a TEAM Engine instance
+     *
+     * @return null if the format has not been tried yet, otherwise if it is supported
+     */
+    Boolean isSupported(final String teHost, final TeResultFormat format) {
+        final Observation observation = observations.get(teHost + ' ' + format.getName());
+        if (observation == null || !observation.isUnsupported() && !observation.isObserved()) {
+            return format == testNg ? Boolean.TRUE : null;
+        }
+        return !observation.isUnsupported();
+    }
+
+    /**
+     * Add the recorded support, bytes and milliseconds per 1000 test-methods
+     * of the formats per TEAM Engine instance to a metrics snapshot
+     */
+    void snapshot(final SortedMap<String, Number> snapshot) {
+        for (final Observation observation : observations.values()) {
+            final String tags = "{host=\"" + observation.teHost + "\",format=\"" + observation.format + "\"}";
+            synchronized (observation) {
+                if (observation.unsupported) {
+                    snapshot.put("te_result_format_supported" + tags, 0);
+                } else if (observation.testMethods > 0) {
+                    snapshot.put("te_result_format_supported" + tags, 1);
+                    snapshot.put("te_result_format_bytes_per_test_method" + tags,
+                            observation.bytes / observation.testMethods);
+                    snapshot.put("te_result_format_ms_per_1000_test_methods" + tags,
+                            observation.millis * 1000 / observation.testMethods);
+                }
+            }
+        }
+    }
+
+    /**
+     * Align a converted result with the ETS model: the suite name, descriptions
+     * and configuration methods are taken from the model and the items are
+     * ordered like in the model.
+     *
+     * @param result
+     *            the converted TestNG result
+     * @param index
+     *            the index of the ETS model
+     * @return false if the result does not contain exactly the items of the model
+     */
+    static boolean align(final Document result, final TeEtsIndex index) {
+        final Node suite = XmlUtils.getFirstChildNodeOfType(result.getDocumentElement(), ELEMENT_NODE, "suite");
+        if (suite == null) {
+            return false;
+        }
+        ((Element) suite).setAttribute("name", index.getSuiteName());
+        final Map<Node, Integer> ordinals = new HashMap<>();
+        for (Node test = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); test != null; test = XmlUtils.getNextSiblingOfType(test, ELEMENT_NODE, "test")) {
+            final String testName = XmlUtils.getAttribute(test, "name");
+            if (!alignItem((Element) test, index.lookup(index.getSuiteName(), testName), TeEtsIndex.MODULE, index,
+                    ordinals)) {
+                return false;
+            }
+            for (Node testClass = XmlUtils.getFirstChildNodeOfType(test, ELEMENT_NODE,
+                    "class"); testClass != null; testClass = XmlUtils.getNextSiblingOfType(testClass, ELEMENT_NODE,
+                            "class")) {
+                final String className = XmlUtils.getAttribute(testClass, "name");
+                final int classOrdinal = index.lookup(testName, className);
+                if (!alignItem((Element) testClass, classOrdinal, TeEtsIndex.CASE, index, ordinals)) {
+                    return false;
+                }
+                for (Node testMethod = XmlUtils.getFirstChildNodeOfType(testClass, ELEMENT_NODE,
+                        "test-method"); testMethod != null; testMethod = XmlUtils.getNextSiblingOfType(testMethod,
+                                ELEMENT_NODE, "test-method")) {
+                    final int ordinal = index.lookup(className, XmlUtils.getAttribute(testMethod, "name"));
+                    if (!alignItem((Element) testMethod, ordinal, TeEtsIndex.STEP, index, ordinals)) {
+                        return false;
+                    }
+                    ((Element) testMethod).setAttribute("is-config", String.valueOf(index.isConfig(ordinal)));
+                }
+            }
+        }
+        // a missing item, like a configuration method the format does not report, changes the result
+        final BitSet contained = new BitSet(index.size());
+        ordinals.values().forEach(contained::set);
+        if (contained.cardinality() != index.size()) {
+            return false;
+        }
+        for (Node test = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); test != null; test = XmlUtils.getNextSiblingOfType(test, ELEMENT_NODE, "test")) {
+            for (Node testClass = XmlUtils.getFirstChildNodeOfType(test, ELEMENT_NODE,
+                    "class"); testClass != null; testClass = XmlUtils.getNextSiblingOfType(testClass, ELEMENT_NODE,
+                            "class")) {
+                sortChildren(testClass, ordinals);
+            }
+            sortChildren(test, ordinals);
+        }
+        sortChildren(suite, ordinals);
+        return true;
+    }
+
+    private static boolean alignItem(final Element element, final int ordinal, final byte level,
+            final TeEtsIndex index, final Map<Node, Integer> ordinals) {
+        if (ordinal == -1 || index.level(ordinal) != level) {
+            return false;
+        }
+        final String description = index.description(ordinal);
+        if (description != null) {
+            element.setAttribute("description", description);
+        }
+        ordinals.put(element, ordinal);
+        return true;
+    }
+
+    private static void sortChildren(final Node parent, final Map<Node, Integer> ordinals) {
+        final List<Node> children = new ArrayList<>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (ordinals.containsKey(child)) {
+                children.add(child);
+            }
+        }
+        // stable, repeated invocations keep their order
+        children.sort(Comparator.comparing(ordinals::get));
+        for (final Node child : children) {
+            parent.appendChild(child);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Persistent store of the durations the TEAM Engine reported for previous runs
+ * (the duration-ms attribute of the TestNG suite element), grouped by Executable
+ * Test Suite and host of the tested endpoint.
+ *
+ * The durations are used to derive a timeout that fits the ETS and the endpoint
+ * instead of applying one static timeout to all runs. Runs that timed out are
+ * recorded as negative durations: the real duration is unknown but at least the
+ * applied timeout.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeRunStatistics {
+
+    // number of durations kept per ETS and host
+    private static final int MAX_SAMPLES = 32;
+    // number of durations required before a timeout is derived
+    private static final int MIN_SAMPLES = 5;
+    private static final double PERCENTILE = 0.95;
+    private static final double FACTOR = 1.5;
+    private static final long MIN_TIMEOUT_MS = 120000;
+    // minimum interval between two saves triggered by recorded durations
+    private static final long SAVE_INTERVAL_MS = 60000;
+
+    private final Path file;
+    private final long marginMs;
+    private final Map<String, long[]> durations = new HashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(TeRunStatistics.class);
+    private long lastSaved;
+    private boolean dirty;
+
+    /**
+     * Create a new store
+     *
+     * @param file
+     *            the file the durations are loaded from and saved to, or null if the
+     *            durations shall only be kept in memory
+     * @param marginMs
+     *            the margin that is added to the derived timeout
+     */
+    TeRunStatistics(final Path file, final long marginMs) {
+        this.file = file;
+        this.marginMs = marginMs;
+    }
+
+    static String hostOf(final String endpoint) {
+        try {
+            final String host = URI.create(endpoint).getHost();
+            return host != null ? host.toLowerCase(Locale.ENGLISH) : "unknown";
+        } catch (final IllegalArgumentException e) {
+            return "unknown";
+        }
+    }
+
+    private static String key(final EID etsId, final String host) {
+        return etsId.getId() + "@" + host;
+    }
+
+    synchronized void load() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (final IOException e) {
+            logger.warn("Could not load run durations from {}", file, e);
+            return;
+        }
+        for (final String key : properties.stringPropertyNames()) {
+            final String[] values = properties.getProperty(key).split(",");
+            final long[] samples = new long[values.length];
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    samples[i] = Long.parseLong(values[i].trim());
+                }
+                durations.put(key, samples);
+            } catch (final NumberFormatException e) {
+                logger.warn("Ignoring invalid run durations for {}", key);
+            }
+        }
+        logger.debug("Loaded run durations for {} test suite/host combinations", durations.size());
+    }
+
+    synchronized void save() {
+        if (file == null || !dirty) {
+            return;
+        }
+        dirty = false;
+        lastSaved = System.currentTimeMillis();
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, long[]> entry : durations.entrySet()) {
+            final StringBuilder values = new StringBuilder();
+            for (final long sample : entry.getValue()) {
+                if (values.length() > 0) {
+                    values.append(',');
+                }
+                values.append(sample);
+            }
+            properties.setProperty(entry.getKey(), values.toString());
+        }
+        try {
+            final Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (final OutputStream out = Files.newOutputStream(tmpFile)) {
+                properties.store(out, "TEAM Engine run durations in ms");
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            logger.warn("Could not save run durations to {}", file, e);
+        }
+    }
+
+    /**
+     * Record the duration of a run. The store is persisted at most once per minute
+     * and on release of the driver.
+     *
+     * @param etsId
+     *            ID of the Executable Test Suite
+     * @param host
+     *            host of the tested endpoint
+     * @param durationMs
+     *            duration reported by the TEAM Engine
+     */
+    void record(final EID etsId, final String host, final long durationMs) {
+        if (durationMs >= 0) {
+            add(key(etsId, host), durationMs);
+        }
+    }
+
+    /**
+     * Record a run that was aborted after the timeout. The next run of the ETS
+     * against the host gets the maximum timeout.
+     *
+     * @param etsId
+     *            ID of the Executable Test Suite
+     * @param host
+     *            host of the tested endpoint
+     * @param timeoutMs
+     *            the timeout that was applied
+     */
+    void recordTimeout(final EID etsId, final String host, final long timeoutMs) {
+        if (timeoutMs > 0) {
+            add(key(etsId, host), -timeoutMs);
+        }
+    }
+
+    private void add(final String key, final long sample) {
+        final boolean save;
+        synchronized (this) {
+            final long[] samples = durations.get(key);
+            final long[] newSamples;
+            if (samples == null) {
+                newSamples = new long[]{sample};
+            } else if (samples.length < MAX_SAMPLES) {
+                newSamples = Arrays.copyOf(samples, samples.length + 1);
+                newSamples[samples.length] = sample;
+            } else {
+                // drop the oldest duration
+                newSamples = new long[MAX_SAMPLES];
+                System.arraycopy(samples, 1, newSamples, 0, MAX_SAMPLES - 1);
+                newSamples[MAX_SAMPLES - 1] = sample;
+            }
+            durations.put(key, newSamples);
+            dirty = true;
+            save = System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MS;
+        }
+        if (save) {
+            save();
+        }
+    }
+
+    private static long[] sortedDurations(final long[] samples) {
+        final long[] sorted = new long[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            sorted[i] = Math.abs(samples[i]);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns the number of recorded durations
+     *
+     * @param etsId
+     *            ID of the Executable Test Suite
+     * @param host
+     *            host of the tested endpoint
+     * @return number of recorded durations
+     */
+    synchronized int samples(final EID etsId, final String host) {
+        final long[] samples = durations.get(key(etsId, host));
+        return samples != null ? samples.length : 0;
+    }
+
+    /**
+     * Returns the median of the recorded durations for the endpoint host or, if no
+     * duration has been recorded for the host, the median of the durations recorded
+     * for all hosts.
+     *
+     * @param etsId
+     *            ID of the Executable Test Suite
+     * @param host
+     *            host of the tested endpoint
+     * @return expected duration in ms or -1 if unknown
+     */
+    long expectedDuration(final EID etsId, final String host) {
+        long[] samples;
+        synchronized (this) {
+            samples = durations.get(key(etsId, host));
+            if (samples == null) {
+                final String prefix = etsId.getId() + "@";
+                samples = new long[0];
+                for (final Map.Entry<String, long[]> entry : durations.entrySet()) {
+                    if (entry.getKey().startsWith(prefix)) {
+                        final int length = samples.length;
+                        samples = Arrays.copyOf(samples, length + entry.getValue().length);
+                        System.arraycopy(entry.getValue(), 0, samples, length, entry.getValue().length);
+                    }
+                }
+            }
+        }
+        if (samples.length == 0) {
+            return -1;
+        }
+        final long[] sorted = sortedDurations(samples);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Derive the timeout from the recorded durations.
+     *
+     * @param etsId
+     *            ID of the Executable Test Suite
+     * @param host
+     *            host of the tested endpoint
+     * @param maxTimeoutMs
+     *            the upper bound, which is also returned if not enough durations have been recorded yet
+     *            or if the last run timed out
+     * @return timeout in ms
+     */
+    long timeout(final EID etsId, final String host, final long maxTimeoutMs) {
+        final long[] samples;
+        synchronized (this) {
+            samples = durations.get(key(etsId, host));
+        }
+        if (samples == null || samples.length < MIN_SAMPLES || samples[samples.length - 1] < 0) {
+            return maxTimeoutMs;
+        }
+        final long[] sorted = sortedDurations(samples);
+        final int index = Math.min(sorted.length - 1, (int) Math.ceil(PERCENTILE * sorted.length) - 1);
+        final long timeout = (long) (sorted[index] * FACTOR) + marginMs;
+        return Math.min(maxTimeoutMs, Math.max(MIN_TIMEOUT_MS, timeout));
+    }
+}
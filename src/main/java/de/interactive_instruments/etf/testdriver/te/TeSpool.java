@@ -0,0 +1,639 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Document;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * A TestNG result spooled to a temporary file and mapped into memory.
+ *
+ * Large attachments, the content of TestNG attribute elements, are not parsed
+ * into the DOM. The DOM is built from the mapped file with the content of these
+ * elements replaced by a short marker, which is resolved to a {@link Slice} of
+ * the file. The marker contains a random token of the spool, so that it can not
+ * be produced by the content of the result. A slice is read from the mapped file when the attachment is saved,
+ * so the content of large attachments is never held on the heap as a whole.
+ *
+ * Only attribute elements that contain either character data without markup
+ * or a single CDATA section are sliced. Files larger than 2 GB are not mapped
+ * and parsed completely. Results that are not UTF-8 encoded are not sliced.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeSpool implements AutoCloseable {
+
+    private static final String SLICE_MARKER = "etf-tetd-slice-";
+    private static final byte[] ATTRIBUTE_START = "<attribute".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ATTRIBUTE_END = "</attribute".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CDATA_START = "<![CDATA[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CDATA_END = "]]>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMENT_START = "<!--".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PI_START = "<?".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PI_END = "?>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] XML_DECLARATION_START = "<?xml".getBytes(StandardCharsets.US_ASCII);
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+
+    private final Path file;
+    private final long size;
+    private final MappedByteBuffer buffer;
+    private final List<Slice> slices = new ArrayList<>();
+    // marker prefix with a random token, followed by the slice index
+    private final String marker = SLICE_MARKER + UUID.randomUUID() + ':';
+    private long slicedBytes;
+
+    /**
+     * Content of an attribute element in the spool file
+     */
+    final class Slice {
+        private final int offset;
+        private final int length;
+        // character data that must be decoded, otherwise the content of a CDATA section
+        private final boolean escaped;
+
+        private Slice(final int offset, final int length, final boolean escaped) {
+            this.offset = offset;
+            this.length = length;
+            this.escaped = escaped;
+        }
+
+        /**
+         * Returns the UTF-8 encoded content, read from the mapped file
+         */
+        InputStream open() {
+            return new CharacterDataInputStream(region(offset, length), escaped);
+        }
+
+        int getLength() {
+            return length;
+        }
+    }
+
+    private TeSpool(final Path file, final int sliceThreshold) throws IOException {
+        this.file = file;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            this.buffer = size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+        }
+        if (buffer != null) {
+            findSlices(sliceThreshold);
+        }
+    }
+
+    /**
+     * Spool a response to a temporary file and map it
+     *
+     * @param response
+     *            the TestNG result
+     * @param sliceThreshold
+     *            minimum length in bytes of the content of attribute elements
+     *            that are not parsed into the DOM
+     * @return the spool, which must be closed
+     * @throws IOException
+     *             if the response can not be read or spooled
+     */
+    static TeSpool spool(final InputStream response, final int sliceThreshold) throws IOException {
+        final Path spoolFile = Files.createTempFile("etf-tetd", ".xml");
+        try {
+            Files.copy(response, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+            return new TeSpool(spoolFile, sliceThreshold);
+        } catch (final IOException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Map a spooled response, the file is deleted when the spool is closed
+     *
+     * @param spoolFile
+     *            the spooled TestNG result
+     * @param sliceThreshold
+     *            minimum length in bytes of the content of attribute elements
+     *            that are not parsed into the DOM
+     * @return the spool, which must be closed
+     * @throws IOException
+     *             if the file can not be mapped
+     */
+    static TeSpool open(final Path spoolFile, final int sliceThreshold) throws IOException {
+        return new TeSpool(spoolFile, sliceThreshold);
+    }
+
+    /**
+     * Parse the spooled result into a DOM without the content of the slices
+     */
+    Document parse(final TeXmlPool xmlPool) throws Exception {
+        if (buffer == null) {
+            return xmlPool.parse(file.toFile());
+        }
+        return xmlPool.parse(new SlicedInputStream());
+    }
+
+    /**
+     * Returns the slice of an attribute value in the DOM
+     *
+     * @param value
+     *            the value of an attribute element
+     * @return the slice or null if the value has been parsed
+     */
+    Slice slice(final String value) {
+        if (slices.isEmpty() || value == null) {
+            return null;
+        }
+        final String trimmed = value.trim();
+        if (!trimmed.startsWith(marker)) {
+            return null;
+        }
+        try {
+            final int index = Integer.parseInt(trimmed.substring(marker.length()));
+            return index >= 0 && index < slices.size() ? slices.get(index) : null;
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the complete spooled result
+     */
+    InputStream openFile() throws IOException {
+        if (buffer == null) {
+            return Files.newInputStream(file);
+        }
+        return new BufferInputStream(region(0, (int) size));
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    int getSliceCount() {
+        return slices.size();
+    }
+
+    /**
+     * Returns the number of bytes that have not been parsed into the DOM
+     */
+    long getSlicedBytes() {
+        return slicedBytes;
+    }
+
+    private ByteBuffer region(final int offset, final int length) {
+        // duplicates have their own position, slices can be read by several threads
+        final ByteBuffer region = buffer.duplicate();
+        region.limit(offset + length);
+        region.position(offset);
+        return region;
+    }
+
+    private boolean startsWith(final int position, final byte[] prefix) {
+        if (position + prefix.length > size) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(final byte[] sequence, final int from) {
+        final int last = (int) size - sequence.length;
+        for (int position = from; position <= last; position++) {
+            if (buffer.get(position) == sequence[0] && startsWith(position, sequence)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private int skipWhitespace(int position, final int end) {
+        while (position < end && isWhitespace(buffer.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Returns the position after the end of the start tag or -1 for an empty element
+     */
+    private int startTagEnd(int position) {
+        byte quote = 0;
+        for (; position < size; position++) {
+            final byte b = buffer.get(position);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return buffer.get(position - 1) == '/' ? -1 : position + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int skip(final int position, final byte[] end) {
+        final int endPosition = indexOf(end, position);
+        return endPosition == -1 ? (int) size : endPosition + end.length;
+    }
+
+    private void findSlices(final int sliceThreshold) {
+        if (sliceThreshold <= 0 || !isUtf8()) {
+            return;
+        }
+        int position = 0;
+        while (position < size) {
+            if (buffer.get(position) != '<') {
+                position++;
+            } else if (startsWith(position, CDATA_START)) {
+                position = skip(position, CDATA_END);
+            } else if (startsWith(position, COMMENT_START)) {
+                position = skip(position, COMMENT_END);
+            } else if (startsWith(position, PI_START)) {
+                position = skip(position, PI_END);
+            } else if (startsWith(position, ATTRIBUTE_START) && position + ATTRIBUTE_START.length < size
+                    && (isWhitespace(buffer.get(position + ATTRIBUTE_START.length))
+                            || buffer.get(position + ATTRIBUTE_START.length) == '>')) {
+                final int contentStart = startTagEnd(position + ATTRIBUTE_START.length);
+                position = contentStart == -1 ? position + 1 : addSlice(contentStart, sliceThreshold);
+            } else {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the XML declaration declares UTF-8 or no encoding. Slices
+     * are read as UTF-8 encoded bytes, other encodings are left to the parser.
+     */
+    private boolean isUtf8() {
+        final int start = startsWith(0, UTF8_BOM) ? UTF8_BOM.length : 0;
+        if (size <= start) {
+            return true;
+        }
+        final byte first = buffer.get(start);
+        if (first == 0 || first == (byte) 0xFE || first == (byte) 0xFF) {
+            // UTF-16 or UTF-32
+            return false;
+        }
+        if (!startsWith(start, XML_DECLARATION_START)) {
+            return true;
+        }
+        final int end = indexOf(PI_END, start);
+        if (end == -1) {
+            return false;
+        }
+        final byte[] declaration = new byte[end - start];
+        for (int i = 0; i < declaration.length; i++) {
+            declaration[i] = buffer.get(start + i);
+        }
+        final Matcher encoding = ENCODING.matcher(new String(declaration, StandardCharsets.US_ASCII));
+        return !encoding.find() || encoding.group(1).equalsIgnoreCase("UTF-8");
+    }
+
+    /**
+     * Adds the content of the attribute element as slice, if it is large enough
+     * and only contains character data or one CDATA section
+     *
+     * @return the position where the scan continues
+     */
+    private int addSlice(final int contentStart, final int sliceThreshold) {
+        final int markup = indexOf(new byte[]{'<'}, contentStart);
+        if (markup == -1) {
+            return (int) size;
+        }
+        final int start;
+        final int end;
+        final boolean escaped;
+        final int next;
+        if (startsWith(markup, CDATA_START)) {
+            if (skipWhitespace(contentStart, markup) != markup) {
+                // mixed content
+                return markup;
+            }
+            start = markup + CDATA_START.length;
+            end = indexOf(CDATA_END, start);
+            if (end == -1) {
+                return (int) size;
+            }
+            next = skipWhitespace(end + CDATA_END.length, (int) size);
+            escaped = false;
+        } else {
+            start = skipWhitespace(contentStart, markup);
+            int trimmedEnd = markup;
+            while (trimmedEnd > start && isWhitespace(buffer.get(trimmedEnd - 1))) {
+                trimmedEnd--;
+            }
+            end = trimmedEnd;
+            next = markup;
+            escaped = true;
+        }
+        if (!startsWith(next, ATTRIBUTE_END)) {
+            // followed by other markup, for instance a second CDATA section
+            return next;
+        }
+        if (end - start >= sliceThreshold) {
+            slices.add(new Slice(start, end - start, escaped));
+            slicedBytes += end - start;
+        }
+        return next + ATTRIBUTE_END.length;
+    }
+
+    /**
+     * Reads a byte buffer
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Reads UTF-8 encoded character data as the parser reports it: line ends
+     * are normalized and, outside of CDATA sections, references to the
+     * predefined entities and character references are resolved.
+     */
+    private static final class CharacterDataInputStream extends InputStream {
+        // longest reference that is resolved, "&#x10FFFF;"
+        private static final int MAX_REFERENCE_LENGTH = 10;
+        private final ByteBuffer buffer;
+        private final boolean resolveReferences;
+        private byte[] pending;
+        private int pendingPosition;
+
+        private CharacterDataInputStream(final ByteBuffer buffer, final boolean resolveReferences) {
+            this.buffer = buffer;
+            this.resolveReferences = resolveReferences;
+        }
+
+        @Override
+        public int read() {
+            if (pending != null) {
+                final int b = pending[pendingPosition++] & 0xFF;
+                if (pendingPosition == pending.length) {
+                    pending = null;
+                }
+                return b;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final byte b = buffer.get();
+            if (b == '\r') {
+                if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+                    buffer.get();
+                }
+                return '\n';
+            } else if (b == '&' && resolveReferences) {
+                return resolveReference();
+            }
+            return b & 0xFF;
+        }
+
+        /**
+         * Resolves the reference after the ampersand, an unknown reference is returned unchanged
+         */
+        private int resolveReference() {
+            final int start = buffer.position();
+            final int limit = Math.min(buffer.limit(), start + MAX_REFERENCE_LENGTH);
+            int end = start;
+            while (end < limit && buffer.get(end) != ';') {
+                end++;
+            }
+            if (end == limit) {
+                return '&';
+            }
+            final byte[] name = new byte[end - start];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = buffer.get(start + i);
+            }
+            final String reference = new String(name, StandardCharsets.US_ASCII);
+            final String resolved;
+            switch (reference) {
+            case "lt":
+                resolved = "<";
+                break;
+            case "gt":
+                resolved = ">";
+                break;
+            case "amp":
+                resolved = "&";
+                break;
+            case "quot":
+                resolved = "\"";
+                break;
+            case "apos":
+                resolved = "'";
+                break;
+            default:
+                resolved = resolveCharacterReference(reference);
+            }
+            if (resolved == null) {
+                return '&';
+            }
+            buffer.position(end + 1);
+            pending = resolved.getBytes(StandardCharsets.UTF_8);
+            pendingPosition = 0;
+            return read();
+        }
+
+        private static String resolveCharacterReference(final String reference) {
+            if (reference.length() < 2 || reference.charAt(0) != '#') {
+                return null;
+            }
+            try {
+                final int codePoint = reference.charAt(1) == 'x'
+                        ? Integer.parseInt(reference.substring(2), 16)
+                        : Integer.parseInt(reference.substring(1));
+                return new String(Character.toChars(codePoint));
+            } catch (final IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int read = 0;
+            while (read < len) {
+                final int run = pending == null ? plainRun(len - read) : 0;
+                if (run > 0) {
+                    buffer.get(b, off + read, run);
+                    read += run;
+                    continue;
+                }
+                final int next = read();
+                if (next == -1) {
+                    break;
+                }
+                b[off + read++] = (byte) next;
+            }
+            return read == 0 ? -1 : read;
+        }
+
+        /**
+         * Returns the number of the next bytes, at most max, that are copied
+         * unchanged: bytes before a carriage return or a reference
+         */
+        private int plainRun(final int max) {
+            final int start = buffer.position();
+            final int limit = Math.min(buffer.limit(), start + max);
+            int end = start;
+            while (end < limit) {
+                final byte b = buffer.get(end);
+                if (b == '\r' || (b == '&' && resolveReferences)) {
+                    break;
+                }
+                end++;
+            }
+            return end - start;
+        }
+    }
+
+    /**
+     * Reads the mapped file with the content of the slices replaced by markers
+     */
+    private final class SlicedInputStream extends InputStream {
+        private int sliceIndex;
+        private ByteBuffer current;
+
+        private SlicedInputStream() {
+            current = region(0, slices.isEmpty() ? (int) size : slices.get(0).offset);
+        }
+
+        private boolean next() {
+            if (sliceIndex >= slices.size() * 2) {
+                return false;
+            }
+            final int slice = sliceIndex / 2;
+            if (sliceIndex % 2 == 0) {
+                current = ByteBuffer.wrap((marker + slice).getBytes(StandardCharsets.US_ASCII));
+            } else {
+                final int from = slices.get(slice).offset + slices.get(slice).length;
+                final int to = slice + 1 < slices.size() ? slices.get(slice + 1).offset : (int) size;
+                current = region(from, to - from);
+            }
+            sliceIndex++;
+            return true;
+        }
+
+        @Override
+        public int read() {
+            while (!current.hasRemaining()) {
+                if (!next()) {
+                    return -1;
+                }
+            }
+            return current.get() & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            while (!current.hasRemaining()) {
+                if (!next()) {
+                    return -1;
+                }
+            }
+            final int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Deletes the spool file. The mapping is released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            // the file may still be mapped on some platforms
+            ExcUtils.suppress(e);
+            file.toFile().deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded pool of canonical instances of repeated strings.
+ *
+ * Labels and descriptions of the ETS models are repeated across ETS versions
+ * and model updates. Each parsed string is a new instance. The pool returns the
+ * first instance of an equal string, so the duplicates can be collected. The
+ * least recently used strings are evicted when the maximum number of entries or
+ * the maximum number of pooled characters is reached, strings longer than the
+ * maximum length are not pooled.
+ *
+ * Only strings that are retained in the DTOs of the ETS models are pooled. The
+ * saved memory is estimated from the sizes of the instances that have been
+ * replaced by the strings that are still pooled.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeStringPool {
+
+    // maximum length of pooled strings, longer strings are rarely repeated
+    private static final int MAX_LENGTH = 2048;
+    // maximum number of characters of all pooled strings, about 8 MB
+    private static final long MAX_CHARS = 4 * 1024 * 1024;
+
+    /**
+     * A pooled string and the number of instances it replaced
+     */
+    private static final class Entry {
+        private final String string;
+        private long replaced;
+
+        private Entry(final String string) {
+            this.string = string;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<String, Entry> strings;
+    private long chars;
+    private long lookups;
+    private long deduplicated;
+    private long savedBytes;
+
+    /**
+     * Create a pool
+     *
+     * @param maxEntries
+     *            maximum number of pooled strings, 0 to disable the pool
+     */
+    TeStringPool(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.strings = maxEntries > 0 ? new LinkedHashMap<>(16, 0.75f, true) : null;
+    }
+
+    /**
+     * Returns the canonical instance of a string
+     *
+     * @param string
+     *            the string, may be null
+     * @return the pooled instance of an equal string or the string if it is pooled now
+     */
+    String canonical(final String string) {
+        if (strings == null || string == null || string.length() > MAX_LENGTH) {
+            return string;
+        }
+        synchronized (strings) {
+            lookups++;
+            final Entry entry = strings.get(string);
+            if (entry == null) {
+                strings.put(string, new Entry(string));
+                chars += string.length();
+                evict();
+                return string;
+            }
+            if (entry.string != string) {
+                deduplicated++;
+                entry.replaced++;
+                savedBytes += estimatedSize(string);
+            }
+            return entry.string;
+        }
+    }
+
+    private void evict() {
+        final Iterator<Entry> eldest = strings.values().iterator();
+        while (strings.size() > maxEntries || chars > MAX_CHARS) {
+            final Entry entry = eldest.next();
+            chars -= entry.string.length();
+            savedBytes -= entry.replaced * estimatedSize(entry.string);
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Estimated size of a string with its character array, without compressed strings
+     */
+    private static long estimatedSize(final String string) {
+        // object header, hash and reference; array header, length and 2 bytes per char, 8 byte aligned
+        return 24 + ((16 + 2L * string.length() + 7) & ~7L);
+    }
+
+    int size() {
+        if (strings == null) {
+            return 0;
+        }
+        synchronized (strings) {
+            return strings.size();
+        }
+    }
+
+    /**
+     * Returns the number of strings that have been passed to the pool
+     */
+    long getLookups() {
+        if (strings == null) {
+            return 0;
+        }
+        synchronized (strings) {
+            return lookups;
+        }
+    }
+
+    /**
+     * Returns the number of strings that have been replaced by a pooled instance
+     */
+    long getDeduplicated() {
+        if (strings == null) {
+            return 0;
+        }
+        synchronized (strings) {
+            return deduplicated;
+        }
+    }
+
+    /**
+     * Returns the estimated size in bytes of the strings that have been replaced
+     * by the strings that are still pooled
+     */
+    long getSavedBytes() {
+        if (strings == null) {
+            return 0;
+        }
+        synchronized (strings) {
+            return savedBytes;
+        }
+    }
+
+    void clear() {
+        if (strings != null) {
+            synchronized (strings) {
+                strings.clear();
+                chars = 0;
+                savedBytes = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits the number of tasks that are executed on the TEAM Engine in parallel.
+ *
+ * If no slot is free, the waiting task with the shortest expected duration is
+ * started first. The time a task has already waited is credited against its
+ * expected duration, so that long running tasks are not starved by a steady
+ * stream of short ones.
+ *
+ * Waiting tasks block the ETF thread that executes them. Tasks that have not
+ * been started by the ETF task pool do not wait here, so the order only takes
+ * effect if there are fewer slots than threads in that pool.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeTaskScheduler {
+
+    // every ms a task waits reduces its expected duration by this factor
+    private static final long AGING_FACTOR = 10;
+
+    private final int slots;
+    private int used;
+    private final List<Ticket> waiting = new ArrayList<>();
+
+    final class Ticket implements AutoCloseable {
+        private final long expectedDuration;
+        private final long enqueued;
+        private boolean released;
+
+        private Ticket(final long expectedDuration) {
+            this.expectedDuration = expectedDuration;
+            this.enqueued = System.currentTimeMillis();
+        }
+
+        private long rank(final long now) {
+            return expectedDuration - (now - enqueued) * AGING_FACTOR;
+        }
+
+        long waitedMillis() {
+            return System.currentTimeMillis() - enqueued;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    /**
+     * Create a new scheduler
+     *
+     * @param slots
+     *            number of tasks that may run in parallel, 0 for no limit
+     */
+    TeTaskScheduler(final int slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Wait until a slot is available for a task
+     *
+     * @param expectedDuration
+     *            expected duration of the task in ms
+     * @return the ticket that must be closed after the task finished
+     * @throws InterruptedException
+     *             if the waiting thread is interrupted
+     */
+    synchronized Ticket acquire(final long expectedDuration) throws InterruptedException {
+        final Ticket ticket = new Ticket(expectedDuration);
+        if (slots <= 0) {
+            return ticket;
+        }
+        waiting.add(ticket);
+        try {
+            while (used >= slots || next() != ticket) {
+                wait();
+            }
+        } catch (final InterruptedException e) {
+            waiting.remove(ticket);
+            notifyAll();
+            throw e;
+        }
+        waiting.remove(ticket);
+        used++;
+        // another slot may still be free
+        notifyAll();
+        return ticket;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a free slot
+     *
+     * @return number of waiting tasks
+     */
+    synchronized int waitingTasks() {
+        return waiting.size();
+    }
+
+    private Ticket next() {
+        final long now = System.currentTimeMillis();
+        Ticket next = null;
+        for (final Ticket ticket : waiting) {
+            if (next == null || ticket.rank(now) < next.rank(now)) {
+                next = ticket;
+            }
+        }
+        return next;
+    }
+
+    private synchronized void release(final Ticket ticket) {
+        if (slots <= 0 || ticket.released) {
+            return;
+        }
+        ticket.released = true;
+        used--;
+        notifyAll();
+    }
+}
@@ -20,14 +20,29 @@
 package de.interactive_instruments.etf.testdriver.te;
 
 import static de.interactive_instruments.etf.EtfConstants.ETF_DATA_STORAGE_NAME;
+import static de.interactive_instruments.etf.EtfConstants.ETF_TESTDRIVERS_DIR;
 import static de.interactive_instruments.etf.testdriver.te.TeTestDriver.TE_TEST_DRIVER_EID;
 import static de.interactive_instruments.etf.testdriver.te.Types.TE_SUPPORTED_TEST_OBJECT_TYPES;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Collection;
-import java.util.Objects;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import de.interactive_instruments.CLUtils;
 import de.interactive_instruments.Credentials;
@@ -38,9 +53,11 @@ import de.interactive_instruments.etf.dal.dao.DataStorageRegistry;
 import de.interactive_instruments.etf.dal.dao.WriteDao;
 import de.interactive_instruments.etf.dal.dto.IncompleteDtoException;
 import de.interactive_instruments.etf.dal.dto.capabilities.ComponentDto;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectDto;
 import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
 import de.interactive_instruments.etf.dal.dto.result.TestTaskResultDto;
 import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
 import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.model.EidFactory;
 import de.interactive_instruments.etf.testdriver.AbstractTestDriver;
@@ -66,9 +83,76 @@ public class TeTestDriver extends AbstractTestDriver {
     public static final String TE_REMOTE_PASSWORD = "etf.testdrivers.teamengine.password";
     // timeout in seconds
     public static final String TE_TIMEOUT_SEC = "etf.testdrivers.teamengine.timeout";
+    // derive the timeout from previous run durations, bounded by TE_TIMEOUT_SEC, disabled by default
+    public static final String TE_TIMEOUT_ADAPTIVE = "etf.testdrivers.teamengine.timeout.adaptive";
+    // margin in seconds that is added to the derived timeout
+    public static final String TE_TIMEOUT_MARGIN_SEC = "etf.testdrivers.teamengine.timeout.margin";
+    // file for persisting the run durations
+    public static final String TE_STATISTICS_FILE = "etf.testdrivers.teamengine.statistics.file";
+    // maximum number of tasks executed on the TEAM Engine in parallel, 0 for no limit (default). Waiting
+    // tasks block a thread of the ETF task pool, so shorter tasks are only started first if the value is
+    // below the size of that pool. The pool size is not known to the driver, so there is no derived default.
+    public static final String TE_MAX_PARALLEL = "etf.testdrivers.teamengine.parallel";
+    // timeout in seconds for checking the service endpoint before invoking the TEAM Engine, 0 disables the check
+    // (default)
+    public static final String TE_PREFLIGHT_TIMEOUT_SEC = "etf.testdrivers.teamengine.preflight.timeout";
+    // default number of parallel TEAM Engine invocations of a batch
+    public static final String TE_BATCH_PARALLEL = "etf.testdrivers.teamengine.batch.parallel";
+    // seconds after which the Test Task DTOs of a batch without a created task are abandoned, defaults to 3600
+    public static final String TE_BATCH_EXPIRY_SEC = "etf.testdrivers.teamengine.batch.expiry";
+    // maximum number of characters of an HTML error page that are read and attached to the report
+    public static final String TE_ERROR_PAGE_LIMIT = "etf.testdrivers.teamengine.errorpage.limit";
+    // name of the TEAM Engine request parameter that selects TestNG classes, enables re-executing failed classes
+    public static final String TE_RERUN_PARAMETER = "etf.testdrivers.teamengine.rerun.parameter";
+    // test task argument with the ID of a previous test task, only its failed and skipped classes are re-executed
+    public static final String TE_RERUN_ARGUMENT = "rerunFailedOf";
+    // class name of a TeMetrics.Exporter implementation that periodically receives the metrics of the driver
+    public static final String TE_METRICS_EXPORTER = "etf.testdrivers.teamengine.metrics.exporter";
+    // metrics export interval in seconds
+    public static final String TE_METRICS_INTERVAL_SEC = "etf.testdrivers.teamengine.metrics.interval";
+    // ZIP archive to which all HTTP exchanges of the driver are recorded
+    public static final String TE_RECORD_FILE = "etf.testdrivers.teamengine.record.file";
+    // ZIP archive with recorded HTTP exchanges that are replayed instead of accessing the network
+    public static final String TE_REPLAY_FILE = "etf.testdrivers.teamengine.replay.file";
+    // replay speed relative to the recorded timing, 0 to replay without delays
+    public static final String TE_REPLAY_SPEED = "etf.testdrivers.teamengine.replay.speed";
+    // attachments of at least this size in bytes are read from the memory-mapped result, 0 to parse them
+    public static final String TE_SPOOL_MAPPED_THRESHOLD = "etf.testdrivers.teamengine.spool.mapped.threshold";
+    // maximum number of pooled label and description strings of the ETS models, 0 to disable the pool
+    public static final String TE_STRING_POOL_SIZE = "etf.testdrivers.teamengine.stringpool.size";
+    // result formats in the order of preference: testng, earl or TeResultFormat class names, separated by commas
+    public static final String TE_RESULT_FORMATS = "etf.testdrivers.teamengine.result.formats";
+    // false if the test-method durations are not needed, result formats without durations are only used then
+    public static final String TE_RESULT_DURATIONS = "etf.testdrivers.teamengine.result.durations";
+    // maximum number of threads that apply result collector calls, further tasks apply them on their own thread
+    public static final String TE_COLLECTOR_WRITERS = "etf.testdrivers.teamengine.collector.writers";
+    // number of threads that map the test modules of results in parallel, defaults to the number of processors
+    public static final String TE_MAPPERS = "etf.testdrivers.teamengine.mappers";
+    private final Logger logger = LoggerFactory.getLogger(TeTestDriver.class);
     private DataStorage dataStorageCallback;
+    private TeRunStatistics statistics;
+    private TeTaskScheduler scheduler;
+    private TeErrorPages errorPages;
+    private TeXmlPool xmlPool;
+    private TeStringPool stringPool;
+    private TeRerun rerun;
+    private TeExchanges exchanges;
+    private TeResultFormats formats;
+    private final TeMetrics metrics = new TeMetrics();
+    private ScheduledExecutorService metricsExport;
+    // advances the progress of tasks while the TEAM Engine executes the tests
+    private ScheduledExecutorService progressTimer;
+    // runs the preflight checks, so that their timeout covers the whole check
+    private ExecutorService preflightChecks;
+    private ThreadPoolExecutor collectorWriters;
+    private ThreadPoolExecutor mappers;
+    private final Map<EID, TeBatch> batchTasks = new ConcurrentHashMap<>();
+    private final List<TeBatch> batches = new CopyOnWriteArrayList<>();
+    private long batchExpiryNanos;
     private URI apiUri;
     private Credentials credentials;
+    // seconds to wait for running mappings and collector writers on release
+    private static final long RELEASE_TIMEOUT_SEC = 60;
     private static final String supportedTeamEngineVersion = CLUtils.getManifestAttributeValue(TeTestDriver.class,
             "Test-Engine-Version");
 
@@ -115,6 +199,7 @@ public class TeTestDriver extends AbstractTestDriver {
 
     @Override
     public TestTask createTestTask(final TestTaskDto testTaskDto) throws TestTaskInitializationException {
+        boolean created = false;
         try {
             Objects.requireNonNull(testTaskDto, "Test Task not set").ensureBasicValidity();
 
@@ -124,15 +209,132 @@ public class TeTestDriver extends AbstractTestDriver {
             final TestTaskResultDto testTaskResult = new TestTaskResultDto();
             testTaskResult.setId(EidFactory.getDefault().createRandomId());
             testTaskDto.setTestTaskResult(testTaskResult);
-            return new TeTestTask(
-                    (int) TimeUnit.SECONDS.toMillis(configProperties.getPropertyOrDefaultAsInt(TE_TIMEOUT_SEC, 1200)),
-                    credentials, (TeTypeLoader) typeLoader, testTaskDto);
+            final int maxTimeout = (int) TimeUnit.SECONDS.toMillis(
+                    configProperties.getPropertyOrDefaultAsInt(TE_TIMEOUT_SEC, 1200));
+            final int timeout;
+            if (Boolean.parseBoolean(configProperties.getPropertyOrDefault(TE_TIMEOUT_ADAPTIVE, "false"))) {
+                final String host = TeRunStatistics.hostOf(
+                        testTaskDto.getTestObject().getResourceByName("serviceEndpoint").toString());
+                timeout = (int) statistics.timeout(testTaskDto.getExecutableTestSuite().getId(), host, maxTimeout);
+            } else {
+                timeout = maxTimeout;
+            }
+            final int preflightTimeout = configProperties.getPropertyOrDefaultAsInt(TE_PREFLIGHT_TIMEOUT_SEC, 0);
+            final TeEndpointPreflight preflight = preflightTimeout > 0
+                    ? new TeEndpointPreflight((int) TimeUnit.SECONDS.toMillis(preflightTimeout), xmlPool, exchanges,
+                            preflightChecks)
+                    : null;
+            final int spoolThreshold = configProperties.getPropertyOrDefaultAsInt(TE_SPOOL_MAPPED_THRESHOLD, 0);
+            expireBatchTasks();
+            final TeBatch batch = batchTasks.remove(testTaskDto.getId());
+            final TeTestTask testTask = new TeTestTask(timeout, credentials, (TeTypeLoader) typeLoader, statistics,
+                    scheduler, progressTimer, collectorWriters, mappers, preflight, errorPages, xmlPool, rerun,
+                    metrics, exchanges, formats, spoolThreshold, batch, testTaskDto);
+            if (batch != null) {
+                batch.register(testTask);
+            }
+            created = true;
+            return testTask;
         } catch (IncompleteDtoException e) {
             throw new TestTaskInitializationException(e);
         } catch (InvalidPropertyException e) {
             throw new TestTaskInitializationException(e);
+        } finally {
+            if (!created && testTaskDto != null) {
+                // the batch must not wait for a task that is never run
+                final TeBatch batch = batchTasks.remove(testTaskDto.getId());
+                if (batch != null) {
+                    batch.abandon(testTaskDto.getId());
+                }
+            }
         }
+    }
 
+    /**
+     * Prepare the execution of one Executable Test Suite against multiple test objects.
+     *
+     * The returned Test Task DTOs are added to one or more Test Runs as usual. When the
+     * first of the created Test Tasks is run, the TEAM Engine is invoked for all test objects
+     * with the concurrency configured with {@link #TE_BATCH_PARALLEL}. The results are
+     * collected by each Test Task as soon as they are available.
+     *
+     * Every returned DTO should be passed to {@link #createTestTask(TestTaskDto)}. DTOs
+     * for which no task has been created within the time configured with
+     * {@link #TE_BATCH_EXPIRY_SEC} are abandoned, the batch is then released as soon as
+     * the created tasks have finished. Abandoned DTOs are run without the batch.
+     *
+     * @param executableTestSuite
+     *            the Executable Test Suite
+     * @param testObjects
+     *            the test objects
+     * @return one Test Task DTO per test object
+     * @throws TestTaskInitializationException
+     *             if the ETS or a test object is incomplete or the concurrency property is invalid
+     */
+    public List<TestTaskDto> createBatch(final ExecutableTestSuiteDto executableTestSuite,
+            final List<TestObjectDto> testObjects) throws TestTaskInitializationException {
+        try {
+            return createBatch(executableTestSuite, testObjects,
+                    configProperties.getPropertyOrDefaultAsInt(TE_BATCH_PARALLEL, 4));
+        } catch (InvalidPropertyException e) {
+            throw new TestTaskInitializationException(e);
+        }
+    }
+
+    /**
+     * Prepare the execution of one Executable Test Suite against multiple test objects.
+     *
+     * @param executableTestSuite
+     *            the Executable Test Suite
+     * @param testObjects
+     *            the test objects
+     * @param concurrency
+     *            maximum number of parallel TEAM Engine invocations
+     * @return one Test Task DTO per test object
+     * @throws TestTaskInitializationException
+     *             if the ETS or a test object is incomplete
+     * @see #createBatch(ExecutableTestSuiteDto, List)
+     */
+    public List<TestTaskDto> createBatch(final ExecutableTestSuiteDto executableTestSuite,
+            final List<TestObjectDto> testObjects, final int concurrency) throws TestTaskInitializationException {
+        try {
+            Objects.requireNonNull(executableTestSuite, "Executable Test Suite not set").ensureBasicValidity();
+            final List<TestTaskDto> testTaskDtos = new ArrayList<>(testObjects.size());
+            final Set<EID> testTaskIds = new LinkedHashSet<>();
+            for (final TestObjectDto testObject : testObjects) {
+                testObject.ensureBasicValidity();
+                final TestTaskDto testTaskDto = new TestTaskDto();
+                testTaskDto.setId(EidFactory.getDefault().createRandomId());
+                testTaskDto.setExecutableTestSuite(executableTestSuite);
+                testTaskDto.setTestObject(testObject);
+                testTaskDtos.add(testTaskDto);
+                testTaskIds.add(testTaskDto.getId());
+            }
+            expireBatchTasks();
+            batches.removeIf(TeBatch::isFinished);
+            final TeBatch batch = new TeBatch(testTaskIds, Math.max(1, concurrency));
+            batches.add(batch);
+            for (final EID testTaskId : testTaskIds) {
+                batchTasks.put(testTaskId, batch);
+            }
+            return testTaskDtos;
+        } catch (IncompleteDtoException e) {
+            throw new TestTaskInitializationException(e);
+        }
+    }
+
+    /**
+     * Abandon the Test Task DTOs of batches for which no task has been created in time
+     */
+    private void expireBatchTasks() {
+        for (final Map.Entry<EID, TeBatch> entry : batchTasks.entrySet()) {
+            final TeBatch batch = entry.getValue();
+            if (batch.isOlderThan(batchExpiryNanos) && batchTasks.remove(entry.getKey(), batch)) {
+                logger.warn("No task has been created for the batch Test Task {}, the batch no longer waits for it",
+                        entry.getKey());
+                batch.abandon(entry.getKey());
+            }
+        }
     }
 
     @Override
@@ -165,27 +367,285 @@ public class TeTestDriver extends AbstractTestDriver {
             credentials = null;
         }
 
+        try {
+            statistics = new TeRunStatistics(statisticsFile(), TimeUnit.SECONDS.toMillis(
+                    configProperties.getPropertyOrDefaultAsInt(TE_TIMEOUT_MARGIN_SEC, 120)));
+        } catch (InvalidPropertyException e) {
+            throw new ConfigurationException("Property " + TE_TIMEOUT_MARGIN_SEC + " must be a number");
+        }
+        statistics.load();
+        try {
+            final int maxParallel = configProperties.getPropertyOrDefaultAsInt(TE_MAX_PARALLEL, 0);
+            if (maxParallel > 0) {
+                logger.info("At most {} tasks are executed on the TEAM Engine in parallel, "
+                        + "further tasks wait for a free slot. Tasks are only reordered if this is less than the "
+                        + "number of threads of the ETF task pool.", maxParallel);
+            }
+            scheduler = new TeTaskScheduler(maxParallel);
+        } catch (InvalidPropertyException e) {
+            throw new ConfigurationException("Property " + TE_MAX_PARALLEL + " must be a number");
+        }
+        try {
+            batchExpiryNanos = TimeUnit.SECONDS.toNanos(
+                    configProperties.getPropertyOrDefaultAsInt(TE_BATCH_EXPIRY_SEC, 3600));
+        } catch (InvalidPropertyException e) {
+            throw new ConfigurationException("Property " + TE_BATCH_EXPIRY_SEC + " must be a number");
+        }
+        try {
+            errorPages = new TeErrorPages(configProperties.getPropertyOrDefaultAsInt(TE_ERROR_PAGE_LIMIT, 65536));
+        } catch (InvalidPropertyException e) {
+            throw new ConfigurationException("Property " + TE_ERROR_PAGE_LIMIT + " must be a number");
+        }
+        xmlPool = new TeXmlPool();
+        try {
+            stringPool = new TeStringPool(configProperties.getPropertyOrDefaultAsInt(TE_STRING_POOL_SIZE, 16384));
+        } catch (InvalidPropertyException e) {
+            throw new ConfigurationException("Property " + TE_STRING_POOL_SIZE + " must be a number");
+        }
+        metrics.setStringPool(stringPool);
+        if (configProperties.hasProperty(TE_RERUN_PARAMETER)) {
+            rerun = new TeRerun(resultsDirectory(), configProperties.getProperty(TE_RERUN_PARAMETER), 200, xmlPool);
+        } else {
+            rerun = null;
+        }
+
+        exchanges = createExchanges();
+        formats = createFormats();
+        formats.load();
+        metrics.setResultFormats(formats);
+
+        try {
+            final int writers = configProperties.getPropertyOrDefaultAsInt(TE_COLLECTOR_WRITERS,
+                    2 * Runtime.getRuntime().availableProcessors());
+            final AtomicInteger writerCounter = new AtomicInteger();
+            collectorWriters = new ThreadPoolExecutor(0, Math.max(1, writers), 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), runnable -> {
+                        final Thread thread = new Thread(runnable,
+                                "te-collector-writer-" + writerCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } catch (InvalidPropertyException e) {
+            throw new ConfigurationException("Property " + TE_COLLECTOR_WRITERS + " must be a number");
+        }
+        try {
+            final int mapperThreads = Math.max(1, configProperties.getPropertyOrDefaultAsInt(TE_MAPPERS,
+                    Runtime.getRuntime().availableProcessors()));
+            final AtomicInteger mapperCounter = new AtomicInteger();
+            // the parsing thread maps a module itself if all mappers are busy and the queue is full, or if the
+            // mappers are shut down. The CallerRunsPolicy would discard the module then and the task would wait
+            // for it forever.
+            mappers = new ThreadPoolExecutor(mapperThreads, mapperThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(2 * mapperThreads), runnable -> {
+                        final Thread thread = new Thread(runnable, "te-mapper-" + mapperCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, (runnable, executor) -> runnable.run());
+            mappers.allowCoreThreadTimeOut(true);
+        } catch (InvalidPropertyException e) {
+            throw new ConfigurationException("Property " + TE_MAPPERS + " must be a number");
+        }
+        progressTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "te-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        preflightChecks = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "te-preflight");
+            thread.setDaemon(true);
+            return thread;
+        });
+        startMetricsExport();
+
         propagateComponents();
 
-        typeLoader = new TeTypeLoader(dataStorageCallback, apiUri, credentials, this.getInfo());
+        typeLoader = new TeTypeLoader(dataStorageCallback, apiUri, credentials, exchanges, stringPool,
+                this.getInfo());
         typeLoader.getConfigurationProperties().setPropertiesFrom(configProperties, true);
     }
 
     @Override
     protected void doRelease() {
+        if (metricsExport != null) {
+            metricsExport.shutdownNow();
+            metricsExport = null;
+        }
+        if (progressTimer != null) {
+            progressTimer.shutdownNow();
+            progressTimer = null;
+        }
+        if (preflightChecks != null) {
+            preflightChecks.shutdownNow();
+            preflightChecks = null;
+        }
+        if (collectorWriters != null) {
+            collectorWriters.shutdown();
+        }
+        if (mappers != null) {
+            mappers.shutdown();
+        }
+        // running tasks finish the results they are mapping
+        awaitTermination(mappers, "mappers");
+        mappers = null;
+        awaitTermination(collectorWriters, "collector writers");
+        collectorWriters = null;
+        for (final TeBatch batch : batches) {
+            batch.release();
+        }
+        batches.clear();
+        batchTasks.clear();
+        if (xmlPool != null) {
+            xmlPool.release();
+        }
+        if (stringPool != null) {
+            logger.info("String pool replaced {} of {} strings, about {} KB saved by the pooled strings",
+                    stringPool.getDeduplicated(), stringPool.getLookups(), stringPool.getSavedBytes() / 1024);
+            stringPool.clear();
+        }
+        if (statistics != null) {
+            statistics.save();
+        }
+        if (exchanges != null) {
+            exchanges.release();
+            exchanges = null;
+        }
+    }
 
+    private void awaitTermination(final ThreadPoolExecutor executor, final String name) {
+        if (executor == null) {
+            return;
+        }
+        try {
+            if (!executor.awaitTermination(RELEASE_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                logger.warn("The {} did not finish within {} seconds", name, RELEASE_TIMEOUT_SEC);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private void propagateComponents() throws InitializationException {
-        // Propagate Component COMPONENT_INFO from here
-        final WriteDao<ComponentDto> componentDao = ((WriteDao<ComponentDto>) dataStorageCallback.getDao(ComponentDto.class));
+    /**
+     * Returns the metrics of the test runs
+     *
+     * @return metrics of the driver
+     */
+    public TeMetrics getMetrics() {
+        return metrics;
+    }
+
+    private TeExchanges createExchanges() throws ConfigurationException, InitializationException {
+        if (configProperties.hasProperty(TE_RECORD_FILE) && configProperties.hasProperty(TE_REPLAY_FILE)) {
+            throw new ConfigurationException("Only one of the properties " + TE_RECORD_FILE
+                    + " and " + TE_REPLAY_FILE + " can be set");
+        }
+        try {
+            if (configProperties.hasProperty(TE_RECORD_FILE)) {
+                return TeExchanges.record(Paths.get(configProperties.getProperty(TE_RECORD_FILE)));
+            } else if (configProperties.hasProperty(TE_REPLAY_FILE)) {
+                final double speed;
+                try {
+                    speed = Double.parseDouble(configProperties.getPropertyOrDefault(TE_REPLAY_SPEED, "1"));
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException("Property " + TE_REPLAY_SPEED + " must be a number");
+                }
+                return TeExchanges.replay(Paths.get(configProperties.getProperty(TE_REPLAY_FILE)), speed);
+            }
+        } catch (IOException e) {
+            throw new InitializationException("Could not open the exchange archive", e);
+        }
+        return TeExchanges.live();
+    }
+
+    private TeResultFormats createFormats() throws ConfigurationException {
+        final List<TeResultFormat> resultFormats = new ArrayList<>();
+        for (final String name : configProperties.getPropertyOrDefault(TE_RESULT_FORMATS, TeTestNgFormat.NAME)
+                .split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            final TeResultFormat builtIn = TeResultFormats.builtIn(name.trim());
+            if (builtIn != null) {
+                resultFormats.add(builtIn);
+                continue;
+            }
+            try {
+                resultFormats.add((TeResultFormat) Class.forName(name.trim(), true,
+                        TeTestDriver.class.getClassLoader()).newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new ConfigurationException("Property " + TE_RESULT_FORMATS
+                        + " must contain built-in format names or names of TeResultFormat implementations: " + name);
+            }
+        }
+        return new TeResultFormats(resultFormats, mismatchFile(),
+                Boolean.parseBoolean(configProperties.getPropertyOrDefault(TE_RESULT_DURATIONS, "true")));
+    }
+
+    private void startMetricsExport() throws ConfigurationException {
+        if (!configProperties.hasProperty(TE_METRICS_EXPORTER)) {
+            return;
+        }
+        final String exporterClassName = configProperties.getProperty(TE_METRICS_EXPORTER);
+        final TeMetrics.Exporter exporter;
         try {
+            exporter = (TeMetrics.Exporter) Class.forName(exporterClassName, true,
+                    TeTestDriver.class.getClassLoader()).newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new ConfigurationException("Property " + TE_METRICS_EXPORTER
+                    + " must be the name of a TeMetrics.Exporter implementation: " + exporterClassName);
+        }
+        final int interval;
+        try {
+            interval = configProperties.getPropertyOrDefaultAsInt(TE_METRICS_INTERVAL_SEC, 60);
+        } catch (InvalidPropertyException e) {
+            throw new ConfigurationException("Property " + TE_METRICS_INTERVAL_SEC + " must be a number");
+        }
+        metricsExport = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "te-metrics-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metricsExport.scheduleAtFixedRate(() -> {
             try {
-                componentDao.delete(this.getInfo().getId());
-            } catch (ObjectWithIdNotFoundException e) {
-                ExcUtils.suppress(e);
+                exporter.export(metrics.snapshot());
+            } catch (final RuntimeException e) {
+                logger.error("Exporting the TEAM Engine driver metrics failed", e);
             }
-            componentDao.add(new ComponentDto(this.getInfo()));
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private Path resultsDirectory() {
+        if (configProperties.hasProperty(ETF_TESTDRIVERS_DIR)) {
+            return Paths.get(configProperties.getProperty(ETF_TESTDRIVERS_DIR), "te-results");
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "etf-tetd-results");
+    }
+
+    private Path mismatchFile() {
+        if (configProperties.hasProperty(ETF_TESTDRIVERS_DIR)) {
+            return Paths.get(configProperties.getProperty(ETF_TESTDRIVERS_DIR),
+                    "etf-tetd-format-mismatches.properties");
+        }
+        // keep the mismatches in memory only
+        return null;
+    }
+
+    private Path statisticsFile() {
+        if (configProperties.hasProperty(TE_STATISTICS_FILE)) {
+            return Paths.get(configProperties.getProperty(TE_STATISTICS_FILE));
+        } else if (configProperties.hasProperty(ETF_TESTDRIVERS_DIR)) {
+            return Paths.get(configProperties.getProperty(ETF_TESTDRIVERS_DIR), "etf-tetd-durations.properties");
+        }
+        // keep the durations in memory only
+        return null;
+    }
+
+    private void propagateComponents() throws InitializationException {
+        // Propagate Component COMPONENT_INFO from here, if it has changed
+        final WriteDao<ComponentDto> componentDao = ((WriteDao<ComponentDto>) dataStorageCallback.getDao(ComponentDto.class));
+        try {
+            TeDtoUpsert.upsert(componentDao, new ComponentDto(this.getInfo()),
+                    component -> component.getLabel() + '\n' + component.getVersionAsStr() + '\n'
+                            + component.getDescription());
         } catch (StorageException e) {
             throw new InitializationException(e);
         }
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * TestNG results, the native format of the driver
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeTestNgFormat implements TeResultFormat {
+
+    static final String NAME = "testng";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getMediaType() {
+        return "application/xml";
+    }
+
+    @Override
+    public boolean isResult(final Element root) {
+        return "testng-results".equals(root.getNodeName());
+    }
+
+    @Override
+    public Document toTestNg(final Document result) {
+        return result;
+    }
+}
@@ -28,25 +28,31 @@ import java.io.InputStream;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.Collections;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.apache.commons.io.IOUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.select.Elements;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.slf4j.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import de.interactive_instruments.*;
 import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
+import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.model.EidFactory;
 import de.interactive_instruments.etf.testdriver.AbstractTestTask;
 import de.interactive_instruments.etf.testdriver.ExecutableTestSuiteUnavailable;
@@ -59,12 +65,40 @@ import de.interactive_instruments.exceptions.config.ConfigurationException;
  *
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
  */
-class TeTestTask extends AbstractTestTask {
+class TeTestTask extends AbstractTestTask implements TeBatch.Member {
+
+    // maximum number of collector calls that are queued while parsing the result
+    private static final int COLLECTOR_QUEUE_CAPACITY = 256;
 
     private final int timeout;
     private final Credentials credentials;
     private final TeTypeLoader typeLoader;
+    private final TeRunStatistics statistics;
+    private final TeTaskScheduler scheduler;
+    private final ScheduledExecutorService progressTimer;
+    private final Executor collectorWriters;
+    private final ThreadPoolExecutor mappers;
+    // maximum number of test modules that are mapped ahead of the collector
+    private final int maxPendingMappings;
+    private final TeEndpointPreflight preflight;
+    private final TeErrorPages errorPages;
+    private final TeXmlPool xmlPool;
+    private final TeRerun rerun;
+    private final TeMetrics metrics;
+    private final TeExchanges exchanges;
+    private final TeResultFormats formats;
+    private final int spoolThreshold;
+    private final String teHost;
+    private volatile long firstByteReceived;
+    private final TeBatch batch;
     private final String etsSpecificPrefix;
+    private TeEtsIndex etsIndex;
+    // the mapped result, if attachments are read from the spool file
+    private TeSpool spool;
+    // format, size and transfer time of a negotiated result, recorded with the number of mapped test-methods
+    private TeResultFormat resultFormat;
+    private long resultBytes;
+    private long resultMillis;
 
     /**
      * Default constructor.
@@ -73,33 +107,55 @@ class TeTestTask extends AbstractTestTask {
      *             I/O error
      */
     public TeTestTask(final int timeout, final Credentials credentials, final TeTypeLoader typeLoader,
+            final TeRunStatistics statistics, final TeTaskScheduler scheduler,
+            final ScheduledExecutorService progressTimer, final Executor collectorWriters,
+            final ThreadPoolExecutor mappers, final TeEndpointPreflight preflight, final TeErrorPages errorPages,
+            final TeXmlPool xmlPool, final TeRerun rerun, final TeMetrics metrics, final TeExchanges exchanges,
+            final TeResultFormats formats, final int spoolThreshold, final TeBatch batch,
             final TestTaskDto testTaskDto) {
-        super(testTaskDto, new TeTestTaskProgress(), TeTestTask.class.getClassLoader());
+        super(testTaskDto, createProgress(statistics, testTaskDto), TeTestTask.class.getClassLoader());
         this.timeout = timeout;
         this.credentials = credentials;
         this.typeLoader = typeLoader;
+        this.statistics = statistics;
+        this.scheduler = scheduler;
+        this.progressTimer = progressTimer;
+        this.collectorWriters = collectorWriters;
+        this.mappers = mappers;
+        this.maxPendingMappings = 2 * mappers.getMaximumPoolSize();
+        this.preflight = preflight;
+        this.errorPages = errorPages;
+        this.xmlPool = xmlPool;
+        this.rerun = rerun;
+        this.metrics = metrics;
+        this.exchanges = exchanges;
+        this.formats = formats;
+        this.spoolThreshold = spoolThreshold;
+        this.teHost = TeRunStatistics.hostOf(testTaskDto.getExecutableTestSuite().getRemoteResource().toString());
+        this.batch = batch;
         etsSpecificPrefix = testTaskDto.getExecutableTestSuite().getId().getId() +
                 testTaskDto.getExecutableTestSuite().getLabel();
     }
 
-    @Override
-    protected void doRun() throws Exception {
-        final DocumentBuilderFactory domFactory = XmlUtils.newDocumentBuilderFactoryInstance();
-        domFactory.setNamespaceAware(true);
-        final DocumentBuilder builder = domFactory.newDocumentBuilder();
+    private static TeTestTaskProgress createProgress(final TeRunStatistics statistics, final TestTaskDto testTaskDto) {
+        // the number of test-methods is known after the first run
+        return new TeTestTaskProgress(testTaskDto.getExecutableTestSuite().getLowestLevelItemSize(),
+                statistics.expectedDuration(testTaskDto.getExecutableTestSuite().getId(),
+                        TeRunStatistics.hostOf(testTaskDto.getTestObject().getResourceByName("serviceEndpoint").toString())));
+    }
 
-        final String endpoint = this.testTaskDto.getTestObject().getResourceByName(
-                "serviceEndpoint").toString();
+    private String endpoint() {
+        return this.testTaskDto.getTestObject().getResourceByName("serviceEndpoint").toString();
+    }
 
+    private URI apiUri(final String endpoint, final String additionalQuery) throws URISyntaxException {
         // TEAM engine can not escape characters other than '&' in the parameter values...
         // Try to build an URI without escaping other characters.
-        URI apiUri;
-        String wfsUrl;
         try {
-            wfsUrl = UriUtils.ensureUrlEncodedOnce(endpoint);
+            final String wfsUrl = UriUtils.ensureUrlEncodedOnce(endpoint);
             final String apiUrl = testTaskDto.getExecutableTestSuite().getRemoteResource().toString() +
                     "run?wfs=" + wfsUrl;
-            apiUri = new URI(apiUrl);
+            return new URI(additionalQuery != null ? apiUrl + additionalQuery : apiUrl);
         } catch (URISyntaxException syntaxException) {
             // great, try again with an escaped URL. Maybe this is supported in future TE versions...
             final String apiUriFallback = UriUtils.withQueryParameters(
@@ -108,62 +164,249 @@ class TeTestTask extends AbstractTestTask {
             getLogger().error("Team Engine does not support full escaping of URLs. "
                     + "The invocation of the following URL might fail with HTTP error code 404: {} .",
                     apiUriFallback);
-            wfsUrl = endpoint;
-            apiUri = new URI(apiUriFallback);
+            return new URI(additionalQuery != null ? apiUriFallback + additionalQuery : apiUriFallback);
         }
+    }
 
-        getLogger().info("Invoking TEAM Engine remotely. This may take a while. "
-                + "Progress messages are not supported.");
-        final String timeoutStr = TimeUtils.milisAsMinsSeconds(timeout);
-        getLogger().info("Timeout is set to: " + timeoutStr);
-        ((TeTestTaskProgress) progress).stepCompleted();
+    private void checkEndpoint(final Logger logger, final String endpoint)
+            throws TeEndpointPreflight.PreflightException {
+        if (preflight != null) {
+            logger.info("Checking service endpoint...");
+            try {
+                preflight.check(endpoint);
+                logger.info("...[OK]");
+            } catch (final TeEndpointPreflight.PreflightException e) {
+                logger.info("...[FAILED]. {}", e.getMessage());
+                throw e;
+            }
+        }
+    }
 
-        final Document result;
+    private interface ResponseHandler<T> {
+        T handle(final InputStream response) throws Exception;
+    }
+
+    /**
+     * Invoke the TEAM Engine as soon as a slot is available and pass the response to the handler
+     */
+    private <T> T invokeRemote(final Logger logger, final String endpoint, final String additionalQuery,
+            final String mediaType, final ResponseHandler<T> handler) throws Exception {
+        final URI apiUri = apiUri(endpoint, additionalQuery);
+        final TeTestTaskProgress teProgress = (TeTestTaskProgress) progress;
+        final long expectedDuration = teProgress.getExpectedDuration();
+        if (scheduler.waitingTasks() > 0) {
+            logger.info("Waiting for a free TEAM Engine slot. {} other tasks are queued.",
+                    scheduler.waitingTasks());
+        }
+        final TeTaskScheduler.Ticket ticket = scheduler.acquire(expectedDuration >= 0 ? expectedDuration : timeout);
         try {
-            // application/xml = TestNG
-            result = builder.parse(UriUtils.openStream(apiUri, credentials, timeout, "application/xml"));
-        } catch (UriUtils.ConnectionException e) {
-            getLogger().info("OGC TEAM Engine returned an error.");
+            record(TeMetrics.Phase.QUEUE, ticket.waitedMillis());
+            if (ticket.waitedMillis() > 1000) {
+                logger.info("Waited {} for a free TEAM Engine slot.",
+                        TimeUtils.milisAsMinsSeconds(ticket.waitedMillis()));
+            }
+            logger.info("Invoking TEAM Engine remotely. This may take a while.");
+            if (expectedDuration >= 0) {
+                logger.info("Based on previous runs, the TEAM Engine is expected to need about {}.",
+                        TimeUtils.milisAsMinsSeconds(expectedDuration));
+            }
+            logger.info("Timeout is set to: " + TimeUtils.milisAsMinsSeconds(timeout));
+            teProgress.invocationStarted();
+            final ScheduledFuture<?> progressTicks = expectedDuration > 0
+                    ? progressTimer.scheduleAtFixedRate(teProgress::tick, 1, 1, TimeUnit.SECONDS)
+                    : null;
+            final long invocationStart = System.currentTimeMillis();
+            firstByteReceived = 0;
+            final long bytesBefore = teProgress.getBytesReceived();
+            final TeFlightRecorder.Span invocationEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.INVOCATION);
+            // -1 if the TEAM Engine did not respond
+            int status = -1;
+            String error = null;
+
+            try (final ResponseStream response = new ResponseStream(
+                    exchanges.openStream(apiUri, credentials, timeout, mediaType, errorPages.getMaxChars()),
+                    invocationStart)) {
+                // the stream is only opened if the TEAM Engine responded with success
+                status = 200;
+                final T handled = handler.handle(response);
+                if (response.firstByte != 0) {
+                    record(TeMetrics.Phase.TRANSFER, response.lastByte - response.firstByte);
+                }
+                return handled;
+            } catch (final Exception e) {
+                if (e instanceof TeExchanges.StatusException) {
+                    status = ((TeExchanges.StatusException) e).getResponseCode();
+                }
+                error = e.getClass().getSimpleName() + ": " + e.getMessage();
+                throw e;
+            } finally {
+                if (progressTicks != null) {
+                    progressTicks.cancel(false);
+                }
+                teProgress.invocationFinished();
+                invocationEvent.commit(testTaskDto.getId().getId(), teHost, status,
+                        teProgress.getBytesReceived() - bytesBefore, error);
+            }
+        } finally {
+            ticket.close();
+        }
+    }
+
+    /**
+     * The response of the TEAM Engine, records the received bytes and the time
+     * spent waiting for them
+     */
+    private final class ResponseStream extends ProxyInputStream {
+        private final long invocationStart;
+        private long firstByte;
+        private long lastByte;
+        private long readStart;
+        private long readNanos;
+
+        private ResponseStream(final InputStream response, final long invocationStart) {
+            super(response);
+            this.invocationStart = invocationStart;
+        }
+
+        @Override
+        protected void beforeRead(final int n) {
+            readStart = System.nanoTime();
+        }
+
+        @Override
+        protected void afterRead(final int n) {
+            readNanos += System.nanoTime() - readStart;
+            if (n > 0) {
+                lastByte = System.currentTimeMillis();
+                if (firstByte == 0) {
+                    firstByte = lastByte;
+                    firstByteReceived = firstByte;
+                    record(TeMetrics.Phase.REMOTE, firstByte - invocationStart);
+                }
+                ((TeTestTaskProgress) progress).bytesReceived(n);
+            }
+        }
+    }
+
+    /**
+     * Check the endpoint, invoke the TEAM Engine and spool the response to a
+     * temporary file. Called by the batch that this task belongs to.
+     *
+     * @return the spooled TestNG result
+     * @throws Exception
+     *             if the preflight check or the invocation failed
+     */
+    @Override
+    public Path fetchResult() throws Exception {
+        final String endpoint = endpoint();
+        final Logger logger = batch.getLogger();
+        checkEndpoint(logger, endpoint);
+        logger.info("Invoking TEAM Engine for test task {} of a batch execution.", testTaskDto.getId());
+        return invokeRemote(logger, endpoint, null, formats.testNg().getMediaType(), response -> {
+            final Path spoolFile = Files.createTempFile("etf-tetd", ".xml");
+            try {
+                Files.copy(response, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final IOException e) {
+                Files.deleteIfExists(spoolFile);
+                throw e;
+            }
+            return spoolFile;
+        });
+    }
+
+    @Override
+    protected void doRun() throws Exception {
+        metrics.taskStarted(teHost);
+        metrics.addTaskProgress(testTaskDto.getId().getId(), (TeTestTaskProgress) progress);
+        try {
+            runTask();
+        } finally {
+            metrics.removeTaskProgress(testTaskDto.getId().getId());
+            if (spool != null) {
+                spool.close();
+                spool = null;
+            }
+            metrics.taskFinished(teHost);
+            if (batch != null) {
+                batch.finished(this);
+            }
+        }
+    }
+
+    private void runTask() throws Exception {
+        final String endpoint = endpoint();
+        final TeTestTaskProgress teProgress = (TeTestTaskProgress) progress;
 
-            final String htmlErrorMessage = e.getErrorMessage();
-            String errorMessage = null;
-            if (htmlErrorMessage != null) {
-                try {
-                    final org.jsoup.nodes.Document doc = Jsoup.parse(htmlErrorMessage);
-                    if (doc != null) {
-                        final Elements errors = doc.select("body p");
-                        if (errors != null) {
-                            final StringBuilder errorMessageBuilder = new StringBuilder();
-                            for (final org.jsoup.nodes.Element error : errors) {
-                                errorMessageBuilder.append(error.text()).append(SUtils.ENDL);
-                            }
-                            errorMessage = errorMessageBuilder.toString();
-                        }
+        final Document result;
+        TeRerun.Selection rerunSelection = null;
+        try {
+            if (batch != null) {
+                if (rerunArgument() != null) {
+                    getLogger().info("Failed classes are not re-executed in batch executions, "
+                            + "the whole test suite is executed.");
+                }
+                getLogger().info("Waiting for the TEAM Engine results of the batch execution.");
+                final Path spoolFile = batch.awaitResult(this);
+                final TeFlightRecorder.Span parseEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.PARSE);
+                if (spoolThreshold > 0) {
+                    // the spool file is deleted when the task is finished
+                    spool = TeSpool.open(spoolFile, spoolThreshold);
+                    final long parseStart = System.nanoTime();
+                    result = spool.parse(xmlPool);
+                    recordParse(System.nanoTime() - parseStart);
+                } else {
+                    try {
+                        final long parseStart = System.nanoTime();
+                        result = xmlPool.parse(spoolFile.toFile());
+                        recordParse(System.nanoTime() - parseStart);
+                    } finally {
+                        Files.deleteIfExists(spoolFile);
                     }
-                } catch (Exception ign) {
-                    ExcUtils.suppress(ign);
+                }
+                parseEvent.commit(testTaskDto.getId().getId(), true);
+            } else {
+                checkEndpoint(getLogger(), endpoint);
+                rerunSelection = selectRerun(endpoint);
+                if (rerunSelection != null) {
+                    getLogger().info("Re-executing {} test classes that failed or were skipped in test task {}. "
+                            + "The results of the other classes are copied from that run, they are not re-executed.",
+                            rerunSelection.getClassNames().size(), rerunArgument());
+                    result = TeRerun.merge(rerunSelection, invokeRemote(getLogger(), endpoint,
+                            rerunSelection.getQuery(), formats.testNg().getMediaType(), this::parse));
+                } else {
+                    result = invokeNegotiated(endpoint);
                 }
             }
-            if (errorMessage != null) {
-                getLogger().error("Error message: {}", errorMessage);
+        } catch (final TeEndpointPreflight.PreflightException e) {
+            reportError("Preflight check of the service endpoint failed. " + e.getMessage(), null, null);
+            throw e;
+        } catch (final TeExchanges.StatusException e) {
+            getLogger().info("OGC TEAM Engine returned an error.");
+
+            final TeErrorPages.ErrorPage errorPage = errorPages.capture(e.getErrorPage(), testTaskDto.getId().getId());
+            if (errorPage != null) {
+                getLogger().error("Error message: {}", errorPage.getMessage());
+                final String repetition = errorPage.isExcerpt()
+                        ? " The same error page has been returned " + errorPage.getOccurrences()
+                                + " times recently. It is attached to the report of test task "
+                                + errorPage.getFirstTaskId() + ", this report contains an excerpt."
+                        : "";
                 reportError(
                         "OGC TEAM Engine returned HTTP status code: "
-                                + String.valueOf(e.getResponseMessage()
-                                        + ". Message: " + errorMessage),
-                        htmlErrorMessage.getBytes(),
-                        "text/html");
+                                + e.getResponseMessage() + ". Message: " + errorPage.getMessage() + repetition,
+                        errorPage.getContent(), "text/html");
             } else {
                 getLogger().error("Response message: " + e.getResponseMessage());
-                reportError(
-                        "OGC TEAM Engine returned an error: " +
-                                String.valueOf(e.getResponseMessage()),
-                        null, null);
+                reportError("OGC TEAM Engine returned an error: " + e.getResponseMessage(), null, null);
             }
             throw e;
         } catch (final SocketTimeoutException e) {
             getLogger().info("The OGC TEAM Engine is taking too long to respond.");
+            // the next run gets the maximum timeout
+            statistics.recordTimeout(testTaskDto.getExecutableTestSuite().getId(),
+                    TeRunStatistics.hostOf(endpoint), timeout);
             getLogger().info("Checking availability...");
-            if (UriUtils.exists(new URI(
+            if (exchanges.exists(new URI(
                     testTaskDto.getExecutableTestSuite().getRemoteResource().toString()), credentials)) {
                 getLogger().info("...[OK]. The OGC TEAM Engine is available. "
                         + "You may need to ask the system administrator to "
@@ -174,20 +417,196 @@ class TeTestTask extends AbstractTestTask {
             }
             reportError(
                     "OGC TEAM Engine is taking too long to respond. "
-                            + "Timeout after " + timeoutStr + ".",
+                            + "Timeout after " + TimeUtils.milisAsMinsSeconds(timeout) + ".",
                     null, null);
             throw e;
         }
 
-        getLogger().info("Results received.");
-        ((TeTestTaskProgress) progress).stepCompleted();
+        getLogger().info("Results received ({} KB).", teProgress.getBytesReceived() / 1024);
+        metrics.count(TeMetrics.Counter.BYTES_RECEIVED, testTaskDto.getExecutableTestSuite().getId(), teHost,
+                teProgress.getBytesReceived());
+        teProgress.stepCompleted();
+        if (rerunSelection == null) {
+            // the duration of a partial run is not representative
+            recordDuration(result, endpoint);
+        }
+        if (spool != null) {
+            getLogger().info("{} attachments ({} KB) are read from the spooled result.",
+                    spool.getSliceCount(), spool.getSlicedBytes() / 1024);
+        }
+        if (rerun != null && rerunSelection == null) {
+            // only full runs are kept, a merged result would copy results of older runs
+            final TeRerun.Key key = rerunKey(endpoint, TeTypeLoader.structureHash(
+                    XmlUtils.getFirstChildNodeOfType(result.getDocumentElement(), ELEMENT_NODE, "suite")));
+            if (spool != null) {
+                rerun.store(testTaskDto.getId().getId(), key, spool);
+            } else {
+                rerun.store(testTaskDto.getId().getId(), key, result);
+            }
+        }
+
+        // ETS model updates are shared by all tasks of a batch
+        if (batch == null || batch.claimEtsUpdate()) {
+            final long updateStart = System.currentTimeMillis();
+            final TeFlightRecorder.Span updateEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.ETS_UPDATE);
+            final boolean updated = typeLoader.updateEtsFromResult(testTaskDto.getExecutableTestSuite(), result);
+            updateEvent.commit(testTaskDto.getId().getId(), testTaskDto.getExecutableTestSuite().getId().getId(), updated);
+            if (updated) {
+                getLogger().info("Internal ETS model updated.");
+            }
+            record(TeMetrics.Phase.ETS_UPDATE, System.currentTimeMillis() - updateStart);
+        }
+
+        final long mapStart = System.currentTimeMillis();
+        final long testMethods = parseTestNgResult(result);
+        record(TeMetrics.Phase.MAP, System.currentTimeMillis() - mapStart);
+        if (resultFormat != null) {
+            formats.record(teHost, resultFormat, resultBytes, resultMillis, testMethods);
+        }
+        teProgress.stepCompleted();
+    }
+
+    /**
+     * Returns the ID of the test task whose failed classes are re-executed or null for a full run
+     */
+    private String rerunArgument() {
+        if (testTaskDto.getArguments() == null) {
+            return null;
+        }
+        final String previousTaskId = testTaskDto.getArguments().values().get(TeTestDriver.TE_RERUN_ARGUMENT);
+        return SUtils.isNullOrEmpty(previousTaskId) ? null : previousTaskId.trim();
+    }
+
+    private TeRerun.Key rerunKey(final String endpoint, final String structure) {
+        final ExecutableTestSuiteDto ets = testTaskDto.getExecutableTestSuite();
+        return new TeRerun.Key(ets.getId(), ets.getVersionAsStr(), structure, endpoint);
+    }
+
+    private TeRerun.Selection selectRerun(final String endpoint) {
+        final String previousTaskId = rerunArgument();
+        if (previousTaskId == null) {
+            return null;
+        }
+        if (rerun == null) {
+            getLogger().info("Re-executing failed classes is not configured, the whole test suite is executed.");
+            return null;
+        }
+        return rerun.select(getLogger(), previousTaskId,
+                rerunKey(endpoint, typeLoader.getStructureHash(testTaskDto.getExecutableTestSuite())));
+    }
 
-        if (typeLoader.updateEtsFromResult(testTaskDto.getExecutableTestSuite(), result)) {
-            getLogger().info("Internal ETS model updated.");
+    /**
+     * Invoke the TEAM Engine with the negotiated result format and convert the
+     * result to TestNG
+     */
+    private Document invokeNegotiated(final String endpoint) throws Exception {
+        final EID etsId = testTaskDto.getExecutableTestSuite().getId();
+        final TeEtsIndex index = typeLoader.getEtsIndex(etsId);
+        final TeResultFormat format = formats.select(teHost, etsId, index != null);
+        if (format == formats.testNg()) {
+            return invokeTestNg(endpoint);
+        }
+        final TeTestTaskProgress teProgress = (TeTestTaskProgress) progress;
+        final long bytesBefore = teProgress.getBytesReceived();
+        final Document response;
+        try {
+            response = invokeRemote(getLogger(), endpoint, null, format.getMediaType(), this::parse);
+        } catch (final TeExchanges.StatusException e) {
+            if (e.getResponseCode() != 406) {
+                throw e;
+            }
+            // not acceptable, the request has been rejected before the test suite was executed
+            formats.unsupported(teHost, format);
+            return invokeTestNg(endpoint);
+        }
+        final TeResultFormat received = formats.detect(response.getDocumentElement());
+        if (received != format) {
+            formats.unsupported(teHost, format);
+        }
+        if (received == null) {
+            throw new ParseException("Unknown result format " + response.getDocumentElement().getNodeName(),
+                    response.getDocumentURI(), 0);
+        }
+        final Document result = received.toTestNg(response);
+        if (received != formats.testNg() && !TeResultFormats.align(result, index)) {
+            // the service has been tested, another invocation would test it a second time
+            formats.mismatch(teHost, etsId, received);
+            getLogger().warn("The {} result of the OGC TEAM Engine does not match the ETS model, it is used as "
+                    + "received. The next test runs request TestNG results.", received.getName());
         }
+        observeFormat(received, teProgress.getBytesReceived() - bytesBefore);
+        getLogger().info("Result received in the {} format.", received.getName());
+        return result;
+    }
+
+    private Document invokeTestNg(final String endpoint) throws Exception {
+        final TeTestTaskProgress teProgress = (TeTestTaskProgress) progress;
+        final long bytesBefore = teProgress.getBytesReceived();
+        final Document result = invokeRemote(getLogger(), endpoint, null, formats.testNg().getMediaType(),
+                spoolThreshold > 0 ? this::spoolAndParse : this::parse);
+        observeFormat(formats.testNg(), teProgress.getBytesReceived() - bytesBefore);
+        return result;
+    }
+
+    private void observeFormat(final TeResultFormat format, final long bytes) {
+        resultFormat = format;
+        resultBytes = bytes;
+        resultMillis = System.currentTimeMillis() - firstByteReceived;
+    }
 
-        parseTestNgResult(result);
-        ((TeTestTaskProgress) progress).stepCompleted();
+    /**
+     * Parse the result while it is received, the time spent waiting for the
+     * response is not part of the parse time
+     */
+    private Document parse(final InputStream response) throws Exception {
+        final TeFlightRecorder.Span parseEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.PARSE);
+        final long readBefore = readNanos(response);
+        final long parseStart = System.nanoTime();
+        final Document document = xmlPool.parse(response);
+        recordParse(System.nanoTime() - parseStart - (readNanos(response) - readBefore));
+        parseEvent.commit(testTaskDto.getId().getId(), false);
+        return document;
+    }
+
+    /**
+     * Spool the result to a mapped file and parse it without large attachments
+     */
+    private Document spoolAndParse(final InputStream response) throws Exception {
+        spool = TeSpool.spool(response, spoolThreshold);
+        final TeFlightRecorder.Span parseEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.PARSE);
+        final long parseStart = System.nanoTime();
+        final Document document = spool.parse(xmlPool);
+        recordParse(System.nanoTime() - parseStart);
+        parseEvent.commit(testTaskDto.getId().getId(), true);
+        return document;
+    }
+
+    private static long readNanos(final InputStream response) {
+        return response instanceof ResponseStream ? ((ResponseStream) response).readNanos : 0;
+    }
+
+    private void recordParse(final long nanos) {
+        record(TeMetrics.Phase.PARSE, TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos)));
+    }
+
+    private void record(final TeMetrics.Phase phase, final long millis) {
+        metrics.record(phase, testTaskDto.getExecutableTestSuite().getId(), teHost, millis);
+    }
+
+    private void recordDuration(final Document document, final String endpoint) {
+        final Node suiteResult = XmlUtils.getFirstChildNodeOfType(document.getDocumentElement(), ELEMENT_NODE, "suite");
+        if (suiteResult == null) {
+            return;
+        }
+        final String duration = XmlUtils.getAttributeOrDefault(suiteResult, "duration-ms", null);
+        if (duration != null) {
+            try {
+                statistics.record(testTaskDto.getExecutableTestSuite().getId(),
+                        TeRunStatistics.hostOf(endpoint), Long.parseLong(duration));
+            } catch (final NumberFormatException e) {
+                getLogger().warn("Ignoring invalid suite duration: {}", duration);
+            }
+        }
     }
 
     private void reportError(final String errorMesg, final byte[] data, final String mimeType)
@@ -195,7 +614,12 @@ class TeTestTask extends AbstractTestTask {
         getCollector().internalError(errorMesg, data, mimeType);
     }
 
-    private void parseTestNgResult(final Document document) throws Exception {
+    /**
+     * Map the result to the collector
+     *
+     * @return the number of mapped test-methods
+     */
+    private long parseTestNgResult(final Document document) throws Exception {
         getLogger().info("Transforming results.");
         final Element result = document.getDocumentElement();
         if (!"testng-results".equals(result.getNodeName())) {
@@ -209,114 +633,121 @@ class TeTestTask extends AbstractTestTask {
                 Integer.valueOf(passedAssertions + Integer.valueOf(failedAssertions)));
 
         final TestResultCollector resultCollector = getCollector();
+        etsIndex = typeLoader.getEtsIndex(testTaskDto.getExecutableTestSuite().getId());
 
         final Node suiteResult = XmlUtils.getFirstChildNodeOfType(result, ELEMENT_NODE, "suite");
-        resultCollector.startTestTask(testTaskDto.getExecutableTestSuite().getId().getId(), getStartTimestamp(suiteResult));
-
-        // Save result document as attachment
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        final Source xmlSource = new DOMSource(document);
-        final Result outputTarget = new StreamResult(outputStream);
-        TransformerFactory.newInstance().newTransformer().transform(xmlSource, outputTarget);
-        final InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
-        resultCollector.saveAttachment(inputStream, "TEAM Engine result", "text/xml", "TestNgResultXml");
-
-        // Test Modules
-        for (Node testModule = XmlUtils.getFirstChildNodeOfType(suiteResult, ELEMENT_NODE,
-                "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
-            final String testModuleId = getItemID(testModule);
-            resultCollector.startTestModule(testModuleId, getStartTimestamp(testModule));
-
-            // Test Cases
-            for (Node testCase = XmlUtils.getFirstChildNodeOfType(testModule, ELEMENT_NODE,
-                    "class"); testCase != null; testCase = XmlUtils.getNextSiblingOfType(testCase, ELEMENT_NODE, "class")) {
-                final String testCaseId = getItemID(testCase);
-
-                // Get start timestamp from first test step
-                final Node firstTestStep = XmlUtils.getFirstChildNodeOfType(testCase, ELEMENT_NODE, "test-method");
-                if (firstTestStep != null) {
-                    resultCollector.startTestCase(testCaseId, getStartTimestamp(firstTestStep));
-                } else {
-                    resultCollector.startTestCase(testCaseId);
+        final String taskId = testTaskDto.getId().getId();
+        final TeFlightRecorder.Span mapEvent = TeFlightRecorder.begin(TeFlightRecorder.EventType.MAP);
+        int testModules = 0;
+        long testMethods = 0;
+        try (final TeCollectorWriter writer = new TeCollectorWriter(resultCollector, COLLECTOR_QUEUE_CAPACITY,
+                collectorWriters)) {
+            final String etsId = testTaskDto.getExecutableTestSuite().getId().getId();
+            final long suiteStartTimestamp = getStartTimestamp(suiteResult);
+            writer.submit(c -> c.startTestTask(etsId, suiteStartTimestamp));
+
+            // Save result document as attachment
+            final TeSpool resultSpool = spool;
+            final byte[] resultBytes;
+            if (resultSpool != null) {
+                // the DOM lacks the sliced attachments, the spooled result is streamed instead
+                resultBytes = null;
+            } else {
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                xmlPool.serialize(document, outputStream);
+                resultBytes = outputStream.toByteArray();
+            }
+            writer.submit(c -> {
+                final TeFlightRecorder.Span attachmentEvent = TeFlightRecorder
+                        .begin(TeFlightRecorder.EventType.ATTACHMENT);
+                try (final InputStream resultStream = resultSpool != null ? resultSpool.openFile()
+                        : new ByteArrayInputStream(resultBytes)) {
+                    c.saveAttachment(resultStream, "TEAM Engine result", "text/xml", "TestNgResultXml");
                 }
-                long testCaseEndTimeStamp = 0;
-                boolean testStepResultCollected = false;
-                boolean oneSkippedOrNotApplicableConfigStepRecorded = false;
-
-                // Test Steps (no Test Assertions are used)
-                for (Node testStep = firstTestStep; testStep != null; testStep = XmlUtils.getNextSiblingOfType(testStep,
-                        ELEMENT_NODE, "test-method")) {
-
-                    final long testStepEndTimestamp = getEndTimestamp(testStep);
-                    if (testCaseEndTimeStamp < testStepEndTimestamp) {
-                        testCaseEndTimeStamp = testStepEndTimestamp;
+                attachmentEvent.commit(taskId, "TEAM Engine result", "TestNgResultXml", "text/xml");
+            });
+
+            // Test Modules, extracted and mapped in parallel and committed in document order
+            final String suiteName = XmlUtils.getAttribute(suiteResult, "name");
+            final TeSpool moduleSpool = spool;
+            final Deque<Future<ModuleMapping>> mappings = new ArrayDeque<>();
+            try {
+                for (Node testModule = XmlUtils.getFirstChildNodeOfType(suiteResult, ELEMENT_NODE,
+                        "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE,
+                                "test")) {
+                    if (xmlPool.isConcurrentlyReadable()) {
+                        final Node module = testModule;
+                        mappings.add(mappers.submit(() -> map(
+                                TeModuleResult.extract(suiteName, module, moduleSpool), taskId)));
+                    } else {
+                        // a deferred DOM is only read by this thread
+                        final TeModuleResult moduleResult = TeModuleResult.extract(suiteName, testModule, spool);
+                        mappings.add(mappers.submit(() -> map(moduleResult, taskId)));
                     }
-
-                    final int status = mapStatus(testStep);
-                    final boolean configStep = "true".equals(XmlUtils.getAttributeOrDefault(testStep, "is-config", "false"));
-
-                    // output only failed steps or only one skipped or not applicable config test step
-                    if (!configStep || status == 1
-                            || (!oneSkippedOrNotApplicableConfigStepRecorded && status == 2 || status == 3)) {
-                        final long testStepStartTimestamp = getStartTimestamp(testStep);
-                        final String testStepId = getItemID(testStep);
-                        resultCollector.startTestStep(testStepId, testStepStartTimestamp);
-
-                        final String message = getMessage(testStep);
-                        if (!SUtils.isNullOrEmpty(message)) {
-                            resultCollector.addMessage("TR.teamEngineError", "error", message);
-                        }
-
-                        // Attachments
-                        for (Node attachments = XmlUtils.getFirstChildNodeOfType(testStep, ELEMENT_NODE,
-                                "attributes"); attachments != null; attachments = XmlUtils.getNextSiblingOfType(attachments,
-                                        ELEMENT_NODE, "attributes")) {
-                            for (Node attachment = XmlUtils.getFirstChildNodeOfType(attachments, ELEMENT_NODE,
-                                    "attribute"); attachment != null; attachment = XmlUtils.getNextSiblingOfType(attachment,
-                                            ELEMENT_NODE, "attribute")) {
-                                final String type = XmlUtils.getAttribute(attachment, "name");
-                                switch (type) {
-                                case "response":
-                                    final String response = XmlUtils.nodeValue(attachment);
-                                    resultCollector.saveAttachment(IOUtils.toInputStream(
-                                            response, "UTF-8"), "Service Response",
-                                            XmlUtils.isWellFormed(response) ? "text/xml" : null,
-                                            "ServiceResponse");
-                                    break;
-                                case "request":
-                                    final String request = XmlUtils.nodeValue(attachment);
-                                    if (XmlUtils.isWellFormed(request)) {
-                                        resultCollector.saveAttachment(IOUtils.toInputStream(
-                                                XmlUtils.nodeValue(attachment), "UTF-8"), "Request Parameter", "text/xml",
-                                                "PostData");
-                                    } else {
-                                        resultCollector.saveAttachment(XmlUtils.nodeValue(attachment), "Request Parameter",
-                                                "text/plain",
-                                                "GetParameter");
-                                    }
-                                    break;
-                                default:
-                                    resultCollector.saveAttachment(XmlUtils.nodeValue(attachment), type, null, type);
-                                }
-                            }
-                        }
-                        resultCollector.end(testStepId, status, testStepEndTimestamp);
-                        if (configStep && (status == 2 || status == 3)) {
-                            oneSkippedOrNotApplicableConfigStepRecorded = true;
-                        }
-                        testStepResultCollected = true;
+                    if (mappings.size() > maxPendingMappings) {
+                        testMethods += commit(mappings.poll(), writer);
+                        testModules++;
                     }
                 }
-                if (testStepResultCollected) {
-                    resultCollector.end(testCaseId, testCaseEndTimeStamp);
-                } else {
-                    // only passed config steps collected,
-                    resultCollector.end(testCaseId, 0, testCaseEndTimeStamp);
+                while (!mappings.isEmpty()) {
+                    testMethods += commit(mappings.poll(), writer);
+                    testModules++;
+                }
+            } finally {
+                for (final Future<ModuleMapping> mapping : mappings) {
+                    mapping.cancel(true);
                 }
             }
-            resultCollector.end(testModuleId, getEndTimestamp(testModule));
+            // all calls must be applied before the task is ended
+            writer.flush();
+            record(TeMetrics.Phase.PERSIST, writer.getApplyMillis());
+        } finally {
+            mapEvent.commit(taskId, testModules, testMethods);
         }
-        resultCollector.end(testTaskDto.getId().getId(), getEndTimestamp(suiteResult));
+        resultCollector.end(taskId, getEndTimestamp(suiteResult));
+        return testMethods;
+    }
+
+    private static final class ModuleMapping {
+        private final TeModuleResult result;
+        private final List<TeCollectorWriter.Call> calls;
+
+        private ModuleMapping(final TeModuleResult result, final List<TeCollectorWriter.Call> calls) {
+            this.result = result;
+            this.calls = calls;
+        }
+    }
+
+    private ModuleMapping map(final TeModuleResult moduleResult, final String taskId) {
+        return new ModuleMapping(moduleResult, moduleResult.map(this::getItemID, xmlPool, taskId));
+    }
+
+    /**
+     * Submit the calls of a mapped module to the writer
+     *
+     * @return the number of mapped test-methods
+     */
+    private int commit(final Future<ModuleMapping> pendingMapping, final TeCollectorWriter writer) throws Exception {
+        final ModuleMapping mapping;
+        try {
+            mapping = pendingMapping.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        for (final TeCollectorWriter.Call call : mapping.calls) {
+            writer.submit(call);
+        }
+        final int testMethods = mapping.result.getTestMethodCount();
+        for (int i = 0; i < testMethods; i++) {
+            ((TeTestTaskProgress) progress).testMethodMapped();
+        }
+        final EID etsId = testTaskDto.getExecutableTestSuite().getId();
+        metrics.count(TeMetrics.Counter.TEST_METHODS_MAPPED, etsId, teHost, testMethods);
+        metrics.count(TeMetrics.Counter.ATTACHMENTS_SAVED, etsId, teHost, mapping.result.getMappedAttachments());
+        return testMethods;
     }
 
     private String getAssertionID(final Node node) {
@@ -327,12 +758,14 @@ class TeTestTask extends AbstractTestTask {
                 .getId();
     }
 
-    private String getItemID(final Node node) {
-        return EidFactory.getDefault().createUUID(
-                etsSpecificPrefix +
-                        XmlUtils.getAttribute(node.getParentNode(), "name") +
-                        XmlUtils.getAttribute(node, "name"))
-                .getId();
+    private String getItemID(final String parentName, final String name) {
+        if (etsIndex != null) {
+            final String itemId = etsIndex.itemId(parentName, name);
+            if (itemId != null) {
+                return itemId;
+            }
+        }
+        return EidFactory.getDefault().createUUID(etsSpecificPrefix + parentName + name).getId();
     }
 
     private long getStartTimestamp(final Node node) {
@@ -345,59 +778,6 @@ class TeTestTask extends AbstractTestTask {
                 "finished-at")).getTime();
     }
 
-    private int mapStatus(final Node node) {
-        final String status = XmlUtils.getAttribute(node, "status");
-        switch (status) {
-        case "PASS":
-            return 0;
-        case "FAIL":
-            // if the failed test is a config step which has an AssertionError exception, it is just NOT APPLICABLE
-            if ("true".equals(XmlUtils.getAttributeOrDefault(node, "is-config", "false"))) {
-                final Node exception = XmlUtils.getFirstChildNodeOfType(node, ELEMENT_NODE, "exception");
-                final String exceptionClass = XmlUtils.getAttribute(exception, "class");
-                if (exceptionClass != null && exceptionClass.equalsIgnoreCase("java.lang.AssertionError")) {
-                    // NOT APPLICABLE
-                    return 3;
-                }
-            }
-            // FAILED
-            return 1;
-        case "SKIP":
-            // if the skipped test has a SkipException, it is just NOT APPLICABLE
-            final Node exception = XmlUtils.getFirstChildNodeOfType(node, ELEMENT_NODE, "exception");
-            if (exception != null) {
-                final String exceptionClass = XmlUtils.getAttribute(exception, "class");
-                if (exceptionClass != null && !exceptionClass.equalsIgnoreCase("org.testng.SkipException")) {
-                    // SKIPPED
-                    return 2;
-                }
-            }
-            // NOT APPLICABLE
-            return 3;
-        }
-        // UNDEFINED
-        return 6;
-    }
-
-    private String getMessage(final Node node) {
-        final Node exception = XmlUtils.getFirstChildNodeOfType(node, ELEMENT_NODE, "exception");
-        if (exception != null) {
-            final Node message = XmlUtils.getFirstChildNodeOfType(exception, ELEMENT_NODE, "message");
-            if (message != null) {
-                final String msg = XmlUtils.nodeValue(message);
-                if (!SUtils.isNullOrEmpty(msg)) {
-                    return msg;
-                }
-            } else {
-                final String exceptionClass = XmlUtils.getAttribute(exception, "class");
-                if (!SUtils.isNullOrEmpty(exceptionClass)) {
-                    return "No message provided. Exception class " + exceptionClass;
-                }
-            }
-        }
-        return null;
-    }
-
     @Override
     protected void doInit() throws ConfigurationException, InitializationException {
         try {
@@ -414,6 +794,9 @@ class TeTestTask extends AbstractTestTask {
 
     @Override
     protected void doCancel() throws InvalidStateTransitionException {
-        // no background threads
+        if (batch != null) {
+            // stop the invocation running in the background
+            batch.cancel(this);
+        }
     }
 }
@@ -19,18 +19,136 @@
  */
 package de.interactive_instruments.etf.testdriver.te;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import de.interactive_instruments.etf.testdriver.AbstractTestTaskProgress;
 
 /**
+ * Progress of a TEAM Engine test run.
+ *
+ * Four steps are used for invoking the TEAM Engine and receiving the results. If
+ * the duration of the run is known from previous runs, the progress advances
+ * with the elapsed time while the TEAM Engine executes the tests. If the
+ * structure of the Executable Test Suite is known from a previous run, one
+ * additional step is used for every mapped test-method.
+ *
+ * The steps are advanced by the task thread and the progress timer of the
+ * driver, all methods that advance the progress are synchronized.
+ *
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
  */
 class TeTestTaskProgress extends AbstractTestTaskProgress {
 
+    // steps used for the time the TEAM Engine executes the tests
+    private static final int WAIT_STEPS = 100;
+
+    private final int expectedTestMethods;
+    private final long expectedDuration;
+    private final int waitSteps;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private int testMethodsMapped;
+    private int waitStepsCompleted;
+    private volatile long invocationStart;
+
     TeTestTaskProgress() {
-        initMaxSteps(4);
+        this(0, -1);
     }
 
-    void stepCompleted() {
+    /**
+     * Create a new progress object
+     *
+     * @param expectedTestMethods
+     *            number of test-methods of the ETS or 0 if unknown
+     * @param expectedDuration
+     *            expected duration of the TEAM Engine run in ms or -1 if unknown
+     */
+    TeTestTaskProgress(final int expectedTestMethods, final long expectedDuration) {
+        this.expectedTestMethods = Math.max(0, expectedTestMethods);
+        this.expectedDuration = expectedDuration;
+        this.waitSteps = expectedDuration > 0 ? WAIT_STEPS : 0;
+        initMaxSteps(4 + waitSteps + this.expectedTestMethods);
+    }
+
+    synchronized void stepCompleted() {
         advance();
     }
+
+    synchronized void invocationStarted() {
+        // a further invocation, i.e. of another result format, does not advance the progress again
+        if (invocationStart == 0) {
+            advance();
+        }
+        invocationStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Advance the progress with the elapsed time of the TEAM Engine run. The last
+     * wait step is not completed before the results have been received.
+     */
+    synchronized void tick() {
+        final long remaining = getEstimatedRemainingTime();
+        if (remaining < 0) {
+            return;
+        }
+        final int target = (int) Math.min(waitSteps - 1,
+                (expectedDuration - remaining) * waitSteps / expectedDuration);
+        advanceWaitSteps(target);
+    }
+
+    /**
+     * Complete the wait steps after the TEAM Engine responded
+     */
+    synchronized void invocationFinished() {
+        advanceWaitSteps(waitSteps);
+    }
+
+    private void advanceWaitSteps(final int target) {
+        while (waitStepsCompleted < target) {
+            waitStepsCompleted++;
+            advance();
+        }
+    }
+
+    void bytesReceived(final long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    synchronized void testMethodMapped() {
+        // more test-methods than expected are not counted
+        if (testMethodsMapped < expectedTestMethods) {
+            testMethodsMapped++;
+            advance();
+        }
+    }
+
+    /**
+     * Returns the number of bytes received from the TEAM Engine
+     *
+     * @return bytes received
+     */
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns the expected duration of the TEAM Engine run
+     *
+     * @return expected duration in ms or -1 if unknown
+     */
+    long getExpectedDuration() {
+        return expectedDuration;
+    }
+
+    /**
+     * Returns the estimated remaining time until the TEAM Engine has finished
+     * the run, based on the durations of previous runs.
+     *
+     * @return remaining time in ms, 0 if the time has been exceeded or -1 if unknown
+     */
+    long getEstimatedRemainingTime() {
+        if (expectedDuration <= 0 || invocationStart == 0) {
+            return -1;
+        }
+        return Math.max(0, expectedDuration - (System.currentTimeMillis() - invocationStart));
+    }
 }
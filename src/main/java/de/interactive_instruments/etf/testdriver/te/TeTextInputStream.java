@@ -0,0 +1,132 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Streams character data UTF-8 encoded, without creating a byte array copy of
+ * the whole text.
+ *
+ * The text is encoded chunk by chunk into a buffer. Encoders and buffers are
+ * pooled and returned to the pool when the stream is closed.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeTextInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_ENCODERS = 16;
+    private static final Queue<Encoder> pool = new ConcurrentLinkedQueue<>();
+
+    private static final class Encoder {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    private final CharBuffer text;
+    private Encoder encoder;
+    private ByteBuffer buffer;
+    private boolean encoded;
+    private boolean flushed;
+
+    TeTextInputStream(final CharSequence text) {
+        this.text = CharBuffer.wrap(text);
+        final Encoder pooled = pool.poll();
+        this.encoder = pooled != null ? pooled : new Encoder();
+        this.encoder.encoder.reset();
+        this.buffer = encoder.buffer;
+        this.buffer.clear();
+        this.buffer.flip();
+    }
+
+    private boolean fill() throws IOException {
+        if (encoder == null) {
+            throw new IOException("Stream closed");
+        }
+        buffer.clear();
+        while (buffer.position() == 0 && !flushed) {
+            if (!encoded) {
+                final CoderResult result = encoder.encoder.encode(text, buffer, true);
+                if (result.isUnderflow()) {
+                    encoded = true;
+                } else if (result.isError()) {
+                    result.throwException();
+                }
+            } else if (encoder.encoder.flush(buffer).isUnderflow()) {
+                flushed = true;
+            }
+        }
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len) {
+            if (!buffer.hasRemaining() && !fill()) {
+                break;
+            }
+            final int n = Math.min(len - read, buffer.remaining());
+            buffer.get(b, off + read, n);
+            read += n;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+        if (encoder != null) {
+            if (pool.size() < MAX_POOLED_ENCODERS) {
+                pool.offer(encoder);
+            }
+            encoder = null;
+            buffer = ByteBuffer.allocate(0);
+        }
+    }
+}
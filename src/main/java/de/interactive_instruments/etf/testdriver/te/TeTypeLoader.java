@@ -27,6 +27,8 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -77,6 +79,8 @@ class TeTypeLoader implements EtsTypeLoader {
     private final ConfigProperties configProperties = new ConfigProperties();
     private final URI apiUri;
     private final Credentials credentials;
+    private final TeExchanges exchanges;
+    private final TeStringPool stringPool;
     private final ComponentInfo driverInfo;
     private final Logger logger = LoggerFactory.getLogger(TeTypeLoader.class);
     private final Dao<ExecutableTestSuiteDto> etsDao;
@@ -90,7 +94,11 @@ class TeTypeLoader implements EtsTypeLoader {
 
     public static final TranslationTemplateBundleDto TE_TRANSLATION_TEMPLATE_BUNDLE = createTranslationTemplateBundle();
     private boolean initialized = false;
-    private final EidHolderMap<ExecutableTestSuiteDto> propagatedDtos = new DefaultEidHolderMap<>();
+    // ETS DTOs are not modified after they have been put into the map, updates replace them with new copies
+    private final ConcurrentMap<EID, ExecutableTestSuiteDto> propagatedDtos = new ConcurrentHashMap<>();
+    // updates of the same ETS are serialized
+    private final Object[] etsUpdateLocks = new Object[16];
+    private final ConcurrentMap<EID, TeEtsIndex> etsIndexes = new ConcurrentHashMap<>();
     private ExecutableTestSuiteLifeCycleListener mediator;
 
     private static TranslationTemplateBundleDto createTranslationTemplateBundle() {
@@ -113,6 +121,25 @@ class TeTypeLoader implements EtsTypeLoader {
         return translationTemplateBundle;
     }
 
+    /**
+     * The source and the texts of all translation templates of the bundle, ordered by collection name and language
+     */
+    private static String translationTemplateFingerprint(final TranslationTemplateBundleDto bundle) {
+        final StringBuilder fingerprint = new StringBuilder().append(bundle.getSource()).append('\n');
+        final List<LangTranslationTemplateCollectionDto> collections = new ArrayList<>(
+                bundle.getTranslationTemplateCollections());
+        collections.sort(Comparator.comparing(LangTranslationTemplateCollectionDto::getName));
+        for (final LangTranslationTemplateCollectionDto collection : collections) {
+            final List<TranslationTemplateDto> templates = new ArrayList<>(collection.getTranslationTemplates());
+            templates.sort(Comparator.comparing(TranslationTemplateDto::getLanguage));
+            for (final TranslationTemplateDto template : templates) {
+                fingerprint.append(template.getName()).append('@').append(template.getLanguage()).append('=')
+                        .append(template.getStrTemplate()).append('\n');
+            }
+        }
+        return fingerprint.toString();
+    }
+
     @Override
     public ExecutableTestSuiteDto getExecutableTestSuiteById(final EID eid) {
         return propagatedDtos.get(eid);
@@ -124,7 +151,7 @@ class TeTypeLoader implements EtsTypeLoader {
     }
 
     private void addEts(final ExecutableTestSuiteDto ets) {
-        propagatedDtos.add(ets);
+        propagatedDtos.put(ets.getId(), ets);
         if (this.mediator != null) {
             this.mediator.lifeCycleChange(this, ExecutableTestSuiteLifeCycleListener.EventType.CREATED,
                     DefaultEidHolderMap.singleton(ets));
@@ -133,12 +160,17 @@ class TeTypeLoader implements EtsTypeLoader {
 
     @Override
     public EidSet<? extends Dto> getTypes() {
-        return propagatedDtos.toSet();
+        final EidHolderMap<ExecutableTestSuiteDto> types = new DefaultEidHolderMap<>();
+        for (final ExecutableTestSuiteDto ets : propagatedDtos.values()) {
+            types.add(ets);
+        }
+        return types.toSet();
     }
 
     @Override
     public void release() {
         propagatedDtos.clear();
+        etsIndexes.clear();
     }
 
     private static class TeTypeBuilder implements TypeBuildingFileVisitor.TypeBuilder<ExecutableTestSuiteDto> {
@@ -153,12 +185,22 @@ class TeTypeLoader implements EtsTypeLoader {
      * Default constructor.
      */
     public TeTypeLoader(final DataStorage dataStorageCallback, final URI apiUri,
-            final Credentials credentials, final ComponentInfo driverInfo) {
+            final Credentials credentials, final TeExchanges exchanges, final TeStringPool stringPool,
+            final ComponentInfo driverInfo) {
         this.apiUri = apiUri;
         this.credentials = credentials;
+        this.exchanges = exchanges;
+        this.stringPool = stringPool;
         this.driverInfo = driverInfo;
         this.dataStorageCallback = dataStorageCallback;
         this.etsDao = dataStorageCallback.getDao(ExecutableTestSuiteDto.class);
+        for (int i = 0; i < etsUpdateLocks.length; i++) {
+            etsUpdateLocks[i] = new Object();
+        }
+    }
+
+    private Object etsUpdateLock(final EID etsId) {
+        return etsUpdateLocks[(etsId.hashCode() & Integer.MAX_VALUE) % etsUpdateLocks.length];
     }
 
     @Override
@@ -169,53 +211,35 @@ class TeTypeLoader implements EtsTypeLoader {
 
         this.configProperties.expectAllRequiredPropertiesSet();
 
-        // First propagate static types
-        final WriteDao<TestItemTypeDto> testItemTypeDao = ((WriteDao<TestItemTypeDto>) dataStorageCallback
-                .getDao(TestItemTypeDto.class));
+        // First propagate static types. Only new or changed types are written.
         try {
-            testItemTypeDao.deleteAllExisting(TE_TEST_ITEM_TYPES.keySet());
-            testItemTypeDao.addAll(TE_TEST_ITEM_TYPES.values());
+            final int writtenTypes = TeDtoUpsert.upsert(
+                    (WriteDao<TestItemTypeDto>) dataStorageCallback.getDao(TestItemTypeDto.class),
+                    TE_TEST_ITEM_TYPES.values(),
+                    type -> type.getLabel() + '\n' + type.getDescription() + '\n' + type.getReference())
+                    + TeDtoUpsert.upsert(
+                            (WriteDao<TranslationTemplateBundleDto>) dataStorageCallback
+                                    .getDao(TranslationTemplateBundleDto.class),
+                            TE_TRANSLATION_TEMPLATE_BUNDLE,
+                            TeTypeLoader::translationTemplateFingerprint)
+                    + TeDtoUpsert.upsert(
+                            (WriteDao<TagDto>) dataStorageCallback.getDao(TagDto.class),
+                            TE_TEAM_ENGINE_TAG,
+                            tag -> tag.getLabel() + '\n' + tag.getDescription() + '\n' + tag.getPriority());
+            logger.debug("{} static types written", writtenTypes);
         } catch (final StorageException e) {
-            try {
-                testItemTypeDao.deleteAllExisting(TE_TEST_ITEM_TYPES.keySet());
-            } catch (StorageException ign) {
-                ExcUtils.suppress(ign);
-            }
             throw new InitializationException(e);
         }
-        final WriteDao<TranslationTemplateBundleDto> translationTemplateBundleDao = ((WriteDao<TranslationTemplateBundleDto>) dataStorageCallback
-                .getDao(TranslationTemplateBundleDto.class));
-        try {
-            translationTemplateBundleDao.deleteAllExisting(Collections.singleton(TE_TRANSLATION_TEMPLATE_BUNDLE.getId()));
-            translationTemplateBundleDao.add(TE_TRANSLATION_TEMPLATE_BUNDLE);
-        } catch (final StorageException e) {
-            try {
-                translationTemplateBundleDao.deleteAllExisting(Collections.singleton(TE_TRANSLATION_TEMPLATE_BUNDLE.getId()));
-            } catch (StorageException ign) {
-                ExcUtils.suppress(ign);
-            }
-            throw new InitializationException(e);
-        }
-        final WriteDao<TagDto> tagDao = ((WriteDao<TagDto>) dataStorageCallback
-                .getDao(TagDto.class));
-        try {
-            tagDao.deleteAllExisting(Collections.singleton(TE_TEAM_ENGINE_TAG.getId()));
-            tagDao.add(TE_TEAM_ENGINE_TAG);
-        } catch (final StorageException e) {
-            try {
-                tagDao.deleteAllExisting(Collections.singleton(TE_TEAM_ENGINE_TAG.getId()));
-            } catch (StorageException ign) {
-                ExcUtils.suppress(ign);
+
+        final List<ExecutableTestSuiteDto> eTestSuitesToAdd = new ArrayList<>();
+        for (final ExecutableTestSuiteDto ets : initEts()) {
+            if (!etsDao.exists(ets.getId()) || etsDao.isDisabled(ets.getId())) {
+                eTestSuitesToAdd.add(ets);
             }
-            throw new InitializationException(e);
         }
-
-        final List<ExecutableTestSuiteDto> eTestSuitesToAdd = initEts();
-        for (final ExecutableTestSuiteDto ets : eTestSuitesToAdd) {
+        if (!eTestSuitesToAdd.isEmpty()) {
             try {
-                if (!etsDao.exists(ets.getId()) || etsDao.isDisabled(ets.getId())) {
-                    ((WriteDao<ExecutableTestSuiteDto>) etsDao).add(ets);
-                }
+                ((WriteDao<ExecutableTestSuiteDto>) etsDao).addAll(eTestSuitesToAdd);
             } catch (StorageException e) {
                 throw new InitializationException("Could not add/update ETS: ", e);
             }
@@ -237,7 +261,7 @@ class TeTypeLoader implements EtsTypeLoader {
         } catch (URISyntaxException e) {
             throw new InitializationException("Invalid URL", e);
         }
-        if (!UriUtils.exists(suitesUri, credentials)) {
+        if (!exchanges.exists(suitesUri, credentials)) {
             throw new InitializationException("TEAM Engine application web interface not available at " + suitesUri.toString());
         }
 
@@ -248,7 +272,7 @@ class TeTypeLoader implements EtsTypeLoader {
 
         try {
             // Get list of Executable Test Suites
-            final String etsOverview = UriUtils.loadAsString(suitesUri, credentials);
+            final String etsOverview = exchanges.loadAsString(suitesUri, credentials);
             final Document etsOverviewDoc = Jsoup.parse(etsOverview);
             final Elements etsUrls = etsOverviewDoc.select("body ul li a[href]");
             for (final Element etsUrl : etsUrls) {
@@ -256,7 +280,7 @@ class TeTypeLoader implements EtsTypeLoader {
                 final String etsDetails;
                 final String etsUrlStr = UriUtils.getParent(suitesUri).toString() + etsUrl.attr("href");
                 try {
-                    etsDetails = UriUtils.loadAsString(new URI(etsUrlStr), credentials);
+                    etsDetails = exchanges.loadAsString(new URI(etsUrlStr), credentials);
                 } catch (URISyntaxException e) {
                     logger.error("Invalid URL retrieved", e);
                     continue;
@@ -321,18 +345,30 @@ class TeTypeLoader implements EtsTypeLoader {
                     addEts(ets);
                 }
             }
-            return propagatedDtos.asList();
+            return new ArrayList<>(propagatedDtos.values());
         } catch (final IOException e) {
             throw new InitializationException("Could not retrieve Executable Test Suites with"
                     + " TEAM Engine application web interface ", e);
         }
     }
 
+    /**
+     * Update the ETS model with the structure of a TestNG result.
+     *
+     * The structure hash of the result is computed first, the DTOs and the index
+     * are only built if the hash differs from the hash of the current ETS or
+     * index. The update is skipped if the structure did not change. Otherwise the new
+     * structure is merged with the current one, unchanged items of the current ETS
+     * are reused. Only if the items differ, a copy of the ETS is created with the
+     * merged items, persisted and then replaces the current ETS. The DTOs of the
+     * current ETS are never modified. Updates of the same ETS are serialized,
+     * readers always see a complete ETS.
+     *
+     * @return true if the ETS model has been updated
+     */
     boolean updateEtsFromResult(final ExecutableTestSuiteDto executableTestSuite, final org.w3c.dom.Document document)
             throws ParseException, ObjectWithIdNotFoundException, StorageException {
 
-        // TODO parse ETS, compare hash, only update if nescessary
-
         final org.w3c.dom.Element result = document.getDocumentElement();
         if (!"testng-results".equals(result.getNodeName())) {
             throw new ParseException("Expected a TestNG result XML", document.getDocumentURI(), 0);
@@ -346,14 +382,29 @@ class TeTypeLoader implements EtsTypeLoader {
         final TestItemTypeDto testNgAsseriton = TE_TEST_ITEM_TYPES.get("161baae7-6c84-4bce-8185-3d3618a66011");
         final TestItemTypeDto testNgStep = TE_TEST_ITEM_TYPES.get("b0469ab7-9d69-49ff-98a1-4c7960829b82");
 
+        final String structureHash = structureHash(testSuite);
+        synchronized (etsUpdateLock(executableTestSuite.getId())) {
+            final TeEtsIndex currentIndex = etsIndexes.get(executableTestSuite.getId());
+            final ExecutableTestSuiteDto current = propagatedDtos.getOrDefault(
+                    executableTestSuite.getId(), executableTestSuite);
+            if (currentIndex != null && structureHash.equals(currentIndex.getStructureHash())
+                    && structureHash.equals(current.getItemHash())) {
+                // neither the index nor the DTOs need to be built
+                return false;
+            }
+        }
+
+        final List<TestModuleDto> testModules = new ArrayList<>();
+        final TeEtsIndex.Builder indexBuilder = new TeEtsIndex.Builder(XmlUtils.getAttribute(testSuite, "name"));
+
         // Test Modules
         for (Node testModule = XmlUtils.getFirstChildNodeOfType(testSuite, ELEMENT_NODE,
                 "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
             final EID testModuleId = getItemID(testModule, etsSpecificPrefix);
             final TestModuleDto testModuleDto = new TestModuleDto();
             testModuleDto.setId(testModuleId);
-            setDefaultProperties(testModule, testModuleDto);
-            testModuleDto.setParent(executableTestSuite);
+            final int testModuleOrdinal = setDefaultProperties(testModule, testModuleDto,
+                    indexBuilder, TeEtsIndex.MODULE, -1);
 
             // Test Cases
             for (Node testCase = XmlUtils.getFirstChildNodeOfType(testModule, ELEMENT_NODE,
@@ -361,7 +412,8 @@ class TeTypeLoader implements EtsTypeLoader {
                 final EID testCaseId = getItemID(testCase, etsSpecificPrefix);
                 final TestCaseDto testCaseDto = new TestCaseDto();
                 testCaseDto.setId(testCaseId);
-                setDefaultProperties(testCase, testCaseDto);
+                final int testCaseOrdinal = setDefaultProperties(testCase, testCaseDto,
+                        indexBuilder, TeEtsIndex.CASE, testModuleOrdinal);
                 testCaseDto.setParent(testModuleDto);
 
                 // Test Steps
@@ -371,7 +423,11 @@ class TeTypeLoader implements EtsTypeLoader {
                     final EID testStepId = getItemID(testStep, etsSpecificPrefix);
                     final TestStepDto testStepDto = new TestStepDto();
                     testStepDto.setId(testStepId);
-                    setDefaultProperties(testStep, testStepDto);
+                    final int testStepOrdinal = setDefaultProperties(testStep, testStepDto, indexBuilder,
+                            TeEtsIndex.STEP, testCaseOrdinal);
+                    if ("true".equals(XmlUtils.getAttributeOrDefault(testStep, "is-config", "false"))) {
+                        indexBuilder.config(testStepOrdinal);
+                    }
                     testStepDto.setParent(testCaseDto);
                     testStepDto.setType(testNgStep);
                     testStepDto.setStatementForExecution("NOT_APPLICABLE");
@@ -383,10 +439,45 @@ class TeTypeLoader implements EtsTypeLoader {
                 testModuleDto.addTestCase(testCaseDto);
 
             }
-            executableTestSuite.addTestModule(testModuleDto);
+            testModules.add(testModuleDto);
+        }
+
+        synchronized (etsUpdateLock(executableTestSuite.getId())) {
+            final TeEtsIndex currentIndex = etsIndexes.get(executableTestSuite.getId());
+            if (currentIndex == null || !structureHash.equals(currentIndex.getStructureHash())) {
+                etsIndexes.put(executableTestSuite.getId(), indexBuilder.build(structureHash));
+            }
+            final ExecutableTestSuiteDto current = propagatedDtos.getOrDefault(
+                    executableTestSuite.getId(), executableTestSuite);
+            if (structureHash.equals(current.getItemHash())) {
+                return false;
+            }
+            final TeEtsDiff diff = new TeEtsDiff();
+            final List<TestModuleDto> mergedModules = diff.merge(current.getTestModules(), testModules);
+            final ExecutableTestSuiteDto updatedEts = current.createCopy();
+            updatedEts.setItemHash(structureHash);
+            if (!diff.hasChanges()) {
+                // only remember the hash, the persisted structure is up to date
+                logger.debug("Structure of ETS {} unchanged", current.getLabel());
+                propagatedDtos.put(updatedEts.getId(), updatedEts);
+                return false;
+            }
+            logger.info("Updating ETS {}: {}", current.getLabel(), diff);
+            updatedEts.setTestModules(new ArrayList<>());
+            // the DTOs of the current ETS are not modified, they may still be read by running tasks
+            final Set<TestModuleDto> stored = Collections.newSetFromMap(new IdentityHashMap<>());
+            if (current.getTestModules() != null) {
+                stored.addAll(current.getTestModules());
+            }
+            for (final TestModuleDto testModuleDto : mergedModules) {
+                if (!stored.contains(testModuleDto)) {
+                    testModuleDto.setParent(updatedEts);
+                }
+                updatedEts.addTestModule(testModuleDto);
+            }
+            ((WriteDao) etsDao).replace(updatedEts);
+            propagatedDtos.put(updatedEts.getId(), updatedEts);
         }
-        propagatedDtos.add(executableTestSuite);
-        ((WriteDao) etsDao).replace(executableTestSuite);
         return true;
     }
 
@@ -404,9 +495,67 @@ class TeTypeLoader implements EtsTypeLoader {
                         XmlUtils.getAttribute(node, "name"));
     }
 
-    private void setDefaultProperties(final Node node, final TestModelItemDto dto) {
-        dto.setLabel(XmlUtils.getAttribute(node, "name"));
-        dto.setDescription(XmlUtils.getAttribute(node, "description"));
+    /**
+     * Hash of the names and descriptions of the test modules, test cases and test
+     * steps of a TestNG suite
+     */
+    static String structureHash(final Node testSuite) {
+        final StringBuilder structure = new StringBuilder();
+        for (Node testModule = XmlUtils.getFirstChildNodeOfType(testSuite, ELEMENT_NODE,
+                "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+            appendStructure(testModule, structure);
+            for (Node testCase = XmlUtils.getFirstChildNodeOfType(testModule, ELEMENT_NODE,
+                    "class"); testCase != null; testCase = XmlUtils.getNextSiblingOfType(testCase, ELEMENT_NODE, "class")) {
+                appendStructure(testCase, structure);
+                for (Node testStep = XmlUtils.getFirstChildNodeOfType(testCase, ELEMENT_NODE,
+                        "test-method"); testStep != null; testStep = XmlUtils.getNextSiblingOfType(testStep, ELEMENT_NODE,
+                                "test-method")) {
+                    appendStructure(testStep, structure);
+                }
+            }
+        }
+        return SUtils.fastCalcHashAsHexStr(structure.toString());
+    }
+
+    private static void appendStructure(final Node node, final StringBuilder structure) {
+        structure.append(node.getNodeName()).append(':').append(XmlUtils.getAttribute(node, "name")).append('\n')
+                .append(XmlUtils.getAttribute(node, "description")).append('\n');
+    }
+
+    private int setDefaultProperties(final Node node, final TestModelItemDto dto,
+            final TeEtsIndex.Builder indexBuilder, final byte level, final int parent) {
+        // equal labels and descriptions of other ETS versions and results share one instance
+        final String label = stringPool.canonical(XmlUtils.getAttribute(node, "name"));
+        final String description = stringPool.canonical(XmlUtils.getAttribute(node, "description"));
+        final int ordinal = indexBuilder.add(level, parent, dto.getId(), label, description);
+        // use the strings of the name table, equal labels and descriptions share one instance
+        dto.setLabel(indexBuilder.name(ordinal));
+        dto.setDescription(indexBuilder.description(ordinal));
+        return ordinal;
+    }
+
+    /**
+     * Returns the index of the ETS structure, which is available after the ETS
+     * model has been updated from a result
+     *
+     * @param etsId
+     *            ID of the ETS
+     * @return the index or null if not available
+     */
+    TeEtsIndex getEtsIndex(final EID etsId) {
+        return etsIndexes.get(etsId);
+    }
+
+    /**
+     * Returns the structure hash of the current ETS model, which is the hash of
+     * the last result the model has been updated from
+     *
+     * @param executableTestSuite
+     *            the ETS of a task
+     * @return the hash
+     */
+    String getStructureHash(final ExecutableTestSuiteDto executableTestSuite) {
+        return propagatedDtos.getOrDefault(executableTestSuite.getId(), executableTestSuite).getItemHash();
     }
 
     @Override
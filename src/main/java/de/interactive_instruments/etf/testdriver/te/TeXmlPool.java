@@ -0,0 +1,266 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import de.interactive_instruments.Releasable;
+import de.interactive_instruments.XmlUtils;
+
+/**
+ * Driver wide pool of configured XML parsers and transformers.
+ *
+ * The factories are looked up and configured once. Document builders and
+ * transformers are not thread-safe, they are borrowed for one use, reset and
+ * returned to the pool afterwards. StAX readers are created by the shared,
+ * thread-safe input factory.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeXmlPool implements Releasable {
+
+    private static final int MAX_IDLE = 16;
+
+    // Xerces expands the nodes of a deferred DOM on the first access, which is not thread-safe
+    private static final String DEFER_NODE_EXPANSION = "http://apache.org/xml/features/dom/defer-node-expansion";
+
+    // parse errors are reported as exceptions only
+    private static final ErrorHandler SILENT_ERROR_HANDLER = new ErrorHandler() {
+        @Override
+        public void warning(final SAXParseException exception) {}
+
+        @Override
+        public void error(final SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        @Override
+        public void fatalError(final SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+    };
+
+    private final DocumentBuilderFactory documentBuilderFactory;
+    private final TransformerFactory transformerFactory;
+    private final XMLInputFactory inputFactory;
+    private final Queue<DocumentBuilder> documentBuilders = new ConcurrentLinkedQueue<>();
+    private final Queue<Transformer> transformers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleDocumentBuilders = new AtomicInteger();
+    private final AtomicInteger idleTransformers = new AtomicInteger();
+    private final boolean concurrentlyReadable;
+
+    TeXmlPool() {
+        documentBuilderFactory = XmlUtils.newDocumentBuilderFactoryInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        concurrentlyReadable = disableDeferredNodeExpansion(documentBuilderFactory);
+        transformerFactory = TransformerFactory.newInstance();
+        inputFactory = XMLInputFactory.newInstance();
+        // documents may have a DOCTYPE with internal entities, external DTDs and entities are not loaded
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setXMLResolver((publicId, systemId, baseUri, namespace) -> new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static boolean disableDeferredNodeExpansion(final DocumentBuilderFactory factory) {
+        try {
+            factory.setFeature(DEFER_NODE_EXPANSION, false);
+            return true;
+        } catch (final ParserConfigurationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the parsed DOMs are fully expanded, so that several threads
+     * can read them without modifying them
+     */
+    boolean isConcurrentlyReadable() {
+        return concurrentlyReadable;
+    }
+
+    private DocumentBuilder borrowDocumentBuilder() throws ParserConfigurationException {
+        final DocumentBuilder builder = documentBuilders.poll();
+        if (builder != null) {
+            idleDocumentBuilders.decrementAndGet();
+            return builder;
+        }
+        synchronized (documentBuilderFactory) {
+            final DocumentBuilder newBuilder = documentBuilderFactory.newDocumentBuilder();
+            newBuilder.setErrorHandler(SILENT_ERROR_HANDLER);
+            return newBuilder;
+        }
+    }
+
+    private void returnDocumentBuilder(final DocumentBuilder builder) {
+        builder.reset();
+        builder.setErrorHandler(SILENT_ERROR_HANDLER);
+        if (idleDocumentBuilders.incrementAndGet() <= MAX_IDLE) {
+            documentBuilders.offer(builder);
+        } else {
+            idleDocumentBuilders.decrementAndGet();
+        }
+    }
+
+    /**
+     * Parse a namespace aware DOM from a stream
+     */
+    Document parse(final InputStream inputStream) throws IOException, SAXException, ParserConfigurationException {
+        final DocumentBuilder builder = borrowDocumentBuilder();
+        try {
+            return builder.parse(inputStream);
+        } finally {
+            returnDocumentBuilder(builder);
+        }
+    }
+
+    /**
+     * Parse a namespace aware DOM from a file
+     */
+    Document parse(final File file) throws IOException, SAXException, ParserConfigurationException {
+        final DocumentBuilder builder = borrowDocumentBuilder();
+        try {
+            return builder.parse(file);
+        } finally {
+            returnDocumentBuilder(builder);
+        }
+    }
+
+    /**
+     * Serialize a DOM
+     */
+    void serialize(final Document document, final OutputStream outputStream) throws TransformerException {
+        Transformer transformer = transformers.poll();
+        if (transformer != null) {
+            idleTransformers.decrementAndGet();
+        } else {
+            synchronized (transformerFactory) {
+                transformer = transformerFactory.newTransformer();
+            }
+        }
+        try {
+            transformer.transform(new DOMSource(document), new StreamResult(outputStream));
+        } finally {
+            transformer.reset();
+            if (idleTransformers.incrementAndGet() <= MAX_IDLE) {
+                transformers.offer(transformer);
+            } else {
+                idleTransformers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Create a StAX reader, DTDs and external entities are not supported
+     */
+    XMLStreamReader createXMLStreamReader(final InputStream inputStream) throws XMLStreamException {
+        return inputFactory.createXMLStreamReader(inputStream);
+    }
+
+    /**
+     * Check if a string is a well-formed XML document. A DOCTYPE is accepted, but
+     * external DTDs are not loaded, so entities declared there are unknown.
+     *
+     * @param xml
+     *            the string to check
+     * @return true if the string is well-formed
+     */
+    boolean isWellFormed(final String xml) {
+        if (xml == null || xml.isEmpty()) {
+            return false;
+        }
+        return isWellFormed(new StringReader(xml));
+    }
+
+    /**
+     * Check if UTF-8 encoded text is a well-formed XML document. As for strings,
+     * an encoding declaration in the text is ignored.
+     *
+     * @param xml
+     *            the text to check, which is closed
+     * @return true if the text is well-formed
+     */
+    boolean isWellFormed(final InputStream xml) {
+        try (final Reader reader = new InputStreamReader(xml, StandardCharsets.UTF_8)) {
+            return isWellFormed(reader);
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    private boolean isWellFormed(final Reader xml) {
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(xml);
+            boolean root = false;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamReader.START_ELEMENT) {
+                    root = true;
+                }
+            }
+            return root;
+        } catch (final XMLStreamException | RuntimeException e) {
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException ign) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        documentBuilders.clear();
+        transformers.clear();
+        idleDocumentBuilders.set(0);
+        idleTransformers.set(0);
+    }
+}
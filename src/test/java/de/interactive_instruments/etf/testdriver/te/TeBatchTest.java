@@ -0,0 +1,200 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeBatchTest {
+
+    private static final class Member implements TeBatch.Member {
+        private final EID id = EidFactory.getDefault().createRandomId();
+        private final AtomicInteger fetched = new AtomicInteger();
+        private final CountDownLatch proceed;
+        private volatile Path spoolFile;
+
+        Member(final CountDownLatch proceed) {
+            this.proceed = proceed;
+        }
+
+        @Override
+        public EID getId() {
+            return id;
+        }
+
+        @Override
+        public Path fetchResult() throws Exception {
+            fetched.incrementAndGet();
+            if (proceed != null) {
+                // not interruptible, like a TEAM Engine response that is already received
+                while (proceed.getCount() > 0) {
+                    try {
+                        proceed.await();
+                    } catch (final InterruptedException ignored) {
+                        // wait for the response
+                    }
+                }
+            }
+            spoolFile = Files.createTempFile("etf-tetd-batch", ".xml");
+            Files.write(spoolFile, id.getId().getBytes(StandardCharsets.UTF_8));
+            return spoolFile;
+        }
+    }
+
+    private static TeBatch batch(final Member... members) {
+        final Set<EID> ids = new LinkedHashSet<>();
+        for (final Member member : members) {
+            ids.add(member.getId());
+        }
+        return new TeBatch(ids, 2);
+    }
+
+    @Test(timeout = 10000)
+    public void resultsAreHandedOverToTheirTasks() throws Exception {
+        final Member first = new Member(null);
+        final Member second = new Member(null);
+        final TeBatch batch = batch(first, second);
+        batch.register(first);
+        batch.register(second);
+
+        // the first task that awaits its result starts the invocations of all tasks
+        final Path secondResult = batch.awaitResult(second);
+        assertEquals(second.getId().getId(), new String(Files.readAllBytes(secondResult), StandardCharsets.UTF_8));
+        final Path firstResult = batch.awaitResult(first);
+        assertEquals(first.getId().getId(), new String(Files.readAllBytes(firstResult), StandardCharsets.UTF_8));
+        assertEquals(1, first.fetched.get());
+        assertEquals(1, second.fetched.get());
+
+        // only one task updates the ETS model
+        assertTrue(batch.claimEtsUpdate());
+        assertFalse(batch.claimEtsUpdate());
+
+        Files.delete(firstResult);
+        Files.delete(secondResult);
+        batch.finished(first);
+        assertFalse(batch.isFinished());
+        batch.finished(second);
+        assertTrue(batch.isFinished());
+    }
+
+    @Test(timeout = 10000)
+    public void unknownTask() throws Exception {
+        final Member member = new Member(null);
+        final TeBatch batch = batch(member);
+        try {
+            batch.awaitResult(new Member(null));
+            fail("Expected IllegalStateException");
+        } catch (final IllegalStateException expected) {
+            // the task is not part of the batch
+        }
+        batch.release();
+    }
+
+    @Test(timeout = 10000)
+    public void unconsumedResultsAreDeleted() throws Exception {
+        final Member consumer = new Member(null);
+        final Member cancelled = new Member(null);
+        final Member neverCreated = new Member(null);
+        final TeBatch batch = batch(consumer, cancelled, neverCreated);
+        batch.register(consumer);
+        batch.register(cancelled);
+        Files.delete(batch.awaitResult(consumer));
+        batch.finished(consumer);
+        while (cancelled.spoolFile == null) {
+            Thread.sleep(5);
+        }
+
+        batch.cancel(cancelled);
+        assertFalse(batch.isFinished());
+        // the batch is released as soon as the last task is accounted for
+        batch.abandon(neverCreated.getId());
+        assertTrue(batch.isFinished());
+        awaitDeleted(cancelled.spoolFile);
+        assertEquals(0, neverCreated.fetched.get());
+    }
+
+    @Test(timeout = 10000)
+    public void resultOfCancelledTaskIsDeleted() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final Member waiting = new Member(null);
+        final Member running = new Member(proceed);
+        final TeBatch batch = batch(waiting, running);
+        batch.register(waiting);
+        batch.register(running);
+        Files.delete(batch.awaitResult(waiting));
+        while (running.fetched.get() == 0) {
+            Thread.sleep(5);
+        }
+
+        // cancelled while the TEAM Engine is still running
+        batch.cancel(running);
+        proceed.countDown();
+        while (running.spoolFile == null) {
+            Thread.sleep(5);
+        }
+        awaitDeleted(running.spoolFile);
+        try {
+            batch.awaitResult(running);
+            fail("Expected CancellationException");
+        } catch (final CancellationException expected) {
+            // the result was discarded
+        }
+        batch.finished(waiting);
+        assertTrue(batch.isFinished());
+    }
+
+    @Test(timeout = 10000)
+    public void abandonedBatchIsReleased() throws Exception {
+        final Member first = new Member(null);
+        final Member second = new Member(null);
+        final TeBatch batch = batch(first, second);
+        assertFalse(batch.isOlderThan(TimeUnit.HOURS.toNanos(1)));
+        Thread.sleep(20);
+        assertTrue(batch.isOlderThan(TimeUnit.MILLISECONDS.toNanos(10)));
+
+        // none of the DTOs has been passed to createTestTask in time
+        batch.abandon(first.getId());
+        batch.abandon(second.getId());
+        assertTrue(batch.isFinished());
+        assertEquals(0, first.fetched.get());
+    }
+
+    private static void awaitDeleted(final Path file) throws InterruptedException {
+        while (Files.exists(file)) {
+            Thread.sleep(5);
+        }
+    }
+}
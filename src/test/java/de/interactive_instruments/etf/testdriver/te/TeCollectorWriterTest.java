@@ -0,0 +1,142 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeCollectorWriterTest {
+
+    @Test(timeout = 10000)
+    public void callsAreAppliedInOrder() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final List<Integer> applied = new CopyOnWriteArrayList<>();
+            final TeCollectorWriter writer = new TeCollectorWriter(null, 2, executor);
+            for (int i = 0; i < 100; i++) {
+                final int call = i;
+                writer.submit(c -> applied.add(call));
+            }
+            writer.flush();
+            writer.close();
+            assertEquals(100, applied.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, (int) applied.get(i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void errorDoesNotBlockTheParser() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final TeCollectorWriter writer = new TeCollectorWriter(null, 2, executor);
+            writer.submit(c -> {
+                throw new StackOverflowError();
+            });
+            // the remaining calls are discarded, the queue does not fill up
+            try {
+                for (int i = 0; i < 100; i++) {
+                    writer.submit(c -> fail("Call applied after a failure"));
+                }
+                writer.flush();
+                fail("Expected StackOverflowError");
+            } catch (final StackOverflowError expected) {
+                // reported to the parser
+            }
+            writer.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void appliedBySubmitterIfNoWriterIsAvailable() throws Exception {
+        final ExecutorService executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // occupy the only writer thread
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (final InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            final Thread submitter = Thread.currentThread();
+            final List<Thread> threads = new CopyOnWriteArrayList<>();
+            final TeCollectorWriter writer = new TeCollectorWriter(null, 2, executor);
+            writer.submit(c -> threads.add(Thread.currentThread()));
+            writer.flush();
+            assertEquals(1, threads.size());
+            assertSame(submitter, threads.get(0));
+            try {
+                writer.submit(c -> {
+                    throw new IllegalArgumentException("invalid");
+                });
+                writer.submit(c -> fail("Call applied after a failure"));
+                fail("Expected IllegalArgumentException");
+            } catch (final IllegalArgumentException expected) {
+                assertEquals("invalid", expected.getMessage());
+            }
+            writer.close();
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void closeWaitsForTheAppliedCall() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final CountDownLatch applying = new CountDownLatch(1);
+            final List<String> applied = new CopyOnWriteArrayList<>();
+            try (final TeCollectorWriter writer = new TeCollectorWriter(null, 2, executor)) {
+                writer.submit(c -> {
+                    applying.countDown();
+                    Thread.sleep(300);
+                    applied.add("slow");
+                });
+                writer.submit(c -> applied.add("discarded"));
+                applying.await();
+                // the parser fails while the slow call is applied
+                throw new IllegalStateException("parse error");
+            } catch (final IllegalStateException expected) {
+                // the error handling of the task uses the collector now
+                applied.add("error");
+            }
+            assertEquals(2, applied.size());
+            assertEquals("slow", applied.get(0));
+            assertEquals("error", applied.get(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.interactive_instruments.etf.dal.dao.PreparedDto;
+import de.interactive_instruments.etf.dal.dao.WriteDao;
+import de.interactive_instruments.etf.dal.dto.capabilities.TagDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeDtoUpsertTest {
+
+    private final Map<EID, TagDto> stored = new HashMap<>();
+    private final List<String> writes = new ArrayList<>();
+    private WriteDao<TagDto> dao;
+
+    private static final TeDtoUpsert.Fingerprint<TagDto> LABEL = tag -> tag.getLabel() + '\n' + tag.getDescription();
+
+    /**
+     * A DAO that keeps the DTOs in a map and records the write calls
+     */
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() {
+        dao = (WriteDao<TagDto>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{WriteDao.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "exists":
+                        return stored.containsKey(args[0]);
+                    case "getById":
+                        final TagDto tag = stored.get(args[0]);
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedDto.class},
+                                (p, m, a) -> m.getName().equals("getDto") ? tag : null);
+                    case "deleteAllExisting":
+                        writes.add("delete " + ((Set<?>) args[0]).size());
+                        stored.keySet().removeAll((Set<?>) args[0]);
+                        return null;
+                    case "addAll":
+                        writes.add("add " + ((Collection<?>) args[0]).size());
+                        for (final TagDto dto : (Collection<TagDto>) args[0]) {
+                            stored.put(dto.getId(), dto);
+                        }
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static TagDto tag(final String name, final String label) {
+        final TagDto tag = new TagDto();
+        tag.setId(EidFactory.getDefault().createUUID(name));
+        tag.setLabel(label);
+        tag.setDescription("Tag " + name);
+        return tag;
+    }
+
+    @Test
+    public void missingDtosAreWritten() throws Exception {
+        assertEquals(2, TeDtoUpsert.upsert(dao, Arrays.asList(tag("a", "A"), tag("b", "B")), LABEL));
+        assertEquals(Arrays.asList("delete 2", "add 2"), writes);
+        assertEquals(2, stored.size());
+    }
+
+    @Test
+    public void unchangedDtosAreSkipped() throws Exception {
+        TeDtoUpsert.upsert(dao, Arrays.asList(tag("a", "A"), tag("b", "B")), LABEL);
+        writes.clear();
+
+        assertEquals(0, TeDtoUpsert.upsert(dao, Arrays.asList(tag("a", "A"), tag("b", "B")), LABEL));
+        assertEquals(0, TeDtoUpsert.upsert(dao, tag("a", "A"), LABEL));
+        assertTrue(writes.isEmpty());
+    }
+
+    @Test
+    public void changedDtosAreReplaced() throws Exception {
+        TeDtoUpsert.upsert(dao, Arrays.asList(tag("a", "A"), tag("b", "B")), LABEL);
+        writes.clear();
+
+        final TagDto changed = tag("b", "B2");
+        assertEquals(1, TeDtoUpsert.upsert(dao, Arrays.asList(tag("a", "A"), changed), LABEL));
+        assertEquals(Arrays.asList("delete 1", "add 1"), writes);
+        assertSame(changed, stored.get(changed.getId()));
+        assertEquals("A", stored.get(tag("a", "A").getId()).getLabel());
+    }
+}
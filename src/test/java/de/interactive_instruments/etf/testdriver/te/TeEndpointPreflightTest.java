@@ -0,0 +1,92 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeEndpointPreflightTest {
+
+    private static final int TIMEOUT = 1000;
+
+    private final TeXmlPool xmlPool = new TeXmlPool();
+    private TeStandInServer server;
+    private ExecutorService executor;
+    private TeEndpointPreflight preflight;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TeStandInServer();
+        executor = Executors.newCachedThreadPool();
+        preflight = new TeEndpointPreflight(TIMEOUT, xmlPool, TeExchanges.live(), executor);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private String failure(final String endpoint) {
+        try {
+            preflight.check(endpoint);
+        } catch (final TeEndpointPreflight.PreflightException e) {
+            return e.getMessage();
+        }
+        fail("PreflightException expected");
+        return null;
+    }
+
+    @Test
+    public void capabilities() throws Exception {
+        preflight.check(server.getServiceEndpoint());
+        preflight.check(server.getServiceEndpoint() + "&request=GetCapabilities");
+    }
+
+    @Test
+    public void wrongRootElement() {
+        // the suite list of the TEAM Engine is a XHTML page
+        assertTrue(failure(server.getTeamEngineUrl() + "rest/suites").contains("root element 'html'"));
+    }
+
+    @Test
+    public void wrongVersion() {
+        server.capabilitiesVersion("1.1.0");
+        assertTrue(failure(server.getServiceEndpoint()).contains("version '1.1.0', expected version 2.0"));
+    }
+
+    @Test
+    public void timeout() {
+        // every single read completes within the timeout, the whole document does not
+        server.capabilitiesThroughput(20);
+        final long start = System.currentTimeMillis();
+        assertTrue(failure(server.getServiceEndpoint()).contains("did not respond within 1 seconds"));
+        assertTrue(System.currentTimeMillis() - start < 2 * TIMEOUT);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeErrorPagesTest {
+
+    private static String page(final int paragraphs) {
+        final StringBuilder page = new StringBuilder("<html><body>");
+        for (int i = 0; i < paragraphs; i++) {
+            page.append("<p>Service unavailable, paragraph ").append(i).append("</p>");
+        }
+        return page.append("</body></html>").toString();
+    }
+
+    @Test
+    public void repeatedPages() {
+        final TeErrorPages errorPages = new TeErrorPages(4096);
+        final String html = page(200);
+
+        final TeErrorPages.ErrorPage first = errorPages.capture(html, "task1");
+        assertFalse(first.isExcerpt());
+        assertEquals(4096, first.getContent().length);
+        assertTrue(first.getMessage().startsWith("Service unavailable, paragraph 0"));
+
+        // later tasks get the message, an excerpt and a reference to the first task
+        final TeErrorPages.ErrorPage second = errorPages.capture(html, "task2");
+        assertTrue(second.isExcerpt());
+        assertEquals(2, second.getOccurrences());
+        assertEquals("task1", second.getFirstTaskId());
+        assertEquals(first.getMessage(), second.getMessage());
+        assertEquals(1024, second.getContent().length);
+
+        assertFalse(errorPages.capture(page(3), "task3").isExcerpt());
+        assertNull(errorPages.capture(null, "task4"));
+    }
+
+    @Test
+    public void boundedRead() throws Exception {
+        final byte[] chunk = page(100).getBytes(StandardCharsets.UTF_8);
+        final AtomicLong sent = new AtomicLong();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            // an endless error page
+            exchange.sendResponseHeaders(503, 0);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                while (sent.get() < 64L * 1024 * 1024) {
+                    out.write(chunk);
+                    sent.addAndGet(chunk.length);
+                }
+            } catch (final Exception ignore) {
+                // closed by the client
+            }
+        });
+        server.start();
+        try {
+            final URI uri = new URI("http://127.0.0.1:" + server.getAddress().getPort() + "/run");
+            try {
+                TeExchanges.live().openStream(uri, null, 10000, "text/xml", 1000);
+                fail("StatusException expected");
+            } catch (final TeExchanges.StatusException e) {
+                assertEquals(503, e.getResponseCode());
+                assertEquals(1000, e.getErrorPage().length());
+                assertTrue(e.getErrorPage().startsWith("<html><body><p>Service unavailable"));
+            }
+            try {
+                TeExchanges.live().openStream(uri, null, 10000, "text/xml");
+                fail("StatusException expected");
+            } catch (final TeExchanges.StatusException e) {
+                assertNull(e.getErrorPage());
+            }
+            // the rest of the page has not been transferred
+            assertTrue(sent.get() < 64L * 1024 * 1024);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.dal.dto.test.TestCaseDto;
+import de.interactive_instruments.etf.dal.dto.test.TestModuleDto;
+import de.interactive_instruments.etf.dal.dto.test.TestStepDto;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeEtsDiffTest {
+
+    private static TestModuleDto module(final String name, final TestCaseDto... testCases) {
+        final TestModuleDto testModule = new TestModuleDto();
+        testModule.setId(EidFactory.getDefault().createUUID(name));
+        testModule.setLabel(name);
+        for (final TestCaseDto testCase : testCases) {
+            testCase.setParent(testModule);
+            testModule.addTestCase(testCase);
+        }
+        return testModule;
+    }
+
+    private static TestCaseDto testCase(final String name, final String... steps) {
+        final TestCaseDto testCase = new TestCaseDto();
+        testCase.setId(EidFactory.getDefault().createUUID(name));
+        testCase.setLabel(name);
+        for (final String step : steps) {
+            final TestStepDto testStep = new TestStepDto();
+            testStep.setId(EidFactory.getDefault().createUUID(name + step));
+            testStep.setLabel(step);
+            testStep.setParent(testCase);
+            testCase.addTestStep(testStep);
+        }
+        return testCase;
+    }
+
+    private static List<TestModuleDto> ets(final String... getFeatureSteps) {
+        return Arrays.asList(
+                module("wfs-basic",
+                        testCase("GetFeatureTests", getFeatureSteps),
+                        testCase("CapabilitiesTests", "getCapabilities")));
+    }
+
+    @Test
+    public void unchanged() {
+        final TeEtsDiff diff = new TeEtsDiff();
+        diff.merge(ets("getFeatureByType"), ets("getFeatureByType"));
+        assertFalse(diff.hasChanges());
+        assertEquals("0 items added, 0 removed, 0 changed, 5 unchanged", diff.toString());
+    }
+
+    @Test
+    public void addedAndRemovedItems() {
+        final TeEtsDiff diff = new TeEtsDiff();
+        diff.merge(ets("getFeatureByType", "getFeatureById"), ets("getFeatureByType", "getFeatureWithPaging"));
+        assertTrue(diff.hasChanges());
+        assertEquals("1 items added, 1 removed, 0 changed, 5 unchanged", diff.toString());
+
+        final TeEtsDiff newModule = new TeEtsDiff();
+        final List<TestModuleDto> updated = new ArrayList<>(ets("getFeatureByType"));
+        updated.add(module("wfs-transactions", testCase("InsertTests", "insert", "replace")));
+        newModule.merge(ets("getFeatureByType"), updated);
+        assertEquals("4 items added, 0 removed, 0 changed, 5 unchanged", newModule.toString());
+
+        final TeEtsDiff firstRun = new TeEtsDiff();
+        firstRun.merge(null, ets("getFeatureByType"));
+        assertTrue(firstRun.hasChanges());
+        assertEquals("5 items added, 0 removed, 0 changed, 0 unchanged", firstRun.toString());
+    }
+
+    @Test
+    public void changedAndReorderedItems() {
+        final List<TestModuleDto> updated = ets("getFeatureByType");
+        updated.get(0).getTestCases().get(0).setDescription("Tests of GetFeature requests");
+        final TeEtsDiff changed = new TeEtsDiff();
+        changed.merge(ets("getFeatureByType"), updated);
+        assertTrue(changed.hasChanges());
+        assertEquals("0 items added, 0 removed, 1 changed, 4 unchanged", changed.toString());
+
+        final TeEtsDiff reordered = new TeEtsDiff();
+        reordered.merge(ets("getFeatureByType", "getFeatureById"), ets("getFeatureById", "getFeatureByType"));
+        assertTrue(reordered.hasChanges());
+        assertEquals("0 items added, 0 removed, 0 changed, 6 unchanged", reordered.toString());
+    }
+
+    @Test
+    public void unchangedItemsAreReused() {
+        final List<TestModuleDto> current = ets("getFeatureByType", "getFeatureById");
+        final TeEtsDiff unchanged = new TeEtsDiff();
+        final List<TestModuleDto> same = unchanged.merge(current, ets("getFeatureByType", "getFeatureById"));
+        assertFalse(unchanged.hasChanges());
+        assertSame(current.get(0), same.get(0));
+
+        // only the changed subtree is new
+        final TeEtsDiff diff = new TeEtsDiff();
+        final List<TestModuleDto> merged = diff.merge(current, ets("getFeatureByType", "getFeatureWithPaging"));
+        assertTrue(diff.hasChanges());
+        final TestModuleDto testModule = merged.get(0);
+        assertNotSame(current.get(0), testModule);
+        final TestCaseDto getFeatureTests = testModule.getTestCases().get(0);
+        assertNotSame(current.get(0).getTestCases().get(0), getFeatureTests);
+        assertSame(current.get(0).getTestCases().get(0).getTestSteps().get(0), getFeatureTests.getTestSteps().get(0));
+        assertEquals("getFeatureWithPaging", getFeatureTests.getTestSteps().get(1).getLabel());
+        assertSame(current.get(0).getTestCases().get(1), testModule.getTestCases().get(1));
+    }
+
+    @Test
+    public void currentItemsAreNotModified() {
+        final List<TestModuleDto> current = ets("getFeatureByType");
+        final TestCaseDto currentTestCase = current.get(0).getTestCases().get(0);
+        final TestStepDto currentTestStep = currentTestCase.getTestSteps().get(0);
+        final List<TestModuleDto> updated = ets("getFeatureByType", "getFeatureById");
+
+        final TeEtsDiff diff = new TeEtsDiff();
+        diff.merge(current, updated);
+        assertTrue(diff.hasChanges());
+        assertSame(current.get(0), currentTestCase.getParent());
+        assertSame(currentTestCase, currentTestStep.getParent());
+        assertEquals(1, currentTestCase.getTestSteps().size());
+        assertEquals(2, current.get(0).getTestCases().size());
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeEtsIndexTest {
+
+    private static EID id(final String name) {
+        return EidFactory.getDefault().createUUID(name);
+    }
+
+    @Test
+    public void lookup() {
+        final TeEtsIndex.Builder builder = new TeEtsIndex.Builder("wfs20");
+        final int module = builder.add(TeEtsIndex.MODULE, -1, id("basic"), "basic", null);
+        final int testCase = builder.add(TeEtsIndex.CASE, module, id("GetFeatureTests"), "GetFeatureTests",
+                "Tests of GetFeature requests");
+        final int step = builder.add(TeEtsIndex.STEP, testCase, id("getFeatureByType"), "getFeatureByType", null);
+        final int config = builder.add(TeEtsIndex.STEP, testCase, id("setUp"), "setUp", null);
+        builder.config(config);
+        final TeEtsIndex index = builder.build("hash");
+
+        assertEquals(4, index.size());
+        assertEquals("hash", index.getStructureHash());
+        assertEquals(module, index.lookup("wfs20", "basic"));
+        assertEquals(testCase, index.lookup("basic", "GetFeatureTests"));
+        assertEquals(step, index.lookup("GetFeatureTests", "getFeatureByType"));
+        assertEquals(id("getFeatureByType").getId(), index.itemId("GetFeatureTests", "getFeatureByType"));
+        assertEquals(TeEtsIndex.CASE, index.level(testCase));
+        assertEquals(module, index.parent(testCase));
+        assertEquals("Tests of GetFeature requests", index.description(testCase));
+        assertNull(index.description(step));
+        assertFalse(index.isConfig(step));
+        assertTrue(index.isConfig(config));
+    }
+
+    @Test
+    public void unknownNames() {
+        final TeEtsIndex.Builder builder = new TeEtsIndex.Builder("wfs20");
+        builder.add(TeEtsIndex.MODULE, -1, id("basic"), "basic", null);
+        final TeEtsIndex index = builder.build("hash");
+        assertEquals(-1, index.lookup("wfs20", "transactions"));
+        // known name, other parent
+        assertEquals(-1, index.lookup("wfs11", "basic"));
+        assertEquals(-1, index.lookup(null, "basic"));
+        assertEquals(-1, index.lookup("wfs20", null));
+        assertNull(index.itemId("wfs20", "transactions"));
+
+        final TeEtsIndex empty = new TeEtsIndex.Builder(null).build("hash");
+        assertEquals(0, empty.size());
+        assertEquals(-1, empty.lookup("", "basic"));
+    }
+
+    @Test
+    public void collisions() {
+        // "Aa" and "BB" have the same hash code, so have all their concatenations
+        final String[] names = { "AaAa", "AaBB", "BBAa" };
+        final TeEtsIndex.Builder builder = new TeEtsIndex.Builder("suite");
+        final int module = builder.add(TeEtsIndex.MODULE, -1, id("m"), "m", null);
+        final int[] ordinals = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ordinals[i] = builder.add(TeEtsIndex.CASE, module, id(names[i]), names[i], null);
+        }
+        // same hash codes for the parent and the name
+        final int nested = builder.add(TeEtsIndex.STEP, ordinals[0], id("AaAa.AaBB"), "AaBB", null);
+        final TeEtsIndex index = builder.build("hash");
+
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(ordinals[i], index.lookup("m", names[i]));
+        }
+        assertEquals(nested, index.lookup("AaAa", "AaBB"));
+        assertEquals(-1, index.lookup("AaBB", "AaBB"));
+        // probes all colliding slots and ends at an empty one
+        assertEquals(-1, index.lookup("m", "BBBB"));
+    }
+
+    @Test
+    public void duplicates() {
+        // a repeated invocation of a test-method is added again with the same ID
+        final TeEtsIndex.Builder builder = new TeEtsIndex.Builder("suite");
+        final int module = builder.add(TeEtsIndex.MODULE, -1, id("m"), "m", null);
+        final int testCase = builder.add(TeEtsIndex.CASE, module, id("c"), "c", null);
+        final int first = builder.add(TeEtsIndex.STEP, testCase, id("c.step"), "step", null);
+        final int second = builder.add(TeEtsIndex.STEP, testCase, id("c.step"), "step", null);
+        final TeEtsIndex index = builder.build("hash");
+
+        assertEquals(4, index.size());
+        assertNotEquals(first, second);
+        // the first one is found
+        assertEquals(first, index.lookup("c", "step"));
+        assertEquals(index.itemId(first), index.itemId(second));
+        assertEquals("step", index.name(second));
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.XmlUtils;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * Heap budget of the ETS model and of the index, which is kept in addition to
+ * the model.
+ *
+ * The retained heap is measured with snapshots after garbage collections, which
+ * are only meaningful in a JVM of its own. The test is not part of the default
+ * test task, it runs in the forked retentionTest task that "gradlew check" depends on.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeEtsModelRetentionTest {
+
+    // retained bytes per test-method of the ETS model and its index
+    private static final long RETAINED_BUDGET_PER_TEST_METHOD = 4 * 1024;
+    // retained bytes per test-method of the index alone, the names are shared with the model
+    private static final long INDEX_BUDGET_PER_TEST_METHOD = 128;
+    private static final int TEST_MODULES = 9;
+    private static final int CLASSES_PER_MODULE = 20;
+
+    private static final Logger logger = LoggerFactory.getLogger(TeEtsModelRetentionTest.class);
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, memoryBean.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    private static TeTestNgResultGenerator generator() {
+        return new TeTestNgResultGenerator()
+                .testModules(TEST_MODULES)
+                .classesPerModule(CLASSES_PER_MODULE)
+                .testMethodsPerClass(50)
+                .attachments(2, 1024);
+    }
+
+    private static Document parse(final TeTestNgResultGenerator generator) throws Exception {
+        final TeXmlPool xmlPool = new TeXmlPool();
+        final Document document = xmlPool.parse(new ByteArrayInputStream(generator.toByteArray()));
+        xmlPool.release();
+        return document;
+    }
+
+    @Test
+    public void retainedEtsModelBudget() throws Exception {
+        final TeTestNgResultGenerator generator = generator();
+        final long testMethods = generator.getTestMethodCount();
+        final Document document = parse(generator);
+        final ExecutableTestSuiteDto ets = TeIngestionAllocationTest.ets();
+
+        final long before = usedHeapAfterGc();
+        final TeTypeLoader typeLoader = TeIngestionAllocationTest.typeLoader();
+        typeLoader.updateEtsFromResult(ets, document);
+        final long retained = usedHeapAfterGc() - before;
+        // the loader holds the model and the index of the ETS
+        assertNotNull(typeLoader.getEtsIndex(ets.getId()));
+        logger.info("The ETS model of {} test-methods retains {} bytes, {} per test-method",
+                testMethods, retained, retained / testMethods);
+        assertTrue("The ETS model of " + testMethods + " test-methods retains " + retained
+                + " bytes, the budget is " + RETAINED_BUDGET_PER_TEST_METHOD + " bytes per test-method",
+                retained <= RETAINED_BUDGET_PER_TEST_METHOD * testMethods);
+    }
+
+    @Test
+    public void retainedEtsIndexBudget() throws Exception {
+        final TeTestNgResultGenerator generator = generator();
+        final long testMethods = generator.getTestMethodCount();
+        final Document document = parse(generator);
+        final Node suite = XmlUtils.getFirstChildNodeOfType(document.getDocumentElement(), ELEMENT_NODE, "suite");
+
+        final long before = usedHeapAfterGc();
+        final TeEtsIndex index = index(suite);
+        final long retained = usedHeapAfterGc() - before;
+        // the test-methods, configuration methods, classes and tests
+        assertTrue(index.size() > TEST_MODULES + TEST_MODULES * CLASSES_PER_MODULE + testMethods);
+        logger.info("The index of {} test-methods retains {} bytes, {} per test-method",
+                testMethods, retained, retained / testMethods);
+        assertTrue("The index of " + testMethods + " test-methods retains " + retained
+                + " bytes, the budget is " + INDEX_BUDGET_PER_TEST_METHOD + " bytes per test-method",
+                retained <= INDEX_BUDGET_PER_TEST_METHOD * testMethods);
+    }
+
+    /**
+     * Build the index like the type loader, with the names of the document
+     */
+    private static TeEtsIndex index(final Node suite) {
+        final TeEtsIndex.Builder builder = new TeEtsIndex.Builder(XmlUtils.getAttribute(suite, "name"));
+        int count = 0;
+        for (Node test = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); test != null; test = XmlUtils.getNextSiblingOfType(test, ELEMENT_NODE, "test")) {
+            final int module = add(builder, test, TeEtsIndex.MODULE, -1, count++);
+            for (Node testClass = XmlUtils.getFirstChildNodeOfType(test, ELEMENT_NODE,
+                    "class"); testClass != null; testClass = XmlUtils.getNextSiblingOfType(testClass, ELEMENT_NODE,
+                            "class")) {
+                final int testCase = add(builder, testClass, TeEtsIndex.CASE, module, count++);
+                for (Node testMethod = XmlUtils.getFirstChildNodeOfType(testClass, ELEMENT_NODE,
+                        "test-method"); testMethod != null; testMethod = XmlUtils.getNextSiblingOfType(testMethod,
+                                ELEMENT_NODE, "test-method")) {
+                    add(builder, testMethod, TeEtsIndex.STEP, testCase, count++);
+                }
+            }
+        }
+        return builder.build("hash");
+    }
+
+    private static int add(final TeEtsIndex.Builder builder, final Node node, final byte level, final int parent,
+            final int count) {
+        return builder.add(level, parent, EidFactory.getDefault().createUUID(String.valueOf(count)),
+                XmlUtils.getAttribute(node, "name"), XmlUtils.getAttribute(node, "description"));
+    }
+}
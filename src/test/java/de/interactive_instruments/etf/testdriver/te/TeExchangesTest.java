@@ -0,0 +1,173 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeExchangesTest {
+
+    private static final long LATENCY = 400;
+    private static final byte[] RESULT = "<testng-results total=\"0\" passed=\"0\" failed=\"0\" skipped=\"0\"/>"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static Path archive;
+    private static URI suites;
+    private static URI run;
+    private static URI unreachable;
+    private static String suiteList;
+
+    /**
+     * Record a successful run, a rejected run, a suite list and a failed connection
+     */
+    @BeforeClass
+    public static void record() throws Exception {
+        archive = Files.createTempFile("etf-tetd-exchanges", ".zip");
+        try (final TeStandInServer server = new TeStandInServer().result(RESULT).latency(LATENCY)) {
+            suites = URI.create(server.getTeamEngineUrl() + "rest/suites");
+            run = URI.create(server.getTeamEngineUrl() + "rest/suites/" + TeStandInServer.SUITE_NAME + "/"
+                    + TeStandInServer.SUITE_VERSION + "/run?wfs=x");
+            unreachable = URI.create("http://127.0.0.1:1/wfs");
+            final TeExchanges exchanges = TeExchanges.record(archive);
+            try {
+                assertTrue(exchanges.exists(suites, null));
+                suiteList = exchanges.loadAsString(suites, null);
+                try (final InputStream in = exchanges.openStream(run, null, 10000, "text/xml")) {
+                    assertArrayEquals(RESULT, IOUtils.toByteArray(in));
+                }
+                server.latency(0).fault(TeStandInServer.Fault.SERVER_ERROR, 1);
+                assertStatus(503, exchanges, "application/rdf+xml");
+                try {
+                    exchanges.openStream(unreachable, null, 10000, "application/xml");
+                    fail("IOException expected");
+                } catch (final IOException expected) {
+                    // nothing listens on the port
+                }
+            } finally {
+                exchanges.release();
+            }
+        }
+    }
+
+    @AfterClass
+    public static void deleteArchive() throws IOException {
+        Files.deleteIfExists(archive);
+    }
+
+    private static void assertStatus(final int status, final TeExchanges exchanges, final String accept)
+            throws IOException {
+        try {
+            exchanges.openStream(run, null, 10000, accept, 1000).close();
+            fail("StatusException expected");
+        } catch (final TeExchanges.StatusException e) {
+            assertEquals(status, e.getResponseCode());
+            assertTrue(e.getErrorPage().contains("The TEAM Engine stand-in is not available."));
+        }
+    }
+
+    @Test
+    public void recordedContentType() throws Exception {
+        try (final ZipFile zip = new ZipFile(archive.toFile())) {
+            int streams = 0;
+            for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(TeExchanges.EXCHANGE_SUFFIX)) {
+                    continue;
+                }
+                final Properties exchange = new Properties();
+                try (final InputStream in = zip.getInputStream(entry)) {
+                    exchange.load(in);
+                }
+                if ("text/xml".equals(exchange.getProperty(TeExchanges.ACCEPT))) {
+                    // the type of the response, not the requested one
+                    assertEquals("application/xml", exchange.getProperty(TeExchanges.CONTENT_TYPE));
+                    assertEquals("200", exchange.getProperty(TeExchanges.STATUS));
+                    streams++;
+                }
+            }
+            assertEquals(1, streams);
+        }
+    }
+
+    @Test
+    public void replay() throws Exception {
+        final TeExchanges exchanges = TeExchanges.replay(archive, 0);
+        try {
+            assertTrue(exchanges.exists(suites, null));
+            assertEquals(suiteList, exchanges.loadAsString(suites, null));
+
+            // told apart by the requested media type, not by the order
+            assertStatus(503, exchanges, "application/rdf+xml");
+            try (final InputStream in = exchanges.openStream(run, null, 10000, "text/xml")) {
+                assertArrayEquals(RESULT, IOUtils.toByteArray(in));
+            }
+            assertStatus(503, exchanges, "application/rdf+xml");
+
+            // the recorded failure drops the connection
+            try {
+                exchanges.openStream(unreachable, null, 10000, "application/xml").close();
+                fail("IOException expected");
+            } catch (final TeExchanges.StatusException e) {
+                fail("The connection failure must not be replayed as a status");
+            } catch (final IOException expected) {
+                // no response
+            }
+        } finally {
+            exchanges.release();
+        }
+    }
+
+    @Test
+    public void replaySpeed() throws Exception {
+        assertTrue(replayMillis(1) >= LATENCY - 50);
+        assertTrue(replayMillis(8) < LATENCY - 100);
+    }
+
+    private static long replayMillis(final double speed) throws Exception {
+        final TeExchanges exchanges = TeExchanges.replay(archive, speed);
+        try {
+            final long start = System.currentTimeMillis();
+            try (final InputStream in = exchanges.openStream(run, null, 10000, "text/xml")) {
+                assertArrayEquals(RESULT, IOUtils.toByteArray(in));
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            exchanges.release();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.XmlUtils;
+import de.interactive_instruments.etf.dal.dao.DataStorage;
+import de.interactive_instruments.etf.dal.dao.WriteDao;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.etf.testdriver.TestResultCollector;
+
+/**
+ * Allocation budgets of the result ingestion.
+ *
+ * Parsing, updating the ETS model and mapping a generated result are measured
+ * with the allocated bytes counter of the current thread, for results with an
+ * increasing number of test-methods and with increasing attachment sizes. The
+ * allocations per test-method and per attachment byte must stay within the
+ * budgets and must not grow with the size of the result.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeIngestionAllocationTest {
+
+    // number of test modules of the inputs, with 1000 test-methods each
+    private static final int[] TEST_MODULES = {1, 3, 9};
+    // allocated bytes per byte of the result for building the DOM
+    private static final double PARSE_BUDGET_PER_BYTE = 16;
+    // allocated bytes per test-method for updating the ETS model from a result
+    private static final long ETS_UPDATE_BUDGET_PER_TEST_METHOD = 8 * 1024;
+    // allocated bytes per test-method without attachments for mapping a result to collector calls and applying them
+    private static final long MAP_BUDGET_PER_TEST_METHOD = 8 * 1024;
+    // response attachment sizes of the inputs with 20 test-methods, the attachments are read by the collector
+    private static final int[] ATTACHMENT_SIZES = {4 * 1024, 32 * 1024, 256 * 1024};
+    // allocated bytes per additional attachment byte of the result, attachments are checked and encoded in
+    // chunks, so a copy of an attachment exceeds the budget
+    private static final double MAP_BUDGET_PER_ATTACHMENT_BYTE = 0.5;
+    // the allocations per test-method of the largest input may exceed the ones of the smallest input by this factor
+    private static final double MAX_GROWTH = 1.5;
+
+    private static final Logger logger = LoggerFactory.getLogger(TeIngestionAllocationTest.class);
+    private static com.sun.management.ThreadMXBean threadBean;
+    private static TeXmlPool xmlPool;
+
+    /**
+     * A measured input
+     */
+    private static final class Input {
+        private final int testMethods;
+        private final byte[] result;
+        private final Document document;
+
+        private Input(final int testModules) throws Exception {
+            this(testModules, 20, 50, 2, 1024);
+        }
+
+        private Input(final int testModules, final int classesPerModule, final int testMethodsPerClass,
+                final int attachments, final int attachmentSize) throws Exception {
+            final TeTestNgResultGenerator generator = new TeTestNgResultGenerator()
+                    .testModules(testModules)
+                    .classesPerModule(classesPerModule)
+                    .testMethodsPerClass(testMethodsPerClass)
+                    .attachments(attachments, attachmentSize);
+            this.testMethods = (int) generator.getTestMethodCount();
+            this.result = generator.toByteArray();
+            this.document = xmlPool.parse(new ByteArrayInputStream(result));
+        }
+    }
+
+    private interface Measured {
+        void run() throws Exception;
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocated bytes counters are not supported by the JVM",
+                bean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        xmlPool = new TeXmlPool();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        if (xmlPool != null) {
+            xmlPool.release();
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread, the lowest of two runs
+     * after a warm-up run
+     */
+    private static long allocatedBytes(final Measured measured) throws Exception {
+        measured.run();
+        long lowest = Long.MAX_VALUE;
+        for (int i = 0; i < 2; i++) {
+            final long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            measured.run();
+            lowest = Math.min(lowest, threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+        }
+        return lowest;
+    }
+
+    private static Object discardingProxy(final Class<?> type) {
+        return Proxy.newProxyInstance(TeIngestionAllocationTest.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (args != null && args.length > 0 && args[0] instanceof InputStream) {
+                        // attachments are read completely, as by a collector that writes them to files
+                        IOUtils.skip((InputStream) args[0], Long.MAX_VALUE);
+                    }
+                    if (method.getName().equals("getDao")) {
+                        return discardingProxy(WriteDao.class);
+                    }
+                    if (method.getReturnType() == String.class) {
+                        return "";
+                    }
+                    if (method.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    if (method.getReturnType().isPrimitive()) {
+                        return method.getReturnType() == void.class ? null : 0;
+                    }
+                    return null;
+                });
+    }
+
+    static TeTypeLoader typeLoader() {
+        return new TeTypeLoader((DataStorage) discardingProxy(DataStorage.class),
+                URI.create("http://localhost/teamengine/"), null, TeExchanges.live(), new TeStringPool(16384), null);
+    }
+
+    static ExecutableTestSuiteDto ets() {
+        final ExecutableTestSuiteDto ets = new ExecutableTestSuiteDto();
+        ets.setId(EidFactory.getDefault().createUUID("http://localhost/teamengine/rest/suites/allocation/"));
+        ets.setLabel("Allocation");
+        return ets;
+    }
+
+    /**
+     * Extract and map all test modules and apply the calls to a collector that
+     * discards them, as done by the test task with the index of the ETS
+     */
+    private static void mapResult(final Document document, final TeEtsIndex etsIndex,
+            final TestResultCollector collector) throws Exception {
+        final Node suite = XmlUtils.getFirstChildNodeOfType(document.getDocumentElement(), ELEMENT_NODE, "suite");
+        final String suiteName = XmlUtils.getAttribute(suite, "name");
+        for (Node testModule = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+            final List<TeCollectorWriter.Call> calls = TeModuleResult.extract(suiteName, testModule)
+                    .map(etsIndex::itemId, xmlPool, "allocation");
+            for (final TeCollectorWriter.Call call : calls) {
+                call.apply(collector);
+            }
+        }
+    }
+
+    private static void assertBudget(final String step, final long[] allocatedPerTestMethod, final long budget) {
+        for (int i = 0; i < TEST_MODULES.length; i++) {
+            assertTrue(step + " of " + TEST_MODULES[i] * 1000 + " test-methods allocates "
+                    + allocatedPerTestMethod[i] + " bytes per test-method, the budget is " + budget,
+                    allocatedPerTestMethod[i] <= budget);
+        }
+        final long smallest = allocatedPerTestMethod[0];
+        final long largest = allocatedPerTestMethod[TEST_MODULES.length - 1];
+        assertTrue(step + " allocates " + largest + " bytes per test-method for the largest input but only "
+                + smallest + " for the smallest, the allocations grow faster than the number of test-methods",
+                largest <= smallest * MAX_GROWTH);
+    }
+
+    @Test
+    public void parseBudget() throws Exception {
+        final long[] perTestMethod = new long[TEST_MODULES.length];
+        for (int i = 0; i < TEST_MODULES.length; i++) {
+            final Input input = new Input(TEST_MODULES[i]);
+            final long allocated = allocatedBytes(() -> xmlPool.parse(new ByteArrayInputStream(input.result)));
+            logger.info("Parsing {} test-methods ({} bytes) allocates {} bytes, {} per byte of the result",
+                    input.testMethods, input.result.length, allocated,
+                    String.format("%.2f", (double) allocated / input.result.length));
+            assertTrue("Parsing a result of " + input.result.length + " bytes allocates " + allocated
+                    + " bytes, the budget is " + PARSE_BUDGET_PER_BYTE + " bytes per byte",
+                    allocated <= input.result.length * PARSE_BUDGET_PER_BYTE);
+            perTestMethod[i] = allocated / input.testMethods;
+        }
+        final long smallest = perTestMethod[0];
+        final long largest = perTestMethod[TEST_MODULES.length - 1];
+        assertTrue("Parsing allocates " + largest + " bytes per test-method for the largest input but only "
+                + smallest + " for the smallest", largest <= smallest * MAX_GROWTH);
+    }
+
+    @Test
+    public void etsUpdateBudget() throws Exception {
+        final long[] perTestMethod = new long[TEST_MODULES.length];
+        for (int i = 0; i < TEST_MODULES.length; i++) {
+            final Input input = new Input(TEST_MODULES[i]);
+            final ExecutableTestSuiteDto ets = ets();
+            // a new loader for every run, as the first update of an ETS builds the complete model
+            final long allocated = allocatedBytes(() -> typeLoader().updateEtsFromResult(ets, input.document));
+            perTestMethod[i] = allocated / input.testMethods;
+            logger.info("Updating the ETS model from {} test-methods allocates {} bytes, {} per test-method",
+                    input.testMethods, allocated, perTestMethod[i]);
+        }
+        assertBudget("Updating the ETS model", perTestMethod, ETS_UPDATE_BUDGET_PER_TEST_METHOD);
+    }
+
+    /**
+     * Returns the bytes allocated for mapping the input
+     */
+    private static long mapAllocatedBytes(final Input input) throws Exception {
+        final TestResultCollector collector = (TestResultCollector) discardingProxy(TestResultCollector.class);
+        final ExecutableTestSuiteDto ets = ets();
+        final TeTypeLoader typeLoader = typeLoader();
+        typeLoader.updateEtsFromResult(ets, input.document);
+        final TeEtsIndex etsIndex = typeLoader.getEtsIndex(ets.getId());
+        return allocatedBytes(() -> mapResult(input.document, etsIndex, collector));
+    }
+
+    @Test
+    public void mapBudget() throws Exception {
+        final long[] perTestMethod = new long[TEST_MODULES.length];
+        for (int i = 0; i < TEST_MODULES.length; i++) {
+            final Input input = new Input(TEST_MODULES[i], 20, 50, 0, 0);
+            final long allocated = mapAllocatedBytes(input);
+            perTestMethod[i] = allocated / input.testMethods;
+            logger.info("Mapping {} test-methods allocates {} bytes, {} per test-method",
+                    input.testMethods, allocated, perTestMethod[i]);
+        }
+        assertBudget("Mapping the result", perTestMethod, MAP_BUDGET_PER_TEST_METHOD);
+    }
+
+    @Test
+    public void mapAttachmentBudget() throws Exception {
+        final long[] allocated = new long[ATTACHMENT_SIZES.length];
+        final long[] resultBytes = new long[ATTACHMENT_SIZES.length];
+        for (int i = 0; i < ATTACHMENT_SIZES.length; i++) {
+            final Input input = new Input(1, 2, 10, 2, ATTACHMENT_SIZES[i]);
+            allocated[i] = mapAllocatedBytes(input);
+            resultBytes[i] = input.result.length;
+            logger.info("Mapping {} test-methods with attachments of {} bytes allocates {} bytes",
+                    input.testMethods, ATTACHMENT_SIZES[i], allocated[i]);
+        }
+        // the allocations for each additional attachment byte, the ones per attachment and test-method cancel out
+        for (int i = 1; i < ATTACHMENT_SIZES.length; i++) {
+            final double perAttachmentByte = (double) (allocated[i] - allocated[i - 1])
+                    / (resultBytes[i] - resultBytes[i - 1]);
+            assertTrue("Mapping attachments of " + ATTACHMENT_SIZES[i] + " instead of " + ATTACHMENT_SIZES[i - 1]
+                    + " bytes allocates " + String.format("%.2f", perAttachmentByte) + " bytes per additional "
+                    + "attachment byte, the budget is " + MAP_BUDGET_PER_ATTACHMENT_BYTE,
+                    perAttachmentByte <= MAP_BUDGET_PER_ATTACHMENT_BYTE);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeMetricsTest {
+
+    private static EID id(final String name) {
+        return EidFactory.getDefault().createUUID(name);
+    }
+
+    @Test
+    public void histograms() {
+        final TeMetrics metrics = new TeMetrics();
+        final EID etsId = id("ets");
+        for (int i = 1; i <= 10; i++) {
+            metrics.record(TeMetrics.Phase.PARSE, etsId, "te1", i);
+        }
+        metrics.record(TeMetrics.Phase.TRANSFER, etsId, "te1", -5);
+        final SortedMap<String, Number> snapshot = metrics.snapshot();
+        final String parse = "{ets=\"" + etsId.getId() + "\",host=\"te1\",phase=\"parse\"}";
+        assertEquals(10L, snapshot.get("te_phase_duration_ms_count" + parse));
+        assertEquals(55L, snapshot.get("te_phase_duration_ms_sum" + parse));
+        assertEquals(10L, snapshot.get("te_phase_duration_ms_max" + parse));
+        // upper bound of the bucket with the median
+        assertEquals(7L, snapshot.get("te_phase_duration_ms_p50" + parse));
+        // not more than the maximum
+        assertEquals(10L, snapshot.get("te_phase_duration_ms_p95" + parse));
+        // negative durations are recorded as 0
+        assertEquals(0L, snapshot.get("te_phase_duration_ms_max{ets=\"" + etsId.getId()
+                + "\",host=\"te1\",phase=\"transfer\"}"));
+    }
+
+    @Test
+    public void countersAndTasks() {
+        final TeMetrics metrics = new TeMetrics();
+        final EID etsId = id("ets");
+        metrics.count(TeMetrics.Counter.BYTES_RECEIVED, etsId, "te1", 100);
+        metrics.count(TeMetrics.Counter.BYTES_RECEIVED, etsId, "te1", 50);
+        metrics.count(TeMetrics.Counter.ATTACHMENTS_SAVED, etsId, "te1", 0);
+        metrics.taskStarted("te1");
+        metrics.taskStarted("te1");
+        metrics.taskFinished("te1");
+        metrics.taskFinished("te2");
+        final SortedMap<String, Number> snapshot = metrics.snapshot();
+        assertEquals(150L, snapshot.get("te_bytes_received_total{ets=\"" + etsId.getId() + "\",host=\"te1\"}"));
+        assertEquals(1, snapshot.get("te_tasks_in_flight{host=\"te1\"}"));
+        assertFalse(snapshot.containsKey("te_tasks_in_flight{host=\"te2\"}"));
+        assertEquals(2, snapshot.size());
+    }
+
+    @Test
+    public void boundedEtsTags() {
+        final TeMetrics metrics = new TeMetrics();
+        for (int i = 0; i < TeMetrics.MAX_ETS_TAGS + 10; i++) {
+            metrics.count(TeMetrics.Counter.TEST_METHODS_MAPPED, id("ets" + i), "te1", 1);
+        }
+        // already tagged ETS keep their tag
+        metrics.count(TeMetrics.Counter.TEST_METHODS_MAPPED, id("ets0"), "te1", 1);
+        final SortedMap<String, Number> snapshot = metrics.snapshot();
+        assertEquals(TeMetrics.MAX_ETS_TAGS + 1, snapshot.size());
+        assertEquals(10L, snapshot.get("te_test_methods_mapped_total{ets=\"" + TeMetrics.OTHER_ETS
+                + "\",host=\"te1\"}"));
+        assertEquals(2L, snapshot.get("te_test_methods_mapped_total{ets=\"" + id("ets0").getId()
+                + "\",host=\"te1\"}"));
+    }
+}
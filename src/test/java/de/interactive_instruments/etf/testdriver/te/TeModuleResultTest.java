@@ -0,0 +1,89 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.XmlUtils;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeModuleResultTest {
+
+    private static int extractAndMap(final Node testModule, final TeXmlPool xmlPool) {
+        return TeModuleResult.extract("generated", testModule, null)
+                .map((parentName, name) -> parentName + "/" + name, xmlPool, "task").size();
+    }
+
+    @Test
+    public void concurrentExtraction() throws Exception {
+        final TeTestNgResultGenerator generator = new TeTestNgResultGenerator()
+                .testModules(8)
+                .classesPerModule(10)
+                .testMethodsPerClass(10)
+                .configStepsPerClass(1)
+                .statusMix(0.2, 0.2)
+                .attachments(2, 500);
+        final TeXmlPool xmlPool = new TeXmlPool();
+        assertTrue(xmlPool.isConcurrentlyReadable());
+        final Document expectedDocument = xmlPool.parse(new ByteArrayInputStream(generator.toByteArray()));
+        final List<Integer> expected = new ArrayList<>();
+        for (Node testModule = XmlUtils.getFirstChildNodeOfType(XmlUtils.getFirstChildNodeOfType(
+                expectedDocument.getDocumentElement(), ELEMENT_NODE, "suite"), ELEMENT_NODE, "test"); testModule != null;
+                testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+            expected.add(extractAndMap(testModule, xmlPool));
+        }
+
+        // all modules of a freshly parsed DOM are read by several threads at once
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int run = 0; run < 10; run++) {
+                final Document document = xmlPool.parse(new ByteArrayInputStream(generator.toByteArray()));
+                final List<Future<Integer>> calls = new ArrayList<>();
+                for (Node testModule = XmlUtils.getFirstChildNodeOfType(XmlUtils.getFirstChildNodeOfType(
+                        document.getDocumentElement(), ELEMENT_NODE, "suite"), ELEMENT_NODE, "test"); testModule != null;
+                        testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+                    final Node module = testModule;
+                    calls.add(executor.submit(() -> extractAndMap(module, xmlPool)));
+                }
+                assertEquals(expected.size(), calls.size());
+                for (int i = 0; i < calls.size(); i++) {
+                    assertEquals(expected.get(i), calls.get(i).get());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            xmlPool.release();
+        }
+    }
+}
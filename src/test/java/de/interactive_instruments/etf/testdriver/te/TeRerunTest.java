@@ -0,0 +1,144 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeRerunTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(TeRerunTest.class);
+    private static final EID ETS_ID = EidFactory.getDefault().createUUID("rerun-ets");
+    private static final String ENDPOINT = "http://example.com/wfs";
+
+    private final TeXmlPool xmlPool = new TeXmlPool();
+    private Path directory;
+    private TeRerun rerun;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("etf-tetd-rerun");
+        rerun = new TeRerun(directory, "classes", 2, xmlPool);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+        xmlPool.release();
+    }
+
+    private static String testMethod(final String name, final String status, final String time) {
+        return "<test-method name=\"" + name + "\" status=\"" + status + "\" started-at=\"" + time
+                + "\" finished-at=\"" + time + "\"/>";
+    }
+
+    private Document result(final String time, final String... classes) throws Exception {
+        final StringBuilder xml = new StringBuilder("<testng-results><suite name=\"wfs20\" started-at=\"")
+                .append(time).append("\" finished-at=\"").append(time).append("\"><test name=\"wfs-basic\""
+                        + " started-at=\"").append(time).append("\" finished-at=\"").append(time).append("\">");
+        for (final String testClass : classes) {
+            final String[] nameAndStatus = testClass.split(":");
+            xml.append("<class name=\"").append(nameAndStatus[0]).append("\">")
+                    .append(testMethod("check", nameAndStatus[1], time)).append("</class>");
+        }
+        xml.append("</test></suite></testng-results>");
+        return xmlPool.parse(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static TeRerun.Key key(final String structure) {
+        return new TeRerun.Key(ETS_ID, "1.32.0", structure, ENDPOINT);
+    }
+
+    @Test
+    public void onlyKeptResultsWithTheSameKeyAreSelected() throws Exception {
+        assertNull(rerun.select(logger, "task1", key("s1")));
+
+        rerun.store("task1", key("s1"), result("2019-01-01T10:00:00Z", "a:PASS", "b:FAIL", "c:SKIP"));
+        final TeRerun.Selection selection = rerun.select(logger, "task1", key("s1"));
+        assertNotNull(selection);
+        assertEquals(Arrays.asList("b", "c"), Arrays.asList(selection.getClassNames().toArray()));
+        assertEquals("&classes=b%2Cc", selection.getQuery());
+
+        // the ETS structure or version, or the endpoint changed
+        assertNull(rerun.select(logger, "task1", key("s2")));
+        assertNull(rerun.select(logger, "task1", new TeRerun.Key(ETS_ID, "1.33.0", "s1", ENDPOINT)));
+        assertNull(rerun.select(logger, "task1", new TeRerun.Key(ETS_ID, "1.32.0", "s1", "http://example.com/x")));
+        assertNull(rerun.select(logger, "task2", key("s1")));
+
+        // all classes passed
+        rerun.store("task2", key("s1"), result("2019-01-01T10:00:00Z", "a:PASS"));
+        assertNull(rerun.select(logger, "task2", key("s1")));
+
+        // the oldest results are deleted
+        rerun.store("task3", key("s1"), result("2019-01-01T10:00:00Z", "a:FAIL"));
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.xml")) {
+            int results = 0;
+            for (final Path ignored : files) {
+                results++;
+            }
+            assertEquals(2, results);
+        }
+    }
+
+    @Test
+    public void mergeUsesTheNewTimestamps() throws Exception {
+        rerun.store("task1", key("s1"), result("2019-01-01T10:00:00Z", "a:PASS", "b:FAIL"));
+        final TeRerun.Selection selection = rerun.select(logger, "task1", key("s1"));
+        final Document merged = TeRerun.merge(selection, result("2019-02-01T10:00:00Z", "b:PASS"));
+
+        final Element root = merged.getDocumentElement();
+        assertEquals("2", root.getAttribute("passed"));
+        assertEquals("0", root.getAttribute("failed"));
+        final Element suite = (Element) merged.getElementsByTagName("suite").item(0);
+        assertEquals("2019-02-01T10:00:00Z", suite.getAttribute("started-at"));
+        assertEquals("2019-02-01T10:00:00Z",
+                ((Element) merged.getElementsByTagName("test").item(0)).getAttribute("finished-at"));
+        final NodeList testMethods = merged.getElementsByTagName("test-method");
+        // the copied class keeps its previous result
+        assertEquals("2019-01-01T10:00:00Z", ((Element) testMethods.item(0)).getAttribute("started-at"));
+        assertEquals("2019-02-01T10:00:00Z", ((Element) testMethods.item(1)).getAttribute("started-at"));
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import de.interactive_instruments.XmlUtils;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeResultFormatsTest {
+
+    private static final TeXmlPool xmlPool = new TeXmlPool();
+
+    // assertions in another order than the model, with referenced and nested resources
+    private static final String EARL_RESULT = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+            + " xmlns:earl=\"http://www.w3.org/ns/earl#\" xmlns:dct=\"http://purl.org/dc/terms/\""
+            + " xmlns:http=\"http://www.w3.org/2011/http#\" xmlns:cnt=\"http://www.w3.org/2011/content#\">"
+            + "<earl:TestRequirement rdf:about=\"wfs-basic\"><dct:title>wfs-basic</dct:title></earl:TestRequirement>"
+            + assertion("1", "CapabilitiesTests#checkPreconditions", "passed", "2019-01-02T10:00:00Z", "")
+            + assertion("2", "CapabilitiesTests#getCapabilities", "passed", "2019-01-02T10:00:01Z", "")
+            + assertion("3", "GetFeatureTests#getFeatureById", "untested", "2019-01-02T10:00:03Z",
+                    "<dct:description>Depends on getFeatureByType</dct:description>")
+            + assertion("4", "GetFeatureTests#getFeatureByType", "failed", "2019-01-02T10:00:02",
+                    "<dct:description>Expected 10 features</dct:description>"
+                            + "<earl:pointer><http:Request><http:absoluteURI>"
+                            + "http://example.com/wfs?service=WFS&amp;request=GetFeature</http:absoluteURI>"
+                            + "<http:resp rdf:parseType=\"Resource\">"
+                            + "<rdf:type rdf:resource=\"http://www.w3.org/2011/http#Response\"/>"
+                            + "<http:body><cnt:ContentAsText><cnt:chars>&lt;wfs:FeatureCollection/&gt;</cnt:chars>"
+                            + "</cnt:ContentAsText></http:body></http:resp></http:Request></earl:pointer>")
+            + "</rdf:RDF>";
+
+    @AfterClass
+    public static void tearDown() {
+        xmlPool.release();
+    }
+
+    private static String assertion(final String id, final String testCase, final String outcome, final String date,
+            final String properties) {
+        return "<earl:Assertion rdf:about=\"assert-" + id + "\"><earl:test><earl:TestCase rdf:about=\"org/example/"
+                + testCase + "\"><dct:title>" + testCase.substring(testCase.indexOf('#') + 1) + "</dct:title>"
+                + "<dct:isPartOf rdf:resource=\"wfs-basic\"/></earl:TestCase></earl:test>"
+                + "<earl:result rdf:nodeID=\"result-" + id + "\"/></earl:Assertion>"
+                + "<earl:TestResult rdf:nodeID=\"result-" + id + "\"><earl:outcome rdf:resource=\""
+                + "http://www.w3.org/ns/earl#" + outcome + "\"/><dct:date>" + date + "</dct:date>" + properties
+                + "</earl:TestResult>";
+    }
+
+    private static EID id(final String name) {
+        return EidFactory.getDefault().createUUID(name);
+    }
+
+    private static TeEtsIndex index(final boolean withGetFeatureById) {
+        final TeEtsIndex.Builder builder = new TeEtsIndex.Builder("wfs20");
+        final int module = builder.add(TeEtsIndex.MODULE, -1, id("m"), "wfs-basic", null);
+        final int getFeature = builder.add(TeEtsIndex.CASE, module, id("c1"), "org.example.GetFeatureTests", null);
+        builder.add(TeEtsIndex.STEP, getFeature, id("s1"), "getFeatureByType", "Query features by type");
+        if (withGetFeatureById) {
+            builder.add(TeEtsIndex.STEP, getFeature, id("s2"), "getFeatureById", null);
+        }
+        final int capabilities = builder.add(TeEtsIndex.CASE, module, id("c2"), "org.example.CapabilitiesTests", null);
+        builder.config(builder.add(TeEtsIndex.STEP, capabilities, id("s3"), "checkPreconditions", null));
+        builder.add(TeEtsIndex.STEP, capabilities, id("s4"), "getCapabilities", null);
+        return builder.build("hash");
+    }
+
+    private static Document earlResult() throws Exception {
+        return xmlPool.parse(new ByteArrayInputStream(EARL_RESULT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void earlToTestNg() throws Exception {
+        final TeResultFormats formats = new TeResultFormats(Arrays.asList(new TeEarlFormat(), new TeTestNgFormat()));
+        final Document earl = earlResult();
+        final TeResultFormat format = formats.detect(earl.getDocumentElement());
+        assertEquals(TeEarlFormat.NAME, format.getName());
+
+        final Document result = format.toTestNg(earl);
+        assertTrue(TeResultFormats.align(result, index(true)));
+        assertTrue(formats.testNg().isResult(result.getDocumentElement()));
+        assertEquals("4", result.getDocumentElement().getAttribute("total"));
+        assertEquals("1", result.getDocumentElement().getAttribute("failed"));
+
+        final Node suite = XmlUtils.getFirstChildNodeOfType(result.getDocumentElement(), ELEMENT_NODE, "suite");
+        assertEquals("wfs20", XmlUtils.getAttribute(suite, "name"));
+        assertEquals("3000", XmlUtils.getAttribute(suite, "duration-ms"));
+
+        // ordered like the model
+        final NodeList testMethods = result.getElementsByTagName("test-method");
+        assertEquals(4, testMethods.getLength());
+        final Element getFeatureByType = (Element) testMethods.item(0);
+        assertEquals("getFeatureByType", getFeatureByType.getAttribute("name"));
+        assertEquals("org.example.GetFeatureTests", ((Element) getFeatureByType.getParentNode()).getAttribute("name"));
+        assertEquals("Query features by type", getFeatureByType.getAttribute("description"));
+        assertEquals("FAIL", getFeatureByType.getAttribute("status"));
+        assertEquals("2019-01-02T10:00:02Z", getFeatureByType.getAttribute("started-at"));
+        assertEquals("Expected 10 features", getFeatureByType.getElementsByTagName("message").item(0).getTextContent());
+        final NodeList attributes = getFeatureByType.getElementsByTagName("attribute");
+        assertEquals("request", ((Element) attributes.item(0)).getAttribute("name"));
+        assertEquals("service=WFS&request=GetFeature", attributes.item(0).getTextContent());
+        assertEquals("<wfs:FeatureCollection/>", attributes.item(1).getTextContent());
+
+        final Element getFeatureById = (Element) testMethods.item(1);
+        assertEquals("SKIP", getFeatureById.getAttribute("status"));
+        assertEquals("false", getFeatureById.getAttribute("is-config"));
+        assertEquals("true", ((Element) testMethods.item(2)).getAttribute("is-config"));
+
+        final Node test = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE, "test");
+        assertEquals(4, TeModuleResult.extract("wfs20", test).getTestMethodCount());
+    }
+
+    @Test
+    public void earlNotMatchingModel() throws Exception {
+        final TeResultFormat earl = new TeEarlFormat();
+        // a test-method that is not part of the model
+        assertFalse(TeResultFormats.align(earl.toTestNg(earlResult()), index(false)));
+
+        // a test-method of the model is missing
+        assertFalse(TeResultFormats.align(earl.toTestNg(withoutAssertion(1)), index(true)));
+    }
+
+    private static Document withoutAssertion(final int index) throws Exception {
+        final Document earl = earlResult();
+        final Node assertion = earl.getDocumentElement().getElementsByTagNameNS(
+                "http://www.w3.org/ns/earl#", "Assertion").item(index);
+        assertion.getParentNode().removeChild(assertion);
+        return earl;
+    }
+
+    @Test
+    public void missingConfigMethod() throws Exception {
+        // a configuration method that is not reported is not filled in, its status is unknown
+        assertFalse(TeResultFormats.align(new TeEarlFormat().toTestNg(withoutAssertion(0)), index(true)));
+    }
+
+    @Test
+    public void durationsRequired() {
+        final EID etsId = id("ets");
+        final TeResultFormats formats = new TeResultFormats(Arrays.asList(new TeEarlFormat()), null, true);
+        assertSame(formats.testNg(), formats.select("te1", etsId, true));
+        assertEquals(TeEarlFormat.NAME,
+                new TeResultFormats(Arrays.asList(new TeEarlFormat()), null, false).select("te1", etsId, true)
+                        .getName());
+    }
+
+    @Test
+    public void savedMismatches() throws Exception {
+        final Path file = Files.createTempFile("etf-tetd-format-mismatches", ".properties");
+        try {
+            final EID etsId = id("ets");
+            final TeResultFormats formats = new TeResultFormats(Arrays.asList(new TeEarlFormat()), file, false);
+            formats.record("te1", formats.testNg(), 10000, 200, 10);
+            formats.mismatch("te1", etsId, formats.select("te1", etsId, true));
+
+            // the format is not tried again after a restart
+            final TeResultFormats restarted = new TeResultFormats(Arrays.asList(new TeEarlFormat()), file, false);
+            assertEquals(TeEarlFormat.NAME, restarted.select("te1", etsId, true).getName());
+            restarted.load();
+            assertSame(restarted.testNg(), restarted.select("te1", etsId, true));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void negotiation() {
+        final TeResultFormats formats = new TeResultFormats(Arrays.asList(new TeEarlFormat()));
+        final TeResultFormat testNg = formats.testNg();
+        final EID etsId = EidFactory.getDefault().createUUID("ets");
+
+        // TestNG until the model is available, then all formats are tried
+        assertSame(testNg, formats.select("te1", etsId, false));
+        final TeResultFormat earl = formats.select("te1", etsId, true);
+        assertEquals(TeEarlFormat.NAME, earl.getName());
+        assertNull(formats.isSupported("te1", earl));
+        formats.record("te1", earl, 30000, 100, 10);
+        assertSame(testNg, formats.select("te1", etsId, true));
+        formats.record("te1", testNg, 10000, 200, 10);
+
+        // the smallest format is used, formats of a similar size are ordered by time
+        assertSame(testNg, formats.select("te1", etsId, true));
+        formats.record("te1", earl, 0, 0, 40);
+        assertSame(earl, formats.select("te1", etsId, true));
+        formats.record("te1", testNg, 2000, 0, 0);
+        assertSame(earl, formats.select("te1", etsId, true));
+
+        // recorded per TEAM Engine and per ETS
+        formats.mismatch("te1", etsId, earl);
+        assertSame(testNg, formats.select("te1", etsId, true));
+        assertSame(earl, formats.select("te1", EidFactory.getDefault().createUUID("other"), true));
+        formats.unsupported("te2", earl);
+        assertSame(testNg, formats.select("te2", etsId, true));
+        assertFalse(formats.isSupported("te2", earl));
+        assertTrue(formats.isSupported("te2", testNg));
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeRunStatisticsTest {
+
+    private static final long MAX_TIMEOUT = 1200000;
+    private static final long MARGIN = 60000;
+
+    private final EID etsId = EidFactory.getDefault().createUUID("http://localhost/teamengine/rest/suites/wfs20/");
+
+    @Test
+    public void timeoutFromPercentile() {
+        final TeRunStatistics statistics = new TeRunStatistics(null, MARGIN);
+        for (int i = 1; i <= 4; i++) {
+            statistics.record(etsId, "a", i * 100000);
+        }
+        // not enough samples
+        assertEquals(MAX_TIMEOUT, statistics.timeout(etsId, "a", MAX_TIMEOUT));
+        statistics.record(etsId, "a", 500000);
+        // p95 of 5 samples is the largest one
+        assertEquals((long) (500000 * 1.5) + MARGIN, statistics.timeout(etsId, "a", MAX_TIMEOUT));
+        assertEquals(300000, statistics.expectedDuration(etsId, "a"));
+        // unknown host: median of all hosts, maximum timeout
+        assertEquals(300000, statistics.expectedDuration(etsId, "b"));
+        assertEquals(MAX_TIMEOUT, statistics.timeout(etsId, "b", MAX_TIMEOUT));
+
+        // bounded by the minimum and maximum timeout
+        final TeRunStatistics fast = new TeRunStatistics(null, 0);
+        for (int i = 0; i < 5; i++) {
+            fast.record(etsId, "a", 1000);
+        }
+        assertEquals(120000, fast.timeout(etsId, "a", MAX_TIMEOUT));
+        assertEquals(60000, fast.timeout(etsId, "a", 60000));
+    }
+
+    @Test
+    public void timeoutAfterTimedOutRun() {
+        final TeRunStatistics statistics = new TeRunStatistics(null, MARGIN);
+        for (int i = 0; i < 10; i++) {
+            statistics.record(etsId, "a", 100000);
+        }
+        final long timeout = statistics.timeout(etsId, "a", MAX_TIMEOUT);
+        assertEquals(210000, timeout);
+
+        // the endpoint slowed down: the next run gets the maximum timeout
+        statistics.recordTimeout(etsId, "a", timeout);
+        assertEquals(MAX_TIMEOUT, statistics.timeout(etsId, "a", MAX_TIMEOUT));
+
+        // the timed out run counts with its timeout as lower bound of the duration
+        statistics.record(etsId, "a", 400000);
+        assertEquals((long) (400000 * 1.5) + MARGIN, statistics.timeout(etsId, "a", MAX_TIMEOUT));
+        assertEquals(12, statistics.samples(etsId, "a"));
+    }
+
+    @Test
+    public void persistence() throws Exception {
+        final Path file = Files.createTempFile("etf-tetd-statistics", ".properties");
+        try {
+            final TeRunStatistics statistics = new TeRunStatistics(file, MARGIN);
+            statistics.record(etsId, "a", 100000);
+            statistics.recordTimeout(etsId, "a", 200000);
+            statistics.save();
+
+            final TeRunStatistics loaded = new TeRunStatistics(file, MARGIN);
+            loaded.load();
+            assertEquals(2, loaded.samples(etsId, "a"));
+            assertEquals(200000, loaded.expectedDuration(etsId, "a"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
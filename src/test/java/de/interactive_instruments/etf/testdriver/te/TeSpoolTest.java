@@ -0,0 +1,211 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeSpoolTest {
+
+    private static final TeXmlPool xmlPool = new TeXmlPool();
+
+    @AfterClass
+    public static void tearDown() {
+        xmlPool.release();
+    }
+
+    private static String read(final InputStream in) throws IOException {
+        try (final InputStream stream = in) {
+            return new String(IOUtils.toByteArray(stream), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void generatedResponsesAreSliced() throws Exception {
+        final byte[] result = new TeTestNgResultGenerator()
+                .testModules(2)
+                .classesPerModule(3)
+                .testMethodsPerClass(4)
+                .attachments(2, 20000)
+                .toByteArray();
+        final Document expected = xmlPool.parse(new ByteArrayInputStream(result));
+        final Path file;
+        try (final TeSpool spool = TeSpool.spool(new ByteArrayInputStream(result), 1024)) {
+            file = spool.getFile();
+            assertEquals(result.length, spool.getSize());
+            // only the responses exceed the threshold
+            assertEquals(2 * 3 * 4, spool.getSliceCount());
+
+            final NodeList expectedAttributes = expected.getElementsByTagName("attribute");
+            final NodeList attributes = spool.parse(xmlPool).getElementsByTagName("attribute");
+            assertEquals(expectedAttributes.getLength(), attributes.getLength());
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final String expectedValue = expectedAttributes.item(i).getTextContent();
+                final TeSpool.Slice slice = spool.slice(attributes.item(i).getTextContent());
+                if (i % 2 == 1) {
+                    assertNotNull(slice);
+                    assertEquals(expectedValue, read(slice.open()));
+                    assertTrue(xmlPool.isWellFormed(slice.open()));
+                } else {
+                    assertNull(slice);
+                    assertEquals(expectedValue, attributes.item(i).getTextContent());
+                }
+            }
+
+            final ByteArrayOutputStream complete = new ByteArrayOutputStream();
+            IOUtils.copy(spool.openFile(), complete);
+            assertArrayEquals(result, complete.toByteArray());
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void escapedAndCdataContent() throws Exception {
+        final String result = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                + "<testng-results><!-- <attribute name=\"comment\">not sliced</attribute> -->\r\n"
+                + "<message><![CDATA[<attribute name=\"message\">not sliced</attribute>]]></message>\r\n"
+                + "<attribute name=\"escaped\">\r\n  &lt;a b=&quot;&#x20AC;&amp;&#228;&quot;&gt;\r\nline&apos;s&#10;end&lt;/a&gt;\n</attribute>\r\n"
+                + "<attribute name=\"cdata\"> <![CDATA[<a>\r\n\u00e4 &amp;\rb</a>]]> </attribute>\r\n"
+                + "<attribute name=\"mixed\">text and <b>an element</b> of some length</attribute>\r\n"
+                + "<attribute name=\"sections\"><![CDATA[first section]]><![CDATA[second section]]></attribute>\r\n"
+                + "<attribute name=\"short\">&lt;a/&gt;</attribute>\r\n"
+                + "<attribute name=\"empty\"/>\r\n"
+                + "</testng-results>";
+        final byte[] bytes = result.getBytes(StandardCharsets.UTF_8);
+        final Document expected = xmlPool.parse(new ByteArrayInputStream(bytes));
+        try (final TeSpool spool = TeSpool.spool(new ByteArrayInputStream(bytes), 12)) {
+            assertEquals(2, spool.getSliceCount());
+            final NodeList expectedAttributes = expected.getElementsByTagName("attribute");
+            final NodeList attributes = spool.parse(xmlPool).getElementsByTagName("attribute");
+            assertEquals(6, attributes.getLength());
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final String expectedValue = expectedAttributes.item(i).getTextContent();
+                final TeSpool.Slice slice = spool.slice(attributes.item(i).getTextContent());
+                if (i < 2) {
+                    assertNotNull(slice);
+                    assertEquals(expectedValue.trim(), read(slice.open()));
+                } else {
+                    assertNull(slice);
+                    assertEquals(expectedValue, attributes.item(i).getTextContent());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void markersInResult() throws Exception {
+        final String result = "<testng-results>"
+                + "<attribute name=\"sliced\">" + new String(new char[64]).replace('\0', 'a') + "</attribute>"
+                + "<attribute name=\"marker\"> etf-tetd-slice:0 </attribute>"
+                + "<attribute name=\"token\">etf-tetd-slice-00000000-0000-0000-0000-000000000000:0</attribute>"
+                + "</testng-results>";
+        try (final TeSpool spool = TeSpool.spool(
+                new ByteArrayInputStream(result.getBytes(StandardCharsets.UTF_8)), 60)) {
+            assertEquals(1, spool.getSliceCount());
+            final NodeList attributes = spool.parse(xmlPool).getElementsByTagName("attribute");
+            assertNotNull(spool.slice(attributes.item(0).getTextContent()));
+            // content of the result that looks like a marker is not resolved
+            assertNull(spool.slice(attributes.item(1).getTextContent()));
+            assertNull(spool.slice(attributes.item(2).getTextContent()));
+        }
+    }
+
+    @Test
+    public void disabledThreshold() throws Exception {
+        final byte[] result = new TeTestNgResultGenerator().attachments(2, 4096).toByteArray();
+        try (final TeSpool spool = TeSpool.spool(new ByteArrayInputStream(result), 0)) {
+            assertEquals(0, spool.getSliceCount());
+            assertNull(spool.slice("etf-tetd-slice:0"));
+            assertEquals(xmlPool.parse(new ByteArrayInputStream(result)).getElementsByTagName("attribute").getLength(),
+                    spool.parse(xmlPool).getElementsByTagName("attribute").getLength());
+        }
+    }
+
+    @Test
+    public void bulkAndSingleByteReadsMatch() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append("line ").append(i).append(" &lt;a&gt; &#x20AC;\u00e4&amp;\r\n plain text&#10;\r end ");
+        }
+        final String result = "<?xml version=\"1.0\" encoding=\"utf-8\"?><testng-results><attribute name=\"a\">"
+                + content + "</attribute></testng-results>";
+        final byte[] bytes = result.getBytes(StandardCharsets.UTF_8);
+        final String expected = xmlPool.parse(new ByteArrayInputStream(bytes))
+                .getElementsByTagName("attribute").item(0).getTextContent();
+        try (final TeSpool spool = TeSpool.spool(new ByteArrayInputStream(bytes), 64)) {
+            assertEquals(1, spool.getSliceCount());
+            final TeSpool.Slice slice = spool.slice(
+                    spool.parse(xmlPool).getElementsByTagName("attribute").item(0).getTextContent());
+
+            final ByteArrayOutputStream singleBytes = new ByteArrayOutputStream();
+            try (final InputStream in = slice.open()) {
+                for (int b; (b = in.read()) != -1;) {
+                    singleBytes.write(b);
+                }
+            }
+            assertEquals(expected.trim(), new String(singleBytes.toByteArray(), StandardCharsets.UTF_8));
+
+            for (final int bufferSize : new int[]{1, 3, 7, 8192}) {
+                final ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[bufferSize];
+                try (final InputStream in = slice.open()) {
+                    for (int n; (n = in.read(buffer, 0, bufferSize)) != -1;) {
+                        bulk.write(buffer, 0, n);
+                    }
+                }
+                assertArrayEquals(singleBytes.toByteArray(), bulk.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void otherEncodingsAreNotSliced() throws Exception {
+        final String content = new String(new char[64]).replace('\0', '\u00e4');
+        final String result = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><testng-results>"
+                + "<attribute name=\"a\">" + content + "</attribute></testng-results>";
+        try (final TeSpool spool = TeSpool.spool(
+                new ByteArrayInputStream(result.getBytes(StandardCharsets.ISO_8859_1)), 32)) {
+            assertEquals(0, spool.getSliceCount());
+            assertEquals(content, spool.parse(xmlPool).getElementsByTagName("attribute").item(0).getTextContent());
+        }
+        final String utf16 = "<testng-results><attribute name=\"a\">" + content + "</attribute></testng-results>";
+        try (final TeSpool spool = TeSpool.spool(
+                new ByteArrayInputStream(utf16.getBytes(StandardCharsets.UTF_16)), 32)) {
+            assertEquals(0, spool.getSliceCount());
+            assertEquals(content, spool.parse(xmlPool).getElementsByTagName("attribute").item(0).getTextContent());
+        }
+    }
+}
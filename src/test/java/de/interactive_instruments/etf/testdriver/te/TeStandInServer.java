@@ -0,0 +1,385 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * In-process stand-in for a TEAM Engine and the tested WFS, for offline and
+ * load tests.
+ *
+ * The server provides the suite list and the detail page of the WFS 2.0 test
+ * suite, the run interface, which returns a canned or generated TestNG result,
+ * and a WFS Capabilities document for the preflight check of the driver. The
+ * latency and throughput of the run interface are configurable and faults can
+ * be injected.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeStandInServer implements AutoCloseable {
+
+    static final String SUITE_LABEL = "WFS 2.0 (OGC 09-025r2/ISO 19142) Conformance Test Suite";
+    // another name than the one of the public TEAM Engine, which results in another ETS ID
+    static final String SUITE_NAME = "wfs20-stand-in";
+    static final String SUITE_VERSION = "1.32";
+    static final EID ETS_ID = EidFactory.getDefault().createUUID(
+            "http://cite.opengeospatial.org/teamengine/rest/suites/" + SUITE_NAME + "/");
+
+    private static final String CONTEXT = "/teamengine";
+    private static final String SUITES_PATH = CONTEXT + "/rest/suites";
+    private static final String SUITE_PATH = SUITES_PATH + "/" + SUITE_NAME + "/" + SUITE_VERSION + "/";
+    private static final String WFS_PATH = "/wfs";
+    private static final int CHUNK_SIZE = 8192;
+    private static final long SLOW_BODY_BYTES_PER_SECOND = 16 * 1024;
+
+    /**
+     * Faults of the run interface
+     */
+    enum Fault {
+        // HTTP status 503 with an HTML error page
+        SERVER_ERROR,
+        // the connection is closed after half of the result has been sent
+        RESET,
+        // the result is sent in small parts with pauses
+        SLOW_BODY
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger runRequests = new AtomicInteger();
+    private final AtomicInteger activeRuns = new AtomicInteger();
+    private final AtomicInteger maxActiveRuns = new AtomicInteger();
+    private final Random random = new Random(1);
+
+    private volatile byte[] result;
+    private volatile TeTestNgResultGenerator generator;
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile boolean chunked = true;
+    private volatile Fault fault;
+    private volatile double faultRatio;
+    private volatile String capabilitiesVersion = "2.0.0";
+    private volatile long capabilitiesBytesPerSecond;
+
+    /**
+     * Start a server on a free port of the loopback interface
+     */
+    TeStandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "te-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(SUITES_PATH, this::handleSuites);
+        server.createContext(WFS_PATH, this::handleWfs);
+        server.start();
+    }
+
+    /**
+     * Returns the URL of the TEAM Engine, the value for {@link TeTestDriver#TE_REMOTE_URL}
+     */
+    String getTeamEngineUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + CONTEXT + "/";
+    }
+
+    /**
+     * Returns the URL of the WFS that is tested
+     */
+    String getServiceEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + WFS_PATH + "?service=WFS";
+    }
+
+    /**
+     * Return a canned TestNG result
+     */
+    TeStandInServer result(final byte[] result) {
+        this.result = result;
+        this.generator = null;
+        return this;
+    }
+
+    /**
+     * Generate the TestNG result for every run, streamed if chunked transfer is used
+     */
+    TeStandInServer result(final TeTestNgResultGenerator generator) {
+        this.generator = generator;
+        this.result = null;
+        return this;
+    }
+
+    /**
+     * Time the TEAM Engine needs before it responds to a run request
+     */
+    TeStandInServer latency(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * Maximum throughput of a run response, 0 for no limit
+     */
+    TeStandInServer throughput(final long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Use chunked transfer encoding for run responses, otherwise the length is sent
+     */
+    TeStandInServer chunked(final boolean chunked) {
+        this.chunked = chunked;
+        return this;
+    }
+
+    /**
+     * Inject a fault into a share of the run responses
+     *
+     * @param fault
+     *            the fault or null for none
+     * @param ratio
+     *            share of the affected responses, 1 for all
+     */
+    TeStandInServer fault(final Fault fault, final double ratio) {
+        this.fault = fault;
+        this.faultRatio = ratio;
+        return this;
+    }
+
+    /**
+     * Version of the WFS Capabilities document
+     */
+    TeStandInServer capabilitiesVersion(final String version) {
+        this.capabilitiesVersion = version;
+        return this;
+    }
+
+    /**
+     * Maximum throughput of the WFS Capabilities document, 0 for no limit
+     */
+    TeStandInServer capabilitiesThroughput(final long bytesPerSecond) {
+        this.capabilitiesBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    int getRunRequests() {
+        return runRequests.get();
+    }
+
+    /**
+     * Returns the maximum number of run requests that have been processed at the same time
+     */
+    int getMaxActiveRuns() {
+        return maxActiveRuns.get();
+    }
+
+    private void handleSuites(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        if (path.equals(SUITES_PATH) || path.equals(SUITES_PATH + "/")) {
+            send(exchange, 200, "text/html", ("<html><head><title>Test suites</title></head><body><ul>"
+                    + "<li><a href=\"suites/" + SUITE_NAME + "/" + SUITE_VERSION + "/\">" + SUITE_NAME
+                    + "</a></li>"
+                    + "</ul></body></html>").getBytes(StandardCharsets.UTF_8));
+        } else if (path.equals(SUITE_PATH)) {
+            send(exchange, 200, "text/html", ("<html><head><title>" + SUITE_LABEL + "</title></head><body>"
+                    + "<p>Stand-in of the WFS 2.0 conformance test suite.</p></body></html>")
+                            .getBytes(StandardCharsets.UTF_8));
+        } else if (path.equals(SUITE_PATH + "run")) {
+            final int active = activeRuns.incrementAndGet();
+            maxActiveRuns.accumulateAndGet(active, Math::max);
+            runRequests.incrementAndGet();
+            try {
+                handleRun(exchange);
+            } finally {
+                activeRuns.decrementAndGet();
+            }
+        } else {
+            send(exchange, 404, "text/html", "<html><body><p>Not found</p></body></html>"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void handleWfs(final HttpExchange exchange) throws IOException {
+        final byte[] capabilities = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" version=\""
+                + capabilitiesVersion + "\">"
+                + "<ows:ServiceIdentification xmlns:ows=\"http://www.opengis.net/ows/1.1\">"
+                + "<ows:Title>TEAM Engine stand-in WFS</ows:Title></ows:ServiceIdentification>"
+                + "</wfs:WFS_Capabilities>").getBytes(StandardCharsets.UTF_8);
+        final long bytesPerSecond = capabilitiesBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            send(exchange, 200, "application/xml", capabilities);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, capabilities.length);
+        try (final OutputStream out = new ThrottledOutputStream(exchange.getResponseBody(), bytesPerSecond)) {
+            for (final byte b : capabilities) {
+                out.write(b);
+                out.flush();
+            }
+        } catch (final IOException e) {
+            // closed by the client
+            exchange.close();
+        }
+    }
+
+    private Fault nextFault() {
+        final Fault currentFault = fault;
+        if (currentFault == null) {
+            return null;
+        }
+        synchronized (random) {
+            return random.nextDouble() < faultRatio ? currentFault : null;
+        }
+    }
+
+    private void handleRun(final HttpExchange exchange) throws IOException {
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        final Fault runFault = nextFault();
+        if (runFault == Fault.SERVER_ERROR) {
+            send(exchange, 503, "text/html", ("<html><head><title>Error</title></head><body>"
+                    + "<p>The TEAM Engine stand-in is not available.</p></body></html>")
+                            .getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        final TeTestNgResultGenerator resultGenerator = generator;
+        final byte[] body;
+        if (resultGenerator != null && (!chunked || runFault == Fault.RESET)) {
+            body = generate(resultGenerator);
+        } else {
+            body = result;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        // a reset requires a known length, a chunked response would be terminated properly on close
+        final boolean streamed = body == null || chunked && runFault != Fault.RESET;
+        exchange.sendResponseHeaders(200, streamed ? 0 : body.length);
+        try (final OutputStream out = new ThrottledOutputStream(exchange.getResponseBody(),
+                runFault == Fault.SLOW_BODY ? SLOW_BODY_BYTES_PER_SECOND : bytesPerSecond)) {
+            if (body == null) {
+                resultGenerator.write(out);
+            } else if (runFault == Fault.RESET) {
+                out.write(body, 0, body.length / 2);
+                out.flush();
+                // closing the exchange before the announced length has been sent drops the connection
+                exchange.close();
+                return;
+            } else {
+                for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+                    out.write(body, offset, Math.min(CHUNK_SIZE, body.length - offset));
+                }
+            }
+        } catch (final Exception e) {
+            exchange.close();
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] generate(final TeTestNgResultGenerator generator) throws IOException {
+        try {
+            return generator.toByteArray();
+        } catch (final Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String contentType,
+            final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Limits the throughput by pausing after each write
+     */
+    private static final class ThrottledOutputStream extends FilterOutputStream {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long written;
+
+        private ThrottledOutputStream(final OutputStream out, final long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            throttle(1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            throttle(len);
+        }
+
+        private void throttle(final int len) throws IOException {
+            written += len;
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            final long due = start + written * 1000000000L / bytesPerSecond;
+            final long wait = due - System.nanoTime();
+            if (wait > 1000000) {
+                try {
+                    Thread.sleep(wait / 1000000);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
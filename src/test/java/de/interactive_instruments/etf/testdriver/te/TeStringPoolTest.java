@@ -0,0 +1,69 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeStringPoolTest {
+
+    @Test
+    public void canonicalInstances() {
+        final TeStringPool pool = new TeStringPool(2);
+        final String label = new String("Test class");
+        assertSame(label, pool.canonical(label));
+        assertSame(label, pool.canonical(new String("Test class")));
+        assertSame(label, pool.canonical(label));
+        assertNull(pool.canonical(null));
+        assertEquals(3, pool.getLookups());
+        assertEquals(1, pool.getDeduplicated());
+        assertEquals(24 + 40, pool.getSavedBytes());
+
+        // the least recently used string is evicted
+        final String description = new String("Checks the response");
+        pool.canonical(description);
+        pool.canonical(new String("Capabilities"));
+        assertEquals(2, pool.size());
+        // only the strings replaced by the strings that are still pooled are counted
+        assertEquals(0, pool.getSavedBytes());
+        assertSame(description, pool.canonical(new String("Checks the response")));
+        assertEquals(24 + 56, pool.getSavedBytes());
+        assertNotSame(label, pool.canonical(new String("Test class")));
+        assertEquals(2, pool.getDeduplicated());
+
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.getSavedBytes());
+    }
+
+    @Test
+    public void disabledPool() {
+        final TeStringPool pool = new TeStringPool(0);
+        final String label = new String("Test class");
+        assertSame(label, pool.canonical(label));
+        assertNotSame(label, pool.canonical(new String("Test class")));
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.getSavedBytes());
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeTaskSchedulerTest {
+
+    @Test(timeout = 10000)
+    public void unlimited() throws Exception {
+        final TeTaskScheduler scheduler = new TeTaskScheduler(0);
+        final TeTaskScheduler.Ticket first = scheduler.acquire(1000);
+        final TeTaskScheduler.Ticket second = scheduler.acquire(1000);
+        assertEquals(0, scheduler.waitingTasks());
+        first.close();
+        second.close();
+    }
+
+    @Test(timeout = 10000)
+    public void shortestExpectedDurationFirst() throws Exception {
+        final TeTaskScheduler scheduler = new TeTaskScheduler(1);
+        final TeTaskScheduler.Ticket running = scheduler.acquire(1000);
+        final List<Long> started = new CopyOnWriteArrayList<>();
+        final Thread longTask = start(scheduler, 3600000, started);
+        awaitWaiting(scheduler, 1);
+        final Thread shortTask = start(scheduler, 1000, started);
+        awaitWaiting(scheduler, 2);
+
+        running.close();
+        // closing a ticket twice does not free a second slot
+        running.close();
+        longTask.join();
+        shortTask.join();
+        assertEquals(2, started.size());
+        assertEquals(1000, (long) started.get(0));
+        assertEquals(3600000, (long) started.get(1));
+    }
+
+    @Test(timeout = 10000)
+    public void interruptedWhileWaiting() throws Exception {
+        final TeTaskScheduler scheduler = new TeTaskScheduler(1);
+        final TeTaskScheduler.Ticket running = scheduler.acquire(1000);
+        final List<Long> started = new CopyOnWriteArrayList<>();
+        final Thread waitingTask = start(scheduler, 1000, started);
+        awaitWaiting(scheduler, 1);
+        waitingTask.interrupt();
+        waitingTask.join();
+        assertEquals(0, scheduler.waitingTasks());
+        assertTrue(started.isEmpty());
+
+        running.close();
+        scheduler.acquire(1000).close();
+    }
+
+    private static Thread start(final TeTaskScheduler scheduler, final long expectedDuration,
+            final List<Long> started) {
+        final Thread thread = new Thread(() -> {
+            try (final TeTaskScheduler.Ticket ignored = scheduler.acquire(expectedDuration)) {
+                started.add(expectedDuration);
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(final TeTaskScheduler scheduler, final int tasks) throws InterruptedException {
+        while (scheduler.waitingTasks() < tasks) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static de.interactive_instruments.etf.dal.dto.result.TestResultStatus.INTERNAL_ERROR;
+import static de.interactive_instruments.etf.testdriver.te.TeTestDriver.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.EtfConstants;
+import de.interactive_instruments.etf.dal.dao.DataStorage;
+import de.interactive_instruments.etf.dal.dao.DataStorageRegistry;
+import de.interactive_instruments.etf.dal.dao.WriteDao;
+import de.interactive_instruments.etf.dal.dto.capabilities.ResourceDto;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectDto;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.dal.dto.result.TestTaskResultDto;
+import de.interactive_instruments.etf.dal.dto.run.TestRunDto;
+import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.etf.test.DataStorageTestUtils;
+import de.interactive_instruments.etf.testdriver.*;
+import de.interactive_instruments.exceptions.ExcUtils;
+import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
+import de.interactive_instruments.properties.PropertyUtils;
+
+/**
+ * Runs the driver against the {@link TeStandInServer}, without network access.
+ *
+ * The load test executes many test runs concurrently and reports the throughput,
+ * the latency percentiles and the peak heap usage. The number of runs and the
+ * number of parallel runs can be set with the environment variables or system
+ * properties ETF_TE_LOAD_RUNS and ETF_TE_LOAD_PARALLEL. The test is not part of
+ * the default test task, run it with "gradlew performanceTest".
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TeTestDriverLoadTest {
+
+    // DO NOT RUN THE TESTS IN THE IDE BUT WITH "gradlew performanceTest"
+
+    private static final Logger logger = LoggerFactory.getLogger(TeTestDriverLoadTest.class);
+    private static final DataStorage DATA_STORAGE = DataStorageTestUtils.inMemoryStorage();
+
+    private static TeStandInServer standIn;
+    private static TestDriverManager testDriverManager;
+    private static byte[] responseXml;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        responseXml = Files.readAllBytes(new File("build/resources/test/response.xml").toPath());
+        standIn = new TeStandInServer().result(responseXml);
+
+        if (DataStorageRegistry.instance().get(DATA_STORAGE.getClass().getName()) == null) {
+            DataStorageRegistry.instance().register(DATA_STORAGE);
+        }
+        // the ETS of the stand-in has its own ID and does not replace the ETS of other tests
+        try {
+            ((WriteDao) DATA_STORAGE.getDao(ExecutableTestSuiteDto.class)).delete(TeStandInServer.ETS_ID);
+        } catch (final ObjectWithIdNotFoundException e) {
+            ExcUtils.suppress(e);
+        }
+
+        final IFile tdDir = new IFile(PropertyUtils.getenvOrProperty(
+                "ETF_TD_DEPLOYMENT_DIR", "./build/tmp/td"));
+        tdDir.ensureDir();
+        tdDir.expectDirIsReadable();
+
+        testDriverManager = new DefaultTestDriverManager();
+        testDriverManager.getConfigurationProperties().setProperty(
+                EtfConstants.ETF_TESTDRIVERS_DIR, tdDir.getAbsolutePath());
+        final IFile attachmentDir = new IFile(PropertyUtils.getenvOrProperty(
+                "ETF_DS_DIR", "./build/tmp/etf-ds")).secureExpandPathDown("attachments-load");
+        attachmentDir.deleteDirectory();
+        attachmentDir.mkdirs();
+        testDriverManager.getConfigurationProperties().setProperty(
+                EtfConstants.ETF_ATTACHMENT_DIR, attachmentDir.getAbsolutePath());
+        testDriverManager.getConfigurationProperties().setProperty(
+                EtfConstants.ETF_DATA_STORAGE_NAME, DATA_STORAGE.getClass().getName());
+        testDriverManager.getConfigurationProperties().setProperty(TE_REMOTE_URL, standIn.getTeamEngineUrl());
+        testDriverManager.getConfigurationProperties().setProperty(TE_TIMEOUT_SEC, "60");
+        testDriverManager.getConfigurationProperties().setProperty(TE_PREFLIGHT_TIMEOUT_SEC, "10");
+        testDriverManager.getConfigurationProperties().setProperty(TE_MAX_PARALLEL,
+                PropertyUtils.getenvOrProperty("ETF_TE_LOAD_PARALLEL", "8"));
+        testDriverManager.init();
+        testDriverManager.load(EidFactory.getDefault().createAndPreserveStr(TE_TEST_DRIVER_EID));
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        if (testDriverManager != null) {
+            testDriverManager.release();
+        }
+        // do not leave an ETS that points to the stand-in
+        try {
+            ((WriteDao) DATA_STORAGE.getDao(ExecutableTestSuiteDto.class)).delete(TeStandInServer.ETS_ID);
+        } catch (final ObjectWithIdNotFoundException e) {
+            ExcUtils.suppress(e);
+        }
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    private static TestRunDto createTestRunDto() throws Exception {
+        final TestObjectDto testObjectDto = new TestObjectDto();
+        testObjectDto.setId(EidFactory.getDefault().createRandomId());
+        testObjectDto.setLabel("TEAM Engine stand-in WFS");
+        final TestObjectTypeDto wfsTestObjectType = DATA_STORAGE.getDao(TestObjectTypeDto.class).getById(
+                EidFactory.getDefault().createAndPreserveStr("9b6ef734-981e-4d60-aa81-d6730a1c6389")).getDto();
+        testObjectDto.setTestObjectType(wfsTestObjectType);
+        testObjectDto.addResource(new ResourceDto("serviceEndpoint", standIn.getServiceEndpoint()));
+        testObjectDto.setDescription("none");
+        testObjectDto.setVersionFromStr("1.0.0");
+        testObjectDto.setCreationDate(new Date(0));
+        testObjectDto.setAuthor("ii");
+        testObjectDto.setRemoteResource(URI.create("http://none"));
+        testObjectDto.setItemHash("");
+        testObjectDto.setLocalPath("/none");
+        ((WriteDao) DATA_STORAGE.getDao(TestObjectDto.class)).add(testObjectDto);
+
+        final ExecutableTestSuiteDto ets = DATA_STORAGE.getDao(ExecutableTestSuiteDto.class)
+                .getById(TeStandInServer.ETS_ID).getDto();
+
+        final TestTaskDto testTaskDto = new TestTaskDto();
+        testTaskDto.setId(EidFactory.getDefault().createRandomId());
+        testTaskDto.setExecutableTestSuite(ets);
+        testTaskDto.setTestObject(testObjectDto);
+
+        final TestRunDto testRunDto = new TestRunDto();
+        testRunDto.setDefaultLang("en");
+        testRunDto.setId(EidFactory.getDefault().createRandomId());
+        testRunDto.setLabel("Load test run");
+        testRunDto.setStartTimestamp(new Date(0));
+        testRunDto.addTestTask(testTaskDto);
+        return testRunDto;
+    }
+
+    private static TestTaskResultDto run(final TaskPoolRegistry<TestRunDto, TestRun> taskPoolRegistry)
+            throws Exception {
+        final TestRunDto testRunDto = createTestRunDto();
+        final TestRun testRun = testDriverManager.createTestRun(testRunDto);
+        testRun.init();
+        taskPoolRegistry.submitTask(testRun);
+        final TestRunDto runResult = taskPoolRegistry.getTaskById(testRunDto.getId()).waitForResult();
+        assertNotNull(runResult);
+        return runResult.getTestTasks().get(0).getTestTaskResult();
+    }
+
+    private static long percentile(final List<Long> sortedValues, final double quantile) {
+        return sortedValues.get(Math.max(0, (int) Math.ceil(quantile * sortedValues.size()) - 1));
+    }
+
+    @Test
+    public void T1_concurrentRuns() throws Exception {
+        final int runs = Integer.parseInt(PropertyUtils.getenvOrProperty("ETF_TE_LOAD_RUNS", "32"));
+        final int parallel = Integer.parseInt(PropertyUtils.getenvOrProperty("ETF_TE_LOAD_PARALLEL", "8"));
+        standIn.result(responseXml).latency(500).throughput(4 * 1024 * 1024).chunked(true).fault(null, 0);
+        final int runRequestsBefore = standIn.getRunRequests();
+
+        // sample the heap usage while the runs are executed
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final AtomicLong peakHeap = new AtomicLong();
+        final ExecutorService sampler = Executors.newSingleThreadExecutor();
+        sampler.submit(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        final TaskPoolRegistry<TestRunDto, TestRun> taskPoolRegistry = new TaskPoolRegistry<>(parallel, parallel);
+        final ExecutorService clients = Executors.newFixedThreadPool(parallel);
+        final List<Future<Long>> latencies = new ArrayList<>();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < runs; i++) {
+            latencies.add(clients.submit(() -> {
+                final long runStart = System.currentTimeMillis();
+                final TestTaskResultDto result = run(taskPoolRegistry);
+                assertNotEquals(INTERNAL_ERROR, result.getResultStatus());
+                return System.currentTimeMillis() - runStart;
+            }));
+        }
+        final List<Long> sortedLatencies = new ArrayList<>();
+        for (final Future<Long> latency : latencies) {
+            sortedLatencies.add(latency.get(10, TimeUnit.MINUTES));
+        }
+        final long duration = System.currentTimeMillis() - start;
+        clients.shutdown();
+        sampler.shutdownNow();
+        Collections.sort(sortedLatencies);
+
+        logger.info("{} runs with {} in parallel in {} ms: {} runs/s, latency p50 {} ms, p95 {} ms, max {} ms, "
+                + "peak heap {} MB, at most {} TEAM Engine requests at the same time",
+                runs, parallel, duration, String.format("%.2f", runs * 1000.0 / duration),
+                percentile(sortedLatencies, 0.5), percentile(sortedLatencies, 0.95),
+                sortedLatencies.get(sortedLatencies.size() - 1), peakHeap.get() / (1024 * 1024),
+                standIn.getMaxActiveRuns());
+
+        assertEquals(runs, standIn.getRunRequests() - runRequestsBefore);
+        // the driver must not exceed the configured number of parallel TEAM Engine invocations
+        assertTrue(standIn.getMaxActiveRuns() <= parallel);
+    }
+
+    @Test
+    public void T2_serverError() throws Exception {
+        standIn.result(responseXml).latency(0).throughput(0).fault(TeStandInServer.Fault.SERVER_ERROR, 1);
+        final TestTaskResultDto result = run(new TaskPoolRegistry<>(1, 1));
+        assertEquals(INTERNAL_ERROR, result.getResultStatus());
+        assertTrue(result.getErrorMessage().contains("OGC TEAM Engine returned"));
+    }
+
+    @Test
+    public void T3_truncatedResult() throws Exception {
+        standIn.result(responseXml).latency(0).throughput(0).fault(TeStandInServer.Fault.RESET, 1);
+        final TestTaskResultDto result = run(new TaskPoolRegistry<>(1, 1));
+        assertEquals(INTERNAL_ERROR, result.getResultStatus());
+    }
+
+    @Test
+    public void T4_generatedResult() throws Exception {
+        standIn.result(new TeTestNgResultGenerator()
+                .testModules(20)
+                .classesPerModule(10)
+                .testMethodsPerClass(10)
+                .attachments(2, 4096))
+                .latency(0).throughput(0).chunked(true).fault(null, 0);
+        final TestTaskResultDto result = run(new TaskPoolRegistry<>(1, 1));
+        assertNotEquals(INTERNAL_ERROR, result.getResultStatus());
+        assertFalse(result.getTestModuleResults().isEmpty());
+    }
+}
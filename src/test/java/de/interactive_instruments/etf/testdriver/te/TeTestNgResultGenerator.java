@@ -0,0 +1,330 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Generates synthetic TestNG results as returned by the TEAM Engine.
+ *
+ * The counts of test modules, classes, test-methods and config steps, the status
+ * mix, the size of the attachments and the length of the exception messages are
+ * configurable. The output is deterministic for the same settings and seed. The
+ * document is written with a StAX writer and attachments in chunks, so that
+ * results with millions of test-methods or large attachments can be generated
+ * with little memory.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class TeTestNgResultGenerator {
+
+    private static final long START_TIME = 1494326594000L;
+    private static final int CHUNK_SIZE = 4096;
+    private static final String FEATURE = "<wfs:member><ns:City gml:id=\"c%d\"><ns:name>City %d</ns:name>"
+            + "<ns:location><gml:Point srsName=\"urn:ogc:def:crs:EPSG::4326\"><gml:pos>%d.%d %d.%d</gml:pos>"
+            + "</gml:Point></ns:location></ns:City></wfs:member>\n";
+
+    private String suiteName = "generated-1.0";
+    private int testModules = 10;
+    private int classesPerModule = 10;
+    private int testMethodsPerClass = 10;
+    private int configStepsPerClass = 1;
+    private double failedRatio = 0.05;
+    private double skippedRatio = 0.1;
+    private int attachmentsPerTestMethod = 2;
+    private int attachmentSize = 2048;
+    private int messageLength = 200;
+    private long seed = 1;
+
+    TeTestNgResultGenerator suiteName(final String suiteName) {
+        this.suiteName = suiteName;
+        return this;
+    }
+
+    TeTestNgResultGenerator testModules(final int testModules) {
+        this.testModules = testModules;
+        return this;
+    }
+
+    TeTestNgResultGenerator classesPerModule(final int classesPerModule) {
+        this.classesPerModule = classesPerModule;
+        return this;
+    }
+
+    TeTestNgResultGenerator testMethodsPerClass(final int testMethodsPerClass) {
+        this.testMethodsPerClass = testMethodsPerClass;
+        return this;
+    }
+
+    /**
+     * Config steps are generated in addition to the test-methods of a class
+     */
+    TeTestNgResultGenerator configStepsPerClass(final int configStepsPerClass) {
+        this.configStepsPerClass = configStepsPerClass;
+        return this;
+    }
+
+    /**
+     * Share of failed and skipped test-methods, the remaining ones pass
+     */
+    TeTestNgResultGenerator statusMix(final double failedRatio, final double skippedRatio) {
+        if (failedRatio < 0 || skippedRatio < 0 || failedRatio + skippedRatio > 1) {
+            throw new IllegalArgumentException("Invalid status mix: " + failedRatio + " failed, "
+                    + skippedRatio + " skipped");
+        }
+        this.failedRatio = failedRatio;
+        this.skippedRatio = skippedRatio;
+        return this;
+    }
+
+    /**
+     * Attachments of each test-method, alternating requests and responses
+     *
+     * @param attachmentsPerTestMethod
+     *            number of attachments
+     * @param attachmentSize
+     *            approximate size of the responses in characters
+     */
+    TeTestNgResultGenerator attachments(final int attachmentsPerTestMethod, final int attachmentSize) {
+        this.attachmentsPerTestMethod = attachmentsPerTestMethod;
+        this.attachmentSize = attachmentSize;
+        return this;
+    }
+
+    /**
+     * Length of the exception messages of failed and skipped test-methods
+     */
+    TeTestNgResultGenerator messageLength(final int messageLength) {
+        this.messageLength = messageLength;
+        return this;
+    }
+
+    TeTestNgResultGenerator seed(final long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Returns the number of test-methods, excluding config steps
+     */
+    long getTestMethodCount() {
+        return (long) testModules * classesPerModule * testMethodsPerClass;
+    }
+
+    // SplitMix64, the status of a test-method only depends on the seed and its position
+    private double random(final long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    private String status(final long index) {
+        final double value = random(index);
+        if (value < failedRatio) {
+            return "FAIL";
+        } else if (value < failedRatio + skippedRatio) {
+            return "SKIP";
+        }
+        return "PASS";
+    }
+
+    /**
+     * Write the result to a file
+     */
+    void write(final Path file) throws IOException, XMLStreamException {
+        try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 65536)) {
+            write(out);
+        }
+    }
+
+    /**
+     * Write the result to a byte array, for small results only
+     */
+    byte[] toByteArray() throws XMLStreamException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the result to a stream, the stream is not closed
+     */
+    void write(final OutputStream out) throws XMLStreamException {
+        long passed = 0;
+        long failed = 0;
+        long skipped = 0;
+        for (long i = 0; i < getTestMethodCount(); i++) {
+            switch (status(i)) {
+            case "PASS":
+                passed++;
+                break;
+            case "FAIL":
+                failed++;
+                break;
+            default:
+                skipped++;
+            }
+        }
+
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final long methodsPerModule = (long) classesPerModule * (testMethodsPerClass + configStepsPerClass);
+        final long suiteEnd = START_TIME + testModules * methodsPerModule * 1000;
+
+        final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("testng-results");
+        writer.writeAttribute("skipped", String.valueOf(skipped));
+        writer.writeAttribute("failed", String.valueOf(failed));
+        writer.writeAttribute("total", String.valueOf(passed + failed + skipped));
+        writer.writeAttribute("passed", String.valueOf(passed));
+        writer.writeStartElement("reporter-output");
+        writer.writeEndElement();
+        writer.writeStartElement("suite");
+        writer.writeAttribute("name", suiteName);
+        writer.writeAttribute("duration-ms", String.valueOf(suiteEnd - START_TIME));
+        writer.writeAttribute("started-at", format.format(new Date(START_TIME)));
+        writer.writeAttribute("finished-at", format.format(new Date(suiteEnd)));
+        writer.writeStartElement("groups");
+        writer.writeEndElement();
+
+        long time = START_TIME;
+        long testMethodIndex = 0;
+        for (int m = 0; m < testModules; m++) {
+            final long moduleEnd = time + methodsPerModule * 1000;
+            writer.writeStartElement("test");
+            writer.writeAttribute("name", "Module " + m);
+            writer.writeAttribute("duration-ms", String.valueOf(moduleEnd - time));
+            writer.writeAttribute("started-at", format.format(new Date(time)));
+            writer.writeAttribute("finished-at", format.format(new Date(moduleEnd)));
+            for (int c = 0; c < classesPerModule; c++) {
+                writer.writeStartElement("class");
+                writer.writeAttribute("name", "org.opengis.cite.generated.module" + m + ".Class" + c);
+                for (int s = 0; s < configStepsPerClass; s++) {
+                    writeTestMethod(writer, format, "setUp" + s, true, "PASS", time, -1);
+                    time += 1000;
+                }
+                for (int t = 0; t < testMethodsPerClass; t++) {
+                    writeTestMethod(writer, format, "test" + t, false, status(testMethodIndex), time,
+                            testMethodIndex);
+                    testMethodIndex++;
+                    time += 1000;
+                }
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+    }
+
+    private void writeTestMethod(final XMLStreamWriter writer, final SimpleDateFormat format, final String name,
+            final boolean config, final String status, final long start, final long index) throws XMLStreamException {
+        writer.writeStartElement("test-method");
+        writer.writeAttribute("status", status);
+        writer.writeAttribute("signature", name + "()[pri:0, instance:org.opengis.cite.generated@" + index + "]");
+        writer.writeAttribute("name", name);
+        if (config) {
+            writer.writeAttribute("is-config", "true");
+        } else {
+            writer.writeAttribute("description", "Generated test method " + name);
+        }
+        writer.writeAttribute("duration-ms", "1000");
+        writer.writeAttribute("started-at", format.format(new Date(start)));
+        writer.writeAttribute("finished-at", format.format(new Date(start + 1000)));
+        if (!"PASS".equals(status)) {
+            writer.writeStartElement("exception");
+            writer.writeAttribute("class", "FAIL".equals(status) ? "java.lang.AssertionError"
+                    : (index % 2 == 0 ? "org.testng.SkipException" : "java.lang.IllegalStateException"));
+            writer.writeStartElement("message");
+            writer.writeCData(message(index));
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+        if (!config && attachmentsPerTestMethod > 0) {
+            writer.writeStartElement("attributes");
+            for (int a = 0; a < attachmentsPerTestMethod; a++) {
+                writer.writeStartElement("attribute");
+                if (a % 2 == 0) {
+                    writer.writeAttribute("name", "request");
+                    writer.writeCharacters(index % 3 == 0
+                            ? "<wfs:GetFeature xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" count=\"10\" service=\"WFS\" "
+                                    + "version=\"2.0.0\"><wfs:Query typeNames=\"ns:City\"/></wfs:GetFeature>"
+                            : "service=WFS&version=2.0.0&request=GetFeature&count=10&typenames=ns:City&startindex="
+                                    + index);
+                } else {
+                    writer.writeAttribute("name", "response");
+                    writeResponse(writer, index);
+                }
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private String message(final long index) {
+        final StringBuilder message = new StringBuilder(messageLength + 64);
+        message.append("Test method ").append(index).append(" did not succeed.");
+        while (message.length() < messageLength) {
+            message.append(" Expected a response with at least one feature member.");
+        }
+        message.setLength(Math.max(0, messageLength));
+        return message.toString();
+    }
+
+    // a feature collection with members until the attachment size is reached, written in chunks
+    private void writeResponse(final XMLStreamWriter writer, final long index) throws XMLStreamException {
+        final StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 512);
+        chunk.append("<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" ")
+                .append("xmlns:gml=\"http://www.opengis.net/gml/3.2\" ")
+                .append("xmlns:ns=\"http://www.interactive-instruments.de/namespaces/demo/cities/4.0/cities\">\n");
+        final String end = "</wfs:FeatureCollection>";
+        int written = 0;
+        for (int member = 0; written + chunk.length() + end.length() < attachmentSize; member++) {
+            chunk.append(String.format(Locale.ENGLISH, FEATURE, member, index, 48 + member % 6, member % 100,
+                    6 + member % 8, (index + member) % 100));
+            if (chunk.length() >= CHUNK_SIZE) {
+                writer.writeCharacters(chunk.toString());
+                written += chunk.length();
+                chunk.setLength(0);
+            }
+        }
+        chunk.append(end);
+        writer.writeCharacters(chunk.toString());
+    }
+}
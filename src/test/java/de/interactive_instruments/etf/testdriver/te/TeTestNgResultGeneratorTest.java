@@ -0,0 +1,112 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import de.interactive_instruments.XmlUtils;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeTestNgResultGeneratorTest {
+
+    private static TeTestNgResultGenerator smallResult() {
+        return new TeTestNgResultGenerator()
+                .testModules(3)
+                .classesPerModule(4)
+                .testMethodsPerClass(5)
+                .configStepsPerClass(2)
+                .statusMix(0.2, 0.3)
+                .attachments(2, 10000)
+                .messageLength(500);
+    }
+
+    @Test
+    public void generatedStructure() throws Exception {
+        final TeTestNgResultGenerator generator = smallResult();
+        final TeXmlPool xmlPool = new TeXmlPool();
+        final Document document = xmlPool.parse(new ByteArrayInputStream(generator.toByteArray()));
+
+        final Element result = document.getDocumentElement();
+        assertEquals("testng-results", result.getNodeName());
+        assertEquals(generator.getTestMethodCount(), Long.parseLong(result.getAttribute("total")));
+        assertEquals(generator.getTestMethodCount(), Long.parseLong(result.getAttribute("passed"))
+                + Long.parseLong(result.getAttribute("failed")) + Long.parseLong(result.getAttribute("skipped")));
+        assertTrue(Long.parseLong(result.getAttribute("failed")) > 0);
+        assertEquals(3 * 4 * (5 + 2), document.getElementsByTagName("test-method").getLength());
+
+        final Node suite = XmlUtils.getFirstChildNodeOfType(result, ELEMENT_NODE, "suite");
+        int testModules = 0;
+        for (Node testModule = XmlUtils.getFirstChildNodeOfType(suite, ELEMENT_NODE,
+                "test"); testModule != null; testModule = XmlUtils.getNextSiblingOfType(testModule, ELEMENT_NODE, "test")) {
+            assertEquals(4 * (5 + 2), TeModuleResult.extract("generated", testModule).getTestMethodCount());
+            testModules++;
+        }
+        assertEquals(3, testModules);
+
+        // responses are well-formed XML of about the configured size
+        final Node response = document.getElementsByTagName("attribute").item(1);
+        assertEquals("response", XmlUtils.getAttribute(response, "name"));
+        final String responseXml = XmlUtils.nodeValue(response);
+        assertTrue(xmlPool.isWellFormed(responseXml));
+        assertTrue(responseXml.length() > 9000 && responseXml.length() < 11000);
+        xmlPool.release();
+    }
+
+    @Test
+    public void deterministicOutput() throws Exception {
+        assertArrayEquals(smallResult().toByteArray(), smallResult().toByteArray());
+        assertFalse(Arrays.equals(smallResult().toByteArray(), smallResult().seed(2).toByteArray()));
+    }
+
+    @Test
+    public void streamedOutput() throws Exception {
+        // 1000 test-methods with 64 KB responses are written to a sink without holding the document
+        final TeTestNgResultGenerator generator = new TeTestNgResultGenerator()
+                .testModules(1)
+                .classesPerModule(100)
+                .testMethodsPerClass(10)
+                .attachments(2, 65536);
+        final long[] written = new long[1];
+        generator.write(new OutputStream() {
+            @Override
+            public void write(final int b) {
+                written[0]++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                written[0] += len;
+            }
+        });
+        assertTrue(written[0] > 1000L * 65536);
+    }
+}
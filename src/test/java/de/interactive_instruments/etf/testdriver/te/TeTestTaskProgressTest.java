@@ -0,0 +1,89 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeTestTaskProgressTest {
+
+    @Test
+    public void steps() {
+        assertEquals(4, new TeTestTaskProgress().getMaxSteps());
+        // one step per expected test-method
+        assertEquals(4 + 10, new TeTestTaskProgress(10, -1).getMaxSteps());
+        // and the wait steps if the duration is known
+        assertEquals(4 + 100 + 10, new TeTestTaskProgress(10, 60000).getMaxSteps());
+
+        final TeTestTaskProgress progress = new TeTestTaskProgress(2, -1);
+        for (int i = 0; i < 3; i++) {
+            progress.testMethodMapped();
+        }
+        // more test-methods than expected are not counted
+        assertEquals(2, progress.getCurrentStepsCompleted());
+        progress.invocationStarted();
+        progress.invocationStarted();
+        // a further invocation does not advance the progress
+        assertEquals(3, progress.getCurrentStepsCompleted());
+    }
+
+    @Test
+    public void waitSteps() throws Exception {
+        final TeTestTaskProgress progress = new TeTestTaskProgress(0, 200);
+        progress.tick();
+        assertEquals(0, progress.getCurrentStepsCompleted());
+        assertEquals(-1, progress.getEstimatedRemainingTime());
+
+        progress.invocationStarted();
+        progress.tick();
+        assertTrue(progress.getCurrentStepsCompleted() < 1 + 50);
+        assertTrue(progress.getEstimatedRemainingTime() > 0);
+
+        // the expected duration has been exceeded, the last wait step waits for the result
+        Thread.sleep(300);
+        progress.tick();
+        assertEquals(1 + 99, progress.getCurrentStepsCompleted());
+        assertEquals(0, progress.getEstimatedRemainingTime());
+        progress.invocationFinished();
+        assertEquals(1 + 100, progress.getCurrentStepsCompleted());
+        progress.tick();
+        assertEquals(1 + 100, progress.getCurrentStepsCompleted());
+    }
+
+    @Test
+    public void bytesReceived() {
+        final TeTestTaskProgress progress = new TeTestTaskProgress();
+        progress.bytesReceived(1024);
+        progress.bytesReceived(512);
+        assertEquals(1536, progress.getBytesReceived());
+
+        final TeMetrics metrics = new TeMetrics();
+        metrics.addTaskProgress("task1", progress);
+        assertEquals(1536L, metrics.snapshot().get("te_task_bytes_received{task=\"task1\"}"));
+        // unknown without an expected duration
+        assertFalse(metrics.snapshot().containsKey("te_task_remaining_ms{task=\"task1\"}"));
+        metrics.removeTaskProgress("task1");
+        assertFalse(metrics.snapshot().containsKey("te_task_bytes_received{task=\"task1\"}"));
+    }
+}
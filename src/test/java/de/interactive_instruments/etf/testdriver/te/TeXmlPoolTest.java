@@ -0,0 +1,73 @@
+/**
+ * Copyright 2017-2019 European Union
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.te;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class TeXmlPoolTest {
+
+    private static final TeXmlPool xmlPool = new TeXmlPool();
+
+    @AfterClass
+    public static void tearDown() {
+        xmlPool.release();
+    }
+
+    private static boolean isWellFormedStream(final String xml) {
+        return xmlPool.isWellFormed(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void wellFormed() {
+        assertTrue(xmlPool.isWellFormed("<?xml version=\"1.0\"?><wfs:FeatureCollection"
+                + " xmlns:wfs=\"http://www.opengis.net/wfs/2.0\"/>"));
+        assertFalse(xmlPool.isWellFormed("service=WFS&request=GetCapabilities"));
+        assertFalse(xmlPool.isWellFormed("<a><b></a>"));
+        assertFalse(xmlPool.isWellFormed(""));
+        assertFalse(xmlPool.isWellFormed((String) null));
+    }
+
+    @Test
+    public void doctype() {
+        // the external DTD is not loaded
+        final String xhtml = "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\""
+                + " \"http://localhost:1/xhtml1-strict.dtd\"><html xmlns=\"http://www.w3.org/1999/xhtml\"/>";
+        assertTrue(xmlPool.isWellFormed(xhtml));
+        assertTrue(isWellFormedStream(xhtml));
+
+        final String internalEntity = "<!DOCTYPE ServiceExceptionReport [<!ENTITY version \"1.3.0\">]>"
+                + "<ServiceExceptionReport version=\"&version;\"/>";
+        assertTrue(xmlPool.isWellFormed(internalEntity));
+        assertTrue(isWellFormedStream(internalEntity));
+
+        // external entities are not resolved
+        assertTrue(xmlPool.isWellFormed("<!DOCTYPE a [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><a>&e;</a>"));
+        assertFalse(xmlPool.isWellFormed("<!DOCTYPE a><a>&undeclared;</a>"));
+    }
+}